@@ -0,0 +1,166 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: Account.java
+//Program Purpose: Account.java holds the messages sent from one phone
+//number in the order they were added, together with a running total of
+//their charges in Money units that is updated on every add and remove so
+//the total never has to be summed from the list. For every message type
+//the account also keeps the positions of its messages of that type in
+//order, so the first (or every) message of a type is found without
+//scanning. Removed messages are only marked as gone and the list is
+//compacted when it is next read or when more than half of it is gone.
+//----------------------------
+import java.util.*;
+//----------------------------
+class Account {
+
+   private ArrayList<Item> messages;
+   private IntQueue[] positions;
+   private int erased;
+   private long totalCharges;
+
+   public Account() {
+      messages = new ArrayList<Item>();
+      positions = new IntQueue[MessageType.values().length];
+      for (int i = 0; i < positions.length; i++) {
+         positions[i] = new IntQueue();
+      }
+      erased = 0;
+      totalCharges = 0;
+   }
+
+   public void add(Item messageItem) {
+
+      MessageType type = MessageType.of(messageItem);
+
+      // Sum first, so a total that overflows leaves the account unchanged.
+      totalCharges = Money.add(totalCharges, messageItem.getCharge());
+      if (type != null) {
+         positions[type.ordinal()].add(messages.size());
+      }
+      messages.add(messageItem);
+   }
+
+   public void addAll(List<? extends Item> items) {
+      messages.ensureCapacity(messages.size() + items.size());
+      for (Item messageItem : items) {
+         add(messageItem);
+      }
+   }
+
+   // Removes and returns the first message of the type, or returns null if
+   // the account has none.
+   public Item removeFirst(MessageType type) {
+
+      IntQueue queue = positions[type.ordinal()];
+
+      if (queue.isEmpty()) {
+         return null;
+      }
+
+      Item removed = erase(queue.poll());
+      compactIfSparse();
+      return removed;
+   }
+
+   // Removes every message of the type and returns them in insertion order.
+   public List<Item> removeAll(MessageType type) {
+
+      IntQueue queue = positions[type.ordinal()];
+      ArrayList<Item> removed = new ArrayList<Item>(queue.size());
+
+      while (!queue.isEmpty()) {
+         removed.add(erase(queue.poll()));
+      }
+      compactIfSparse();
+      return removed;
+   }
+
+   // A view of the messages that later changes to the account show
+   // through. Use snapshot() for a list that stays as it is.
+   public List<Item> getMessages() {
+      if (erased > 0) {
+         compact();
+      }
+      return Collections.unmodifiableList(messages);
+   }
+
+   // A copy of the messages and the total as they are now.
+   public AccountSnapshot snapshot(String number) {
+      return new AccountSnapshot(number, Collections.unmodifiableList(
+            new ArrayList<Item>(getMessages())), totalCharges);
+   }
+
+   public int size() {
+      return messages.size() - erased;
+   }
+
+   public int count(MessageType type) {
+      return positions[type.ordinal()].size();
+   }
+
+   public long getTotalCharges() {
+      return totalCharges;
+   }
+
+   private Item erase(int position) {
+
+      Item removed = messages.set(position, null);
+      erased++;
+      totalCharges = Money.subtract(totalCharges, removed.getCharge());
+      return removed;
+   }
+
+   private void compactIfSparse() {
+      if (erased * 2 > messages.size()) {
+         compact();
+      }
+   }
+
+   // Drops the erased slots and rebuilds the type positions to match.
+   private void compact() {
+
+      ArrayList<Item> live = new ArrayList<Item>(size());
+
+      for (IntQueue queue : positions) {
+         queue.clear();
+      }
+      for (Item messageItem : messages) {
+         if (messageItem != null) {
+            MessageType type = MessageType.of(messageItem);
+            if (type != null) {
+               positions[type.ordinal()].add(live.size());
+            }
+            live.add(messageItem);
+         }
+      }
+      messages = live;
+      erased = 0;
+   }
+}
+
+class AccountSnapshot {
+
+   private String number;
+   private List<Item> messages;
+   private long totalCharges;
+
+   public AccountSnapshot(String number, List<Item> messages,
+         long totalCharges) {
+      this.number = number;
+      this.messages = messages;
+      this.totalCharges = totalCharges;
+   }
+
+   public String getNumber() {
+      return number;
+   }
+
+   public List<Item> getMessages() {
+      return messages;
+   }
+
+   public long getTotalCharges() {
+      return totalCharges;
+   }
+}
@@ -0,0 +1,100 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: CarrierMetricsMXBean.java
+//Program Purpose: CarrierMetricsMXBean.java is the JMX view of Metrics,
+//registered as cellcarrier:type=Metrics when metrics are turned on. JMX
+//clients such as jconsole show the latencies as a table with one row per
+//operation. All times are in microseconds.
+//----------------------------
+import java.util.*;
+import javax.management.ConstructorParameters;
+//----------------------------
+public interface CarrierMetricsMXBean {
+
+   long getLinesParsed();
+
+   // Lines parsed per second of loading, over every load so far.
+   double getLinesPerSecond();
+
+   // Lines that failed to parse, by record type letter.
+   Map<String, Long> getParseFailures();
+
+   // Items per second of its own time of each RecordPipeline stage, by
+   // stage name.
+   Map<String, Double> getStageThroughput();
+
+   long getAccounts();
+
+   long getMessages();
+
+   // Used heap divided by resident messages.
+   long getHeapBytesPerMessage();
+
+   // The account cache of the -disk store: lookups that found the account
+   // cached or read it from the file, accounts evicted and evicted accounts
+   // written back to the file.
+   long getCacheHits();
+
+   long getCacheMisses();
+
+   long getCacheEvictions();
+
+   long getCacheWriteBacks();
+
+   // Latency of every operation that has run at least once, by name.
+   Map<String, LatencySummary> getLatencies();
+
+   void reset();
+
+   public static class LatencySummary {
+
+      private long count;
+      private double mean;
+      private long p50;
+      private long p90;
+      private long p99;
+      private long p999;
+      private long max;
+
+      @ConstructorParameters({ "count", "mean", "p50", "p90", "p99", "p999",
+            "max" })
+      public LatencySummary(long count, double mean, long p50, long p90,
+            long p99, long p999, long max) {
+         this.count = count;
+         this.mean = mean;
+         this.p50 = p50;
+         this.p90 = p90;
+         this.p99 = p99;
+         this.p999 = p999;
+         this.max = max;
+      }
+
+      public long getCount() {
+         return count;
+      }
+
+      public double getMean() {
+         return mean;
+      }
+
+      public long getP50() {
+         return p50;
+      }
+
+      public long getP90() {
+         return p90;
+      }
+
+      public long getP99() {
+         return p99;
+      }
+
+      public long getP999() {
+         return p999;
+      }
+
+      public long getMax() {
+         return max;
+      }
+   }
+}
@@ -14,6 +14,7 @@
 //----------------------------
 import java.util.*;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
@@ -24,112 +25,758 @@ import java.nio.file.Paths;
 public class CellCarrier {
 
    public static void main(String[] args) {
-      SmartCarrier user = new SmartCarrier("Palo Alto");
-      user.init();
-      user.run();
+
+      MessageStore store = null;
+      String storeOption = null;
+      String loader = "-sequential";
+      boolean snapshot = false;
+      boolean indexed = false;
+      boolean lazyText = false;
+      boolean cacheText = false;
+      String diskFile = null;
+      int servePort = -1;
+      String disconnectFile = null;
+      String logFile = null;
+      String shardSpec = null;
+      String sourceOption = null;
+      ArrayList<Path> inputFiles = new ArrayList<Path>();
+      long cacheMegabytes = 64;
+
+      for (String arg : args) {
+         if (arg.equals("-columnar") || arg.equals("-concurrent")
+               || arg.equals("-offheap") || arg.startsWith("-offheap=")) {
+            storeOption = arg;
+         }
+
+         else if (arg.equals("-snapshot")) {
+            snapshot = true;
+         }
+
+         // -indexed keeps receiver, time and usage indexes, so the menu and
+         // the command server answer inbound, time range and usage queries.
+         else if (arg.equals("-indexed")) {
+            indexed = true;
+         }
+
+         // -lazy leaves text contents in the mapped input file, -lazy-cached
+         // also keeps each one once it has been decoded.
+         else if (arg.equals("-lazy") || arg.equals("-lazy-cached")) {
+            lazyText = true;
+            cacheText = arg.equals("-lazy-cached");
+         }
+
+         // -disk=<file> keeps the accounts in that file with the hot ones
+         // in a cache of -cache=<MB> megabytes.
+         else if (arg.startsWith("-disk=")) {
+            diskFile = arg.substring("-disk=".length());
+         }
+
+         else if (arg.startsWith("-cache=")) {
+            cacheMegabytes = Long.parseLong(arg.substring("-cache=".length()));
+         }
+
+         // -serve=<port> takes commands over TCP on the loopback interface
+         // instead of from the menu.
+         else if (arg.startsWith("-serve=")) {
+            servePort = Integer.parseInt(arg.substring("-serve=".length()));
+         }
+
+         // -disconnect=<file> disconnects the numbers in the file, one per
+         // line, once the accounts are loaded.
+         else if (arg.startsWith("-disconnect=")) {
+            disconnectFile = arg.substring("-disconnect=".length());
+         }
+
+         // -log records erases and disconnects in a mutation log,
+         // -log=<file> in that file, and replays it on startup.
+         else if (arg.equals("-log")) {
+            logFile = SmartCarrier.MUTATION_LOG_LOCATION;
+         }
+
+         else if (arg.startsWith("-log=")) {
+            logFile = arg.substring("-log=".length());
+         }
+
+         // -shards=<n> splits the accounts across n shards by hash,
+         // -shards=<bound>,<bound>... at those numbers.
+         else if (arg.startsWith("-shards=")) {
+            shardSpec = arg.substring("-shards=".length());
+         }
+
+         // -input=<file> reads that input file instead of src/messages.txt.
+         // A sharded carrier can be given one for every site.
+         else if (arg.startsWith("-input=")) {
+            inputFiles.add(Paths.get(arg.substring("-input=".length())));
+         }
+
+         // -source=<file|mapped|stdin|host:port> has the sequential loader
+         // stream the input file, map it, read standard input or read the
+         // lines a server sends on a connection to host and port.
+         else if (arg.startsWith("-source=")) {
+            sourceOption = arg.substring("-source=".length());
+         }
+
+         else {
+            loader = arg;
+         }
+      }
+
+      if (sourceOption != null && !loader.equals("-sequential")) {
+         System.out.println("-source only applies to the sequential loader");
+         return;
+      }
+
+      // The menu reads its choices from standard input.
+      if ("stdin".equals(sourceOption) && servePort < 0) {
+         System.out.println("-source=stdin needs -serve");
+         return;
+      }
+
+      // The log redoes changes on top of a fixed baseline, which neither a
+      // growing input nor an account file that saves changes itself is.
+      if (logFile != null && (loader.equals("-follow") || diskFile != null)) {
+         System.out.println("-log cannot be used with -follow or -disk");
+         return;
+      }
+
+      // The account file is the store, and the follower needs a store that
+      // takes appends while the menu reads.
+      if (diskFile != null && (storeOption != null
+            || loader.equals("-follow"))) {
+         System.out.println("-disk cannot be used with -follow, -columnar,"
+               + " -concurrent or -offheap");
+         return;
+      }
+
+      if (loader.equals("-follow") && storeOption != null
+            && !storeOption.equals("-concurrent")) {
+         System.out.println("-follow keeps the accounts in the concurrent"
+               + " store and cannot be used with -columnar or -offheap");
+         return;
+      }
+
+      if (shardSpec != null) {
+         if (loader.equals("-follow") || diskFile != null || logFile != null
+               || snapshot || servePort >= 0 || sourceOption != null) {
+            System.out.println("-shards cannot be used with -follow, -disk,"
+                  + " -log, -snapshot, -serve or -source");
+            return;
+         }
+         runSharded(shardSpec, storeOption, inputFiles, lazyText, cacheText,
+               indexed, disconnectFile);
+         return;
+      }
+
+      if (inputFiles.size() > 1) {
+         System.out.println("Only a sharded carrier reads more than one"
+               + " -input");
+         return;
+      }
+
+      if (diskFile != null) {
+         try {
+            store = new DiskMessageStore(Paths.get(diskFile),
+                  cacheMegabytes << 20);
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+            return;
+         }
+      }
+
+      // The follower appends from its own thread while the menu runs.
+      else if (loader.equals("-follow")) {
+         store = new ConcurrentMessageStore();
+      }
+
+      else {
+         store = newStore(storeOption);
+      }
+
+      SmartCarrier user = new SmartCarrier("Palo Alto", store, indexed);
+      if (!inputFiles.isEmpty()) {
+         user.setInputFileLocation(inputFiles.get(0).toString());
+      }
+      user.setSnapshotOnExit(snapshot);
+      user.setLazyText(lazyText, cacheText);
+      if (loader.equals("-parallel")) {
+         user.setParallelism(Runtime.getRuntime().availableProcessors());
+      }
+
+      boolean restore = snapshot
+            && user.canRestoreSnapshot(loader.equals("-follow"));
+
+      // The mutation log applies to a particular baseline, so it decides
+      // whether to start from the snapshot or the input file.
+      if (logFile != null) {
+         try {
+            long baseline = user.getMutationLogBaseline(Paths.get(logFile));
+            if (baseline != MutationLog.NO_LOG) {
+               restore = baseline != MutationLog.INPUT;
+            }
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+            return;
+         }
+      }
+
+      // An account file that already holds accounts replaces the input.
+      if (store.accountCount() > 0) {
+         System.out.println("Opened " + store.accountCount()
+               + " accounts from " + diskFile);
+      }
+
+      // A snapshot replaces parsing the input file. When following, it is
+      // only usable if it records how far into the input file it reaches.
+      else if (restore && user.restoreSnapshot()) {
+         if (loader.equals("-follow")) {
+            user.follow(user.getInputOffset());
+         }
+      }
+
+      else {
+         switch (loader) {
+         case "-mapped":
+            user.initMapped();
+            break;
+         case "-parallel":
+            try {
+               user.initParallel();
+            }
+            catch (IOException e) {
+               e.printStackTrace();
+               System.exit(1);
+            }
+            break;
+         case "-follow":
+            user.follow(0);
+            break;
+         default:
+            if (sourceOption == null) {
+               user.init();
+               break;
+            }
+            try {
+               user.init(newSource(sourceOption, inputFiles.isEmpty()
+                     ? Paths.get(SmartCarrier.INPUT_FILE_LOCATION)
+                     : inputFiles.get(0)));
+            }
+            catch (IOException e) {
+               e.printStackTrace();
+               return;
+            }
+            break;
+         }
+      }
+
+      if (logFile != null) {
+         try {
+            user.openMutationLog(Paths.get(logFile));
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+            return;
+         }
+      }
+      if (disconnectFile != null) {
+         try {
+            System.out.print(user.disconnectAll(Paths.get(disconnectFile)));
+            user.awaitDurable();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+
+      if (servePort >= 0) {
+         user.serve(servePort);
+      }
+
+      else {
+         user.run();
+      }
+   }
+
+   // A new empty store of the kind the option selects: -columnar,
+   // -concurrent, -offheap keeping the messages in direct memory, which
+   // needs -XX:MaxDirectMemorySize to grow past the heap size, or
+   // -offheap=<dir> in memory-mapped scratch files in that directory. The
+   // tree store if option is null.
+   static MessageStore newStore(String option) {
+
+      if (option == null) {
+         return new TreeMapMessageStore();
+      }
+
+      switch (option) {
+      case "-columnar":
+         return new ColumnarMessageStore();
+      case "-concurrent":
+         return new ConcurrentMessageStore();
+      case "-offheap":
+         return new OffHeapMessageStore();
+      default:
+         return new OffHeapMessageStore(
+               Paths.get(option.substring("-offheap=".length())));
+      }
+   }
+
+   // The record source the -source option names, reading inputFile if it
+   // reads a file.
+   private static RecordSource newSource(String option, Path inputFile)
+         throws IOException {
+
+      switch (option) {
+      case "file":
+         return StreamRecordSource.open(inputFile);
+      case "mapped":
+         return new MappedRecordSource(inputFile);
+      case "stdin":
+         return new StreamRecordSource(System.in, "standard input");
+      default:
+         int colon = option.lastIndexOf(':');
+         return StreamRecordSource.connect(option.substring(0, colon),
+               Integer.parseInt(option.substring(colon + 1)));
+      }
+   }
+
+   // Loads every shard from the input files at once and runs the menu over
+   // all of them.
+   private static void runSharded(String shardSpec, String storeOption,
+         List<Path> inputFiles, boolean lazyText, boolean cacheText,
+         boolean indexed, String disconnectFile) {
+
+      ShardRouter router = null;
+
+      if (shardSpec.matches("[0-9]+")) {
+         router = new HashRouter(Integer.parseInt(shardSpec));
+      }
+
+      else {
+         router = new RangeRouter(shardSpec.split(","));
+      }
+
+      MessageStore[] stores = new MessageStore[router.shards()];
+
+      for (int i = 0; i < stores.length; i++) {
+         stores[i] = newStore(storeOption);
+      }
+
+      ShardedCarrier carrier = new ShardedCarrier("Palo Alto", router,
+            stores, indexed);
+
+      carrier.setLazyText(lazyText, cacheText);
+      if (inputFiles.isEmpty()) {
+         inputFiles = Collections.singletonList(
+               Paths.get(SmartCarrier.INPUT_FILE_LOCATION));
+      }
+
+      try {
+         carrier.load(inputFiles);
+         if (disconnectFile != null) {
+            System.out.print(carrier.disconnectAll(Paths.get(disconnectFile)));
+         }
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+         return;
+      }
+      carrier.run();
    }
 }
 
-class SmartCarrier {
+class SmartCarrier implements IndexedQueries {
 
-   private TreeMap<String, ArrayList<Item>> messageMap;
+   private MessageStore messageStore;
+   private MessageStore backingStore;
+   private ReceiverIndex receiverIndex;
+   private TimeIndex timeIndex;
+   private UsageIndex usageIndex;
+   private SymbolTable numberSymbols;
+   private SymbolTable formatSymbols;
+   private ParallelSweep parallelSweep;
+   private FileFollower follower;
+   private DeadLetterFile followerDeadLetters;
+   private MutationLog mutationLog;
+   private long baseline;
+   private long inputOffset;
+   private boolean snapshotOnExit;
+   private boolean lazyText;
+   private boolean cacheText;
+   private ReportWriter report;
    private String location;
-   private static String INPUT_FILE_LOCATION = "src/messages.txt";
+   private String inputFileLocation;
+   static final String INPUT_FILE_LOCATION = "src/messages.txt";
+   private static String CHECKPOINT_LOCATION = "src/messages.txt.offset";
+   private static String SNAPSHOT_LOCATION = "src/messages.snapshot";
+   static final String MUTATION_LOG_LOCATION = "src/messages.log";
+   static final String DEAD_LETTER_LOCATION = "src/messages.rejected";
 
    public SmartCarrier() {
-      messageMap = new TreeMap<String, ArrayList<Item>>();
-      location = "Location not specified";
+      this("Location not specified");
    }
 
    public SmartCarrier(String location) {
-      messageMap = new TreeMap<String, ArrayList<Item>>();
+      this(location, new TreeMapMessageStore());
+   }
+
+   public SmartCarrier(String location, MessageStore messageStore) {
+      this(location, messageStore, false);
+   }
+
+   // If indexed, everything goes through the receiver, time and usage
+   // indexes so they see every message that is loaded, erased or
+   // disconnected. They keep every message's Item and a copy of its time,
+   // charge and size on the heap, which costs far more than a compact
+   // store such as the off-heap one keeps per message, so they are only
+   // built for a carrier that answers inbound, time range or usage
+   // queries.
+   public SmartCarrier(String location, MessageStore messageStore,
+         boolean indexed) {
+      this.messageStore = messageStore;
+      backingStore = messageStore;
+      if (indexed) {
+         receiverIndex = new ReceiverIndex(messageStore);
+         timeIndex = new TimeIndex(receiverIndex);
+         usageIndex = new UsageIndex(timeIndex);
+         this.messageStore = usageIndex;
+         if (messageStore.accountCount() > 0) {
+            receiverIndex.indexExisting();
+            timeIndex.indexExisting();
+            usageIndex.indexExisting();
+         }
+      }
+      Metrics.register(this.messageStore);
       this.location = location;
+      numberSymbols = new SymbolTable("numbers");
+      formatSymbols = new SymbolTable("formats");
+      inputOffset = -1;
+      baseline = MutationLog.INPUT;
+      inputFileLocation = INPUT_FILE_LOCATION;
    }
 
    public void init() {
 
-      String line = null;
-      String key = null;
-      ArrayList<Item> account = null;
-      BufferedReader reader = null;
-      Path inputFilePath = Paths.get(INPUT_FILE_LOCATION);
+      // Lazy Texts point into the mapped file, so the mapped loader reads it.
+      if (lazyText) {
+         initMapped();
+         return;
+      }
 
-      final String TEXT_MSG_ID = "T";
-      final String MEDIA_MSG_ID = "M";
-      final String VOICE_MSG_ID = "V";
+      try {
+         init(StreamRecordSource.open(Paths.get(inputFileLocation)));
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // Loads the messages the source delivers through a RecordPipeline and
+   // closes the source. Lines that do not parse are put in the dead letter
+   // file and counted on System.err instead of stopping the load.
+   public void init(RecordSource source) {
+
+      long start = Metrics.start();
+
+      try (DeadLetterFile deadLetters = new DeadLetterFile(
+            Paths.get(DEAD_LETTER_LOCATION))) {
+         RecordPipeline pipeline = new RecordPipeline(source, numberSymbols,
+               formatSymbols);
+         pipeline.setDeadLetters(deadLetters);
+         pipeline.load(messageStore);
+         deadLetters.report(source);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+      finally {
+         Metrics.stop(Metrics.Operation.LOAD, start);
+      }
+   }
+
+   // Loads the mapped input file on this thread, putting lines that do
+   // not parse in the dead letter file.
+   public void initMapped() {
+
+      Path inputFilePath = Paths.get(inputFileLocation);
+      long start = Metrics.start();
+
+      try (DeadLetterFile deadLetters = new DeadLetterFile(
+            Paths.get(DEAD_LETTER_LOCATION))) {
+         MappedRecordParser parser = new MappedRecordParser(numberSymbols,
+               formatSymbols);
+         parser.setTextSource(newTextSource(inputFilePath));
+         parser.setDeadLetters(deadLetters);
+         inputOffset = parser.load(inputFilePath, messageStore);
+         deadLetters.report(inputFilePath);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+      finally {
+         Metrics.stop(Metrics.Operation.LOAD, start);
+      }
+   }
+
+   private TextSource newTextSource(Path inputFilePath) throws IOException {
+      return lazyText ? new TextSource(inputFilePath, cacheText) : null;
+   }
+
+   public void initParallel() throws IOException {
+      initParallel(Runtime.getRuntime().availableProcessors());
+   }
+
+   // Loads the input file on this many threads. If it fails, the
+   // exception is thrown with nothing loaded.
+   public void initParallel(int threads) throws IOException {
+
+      Path inputFilePath = Paths.get(inputFileLocation);
+      ParallelLoader loader = new ParallelLoader(threads, numberSymbols,
+            formatSymbols);
+      long start = Metrics.start();
+
+      try (DeadLetterFile deadLetters = new DeadLetterFile(
+            Paths.get(DEAD_LETTER_LOCATION))) {
+         loader.setTextSource(newTextSource(inputFilePath));
+         loader.setDeadLetters(deadLetters);
+         inputOffset = loader.load(inputFilePath, messageStore);
+         deadLetters.report(inputFilePath);
+      }
+      finally {
+         Metrics.stop(Metrics.Operation.LOAD, start);
+      }
+   }
+
+   // Applies the input file from startOffset on, then keeps applying lines
+   // appended to it on a background thread. Lines before startOffset must
+   // already be in the store. Use a store that supports concurrent updates
+   // if the menu runs at the same time. Lines that do not parse, now or
+   // later, go to the dead letter file.
+   public FileFollower follow(long startOffset) {
+
+      Path inputFilePath = Paths.get(inputFileLocation);
+
+      if (follower != null) {
+         follower.stop();
+      }
+      follower = new FileFollower(inputFilePath,
+            Paths.get(CHECKPOINT_LOCATION), messageStore, numberSymbols,
+            formatSymbols, startOffset);
 
       try {
+         if (followerDeadLetters == null) {
+            followerDeadLetters = new DeadLetterFile(
+                  Paths.get(DEAD_LETTER_LOCATION));
+         }
+         follower.setDeadLetters(followerDeadLetters);
+         follower.poll();
+         followerDeadLetters.report(inputFilePath);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+      // The follower tries the same lines again once it is running.
+      catch (RuntimeException e) {
+         e.printStackTrace();
+      }
+      follower.start();
+      return follower;
+   }
+
+   // Saves every account to the snapshot file, together with how far into
+   // the input file the accounts reach. With a mutation log the log is
+   // compacted into the snapshot and starts over empty. A running follower
+   // is held between polls while the snapshot is written, so it applies no
+   // line past the offset the snapshot records.
+   public void saveSnapshot() {
 
-         reader = Files.newBufferedReader(inputFilePath,
-               StandardCharsets.US_ASCII);
-         Item messageItem = null;
+      FileFollower held = follower;
 
-         while ((line = reader.readLine()) != null) {
+      if (held != null) {
+         synchronized (held) {
+            writeSnapshot();
+         }
+      }
 
-            String[] parts = line.split(",");
-            String messageType = parts[0].toUpperCase();
+      else {
+         writeSnapshot();
+      }
+   }
 
-            switch (messageType) {
-            case TEXT_MSG_ID: {
-               String content = parts[4];
-               Text text = new Text(content);
-               int time = Integer.parseInt(parts[1]);
-               String sender = parts[2];
-               String receiver = parts[3];
-               double charge = Double.parseDouble(parts[5]);
+   private void writeSnapshot() {
 
-               Message<Text> textMessage = new Message<Text>(time, sender,
-                     receiver, charge, text);
-               key = sender;
-               messageItem = textMessage;
-               break;
-            }
-            case MEDIA_MSG_ID: {
-               double size = Double.parseDouble(parts[4]);
-               String format = parts[5];
-               Media media = new Media(size, format);
-               int time = Integer.parseInt(parts[1]);
-               String sender = parts[2];
-               String receiver = parts[3];
-               double charge = Double.parseDouble(parts[6]);
-
-               Message<Media> mediaMessage = new Message<Media>(time, sender,
-                     receiver, charge, media);
-               key = sender;
-               messageItem = mediaMessage;
-               break;
-            }
-            case VOICE_MSG_ID:
-               int duration = Integer.parseInt(parts[4]);
-               String format = parts[5];
-               Voice voice = new Voice(duration, format);
-               int time = Integer.parseInt(parts[1]);
-               String sender = parts[2];
-               String receiver = parts[3];
-               double charge = Double.parseDouble(parts[6]);
-
-               Message<Voice> voiceMessage = new Message<Voice>(time, sender,
-                     receiver, charge, voice);
-               key = sender;
-               messageItem = voiceMessage;
-               break;
-            }
+      long start = Metrics.start();
 
-            if (messageMap.containsKey(key)) {
-               account = messageMap.get(key);
-               account.add(messageItem);
-            }
+      try {
+         if (mutationLog != null) {
+            mutationLog.compact(messageStore, Paths.get(SNAPSHOT_LOCATION),
+                  getInputOffset());
+         }
 
-            else if (!messageMap.containsKey(key)) {
-               ArrayList<Item> newEntry = new ArrayList<Item>();
-               newEntry.add(messageItem);
-               messageMap.put(key, newEntry);
-            }
+         else {
+            SnapshotFile.write(Paths.get(SNAPSHOT_LOCATION), messageStore,
+                  getInputOffset());
          }
       }
       catch (IOException e) {
          e.printStackTrace();
       }
+      finally {
+         Metrics.stop(Metrics.Operation.SNAPSHOT_SAVE, start);
+      }
+   }
+
+   // True if a snapshot exists and, when the input will be followed, knows
+   // the input offset to follow from.
+   public boolean canRestoreSnapshot(boolean following) {
+
+      Path snapshotPath = Paths.get(SNAPSHOT_LOCATION);
+
+      try {
+         return Files.exists(snapshotPath)
+               && (!following || SnapshotFile.sourceOffset(snapshotPath) >= 0);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+         return false;
+      }
+   }
+
+   // Loads the accounts from the snapshot file instead of the input file.
+   // Returns false, with nothing loaded, if the snapshot is damaged.
+   public boolean restoreSnapshot() {
+
+      long start = Metrics.start();
+
+      try {
+         inputOffset = SnapshotFile.read(Paths.get(SNAPSHOT_LOCATION),
+               messageStore, numberSymbols, formatSymbols);
+         baseline = SnapshotFile.checksum(Paths.get(SNAPSHOT_LOCATION));
+         return true;
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+         return false;
+      }
+      finally {
+         Metrics.stop(Metrics.Operation.SNAPSHOT_RESTORE, start);
+      }
+   }
+
+   // What the mutation log at logPath was written against: the snapshot's
+   // checksum if the accounts must be restored from the snapshot before
+   // it is opened, MutationLog.INPUT if they must be parsed from the input
+   // file, or MutationLog.NO_LOG if there is no log yet.
+   public long getMutationLogBaseline(Path logPath) throws IOException {
+      return MutationLog.baseline(logPath, Paths.get(SNAPSHOT_LOCATION));
+   }
+
+   // Opens the mutation log at logPath, replays it on top of the loaded
+   // accounts and records every later erase and disconnect in it. Call
+   // once the accounts are loaded, from the baseline the log asks for.
+   public void openMutationLog(Path logPath) throws IOException {
+
+      // Replay goes through the same methods with no log to record in.
+      MutationLog log = new MutationLog(logPath, baseline,
+            new MutationLog.Target() {
+               public void eraseFirst(MessageType type) {
+                  SmartCarrier.this.eraseFirst(type);
+               }
+
+               public void eraseAll(MessageType type) {
+                  SmartCarrier.this.eraseAll(type);
+               }
+
+               public void disconnect(String number) {
+                  messageStore.remove(number);
+               }
+
+               public void disconnectAll(String[] numbers) {
+                  SmartCarrier.this.disconnectAll(Arrays.asList(numbers));
+               }
+            });
+      mutationLog = log;
+   }
+
+   // Waits until every erase and disconnect so far is in the mutation log
+   // on disk. Changes are only durable once this returns.
+   public void awaitDurable() throws IOException {
+      if (mutationLog != null) {
+         mutationLog.awaitDurable();
+      }
+   }
+
+   // Compacts the mutation log into a new snapshot once it has grown past
+   // MutationLog.COMPACT_BYTES.
+   private void compactLogIfLarge() {
+      if (mutationLog != null
+            && mutationLog.size() > MutationLog.COMPACT_BYTES) {
+         saveSnapshot();
+      }
+   }
+
+   // How many bytes of the input file the accounts reflect, or -1 if not
+   // known.
+   public long getInputOffset() {
+      return follower != null ? follower.getOffset() : inputOffset;
+   }
+
+   // Reads the messages from another file than src/messages.txt, such as a
+   // generated benchmark file.
+   public void setInputFileLocation(String inputFileLocation) {
+      this.inputFileLocation = inputFileLocation;
+   }
+
+   public void setSnapshotOnExit(boolean snapshotOnExit) {
+      this.snapshotOnExit = snapshotOnExit;
+   }
+
+   // With lazy text on, the loaders leave text contents in the mapped input
+   // file and decode them when they are read, keeping the decoded String
+   // if cacheText is set. Stores that copy the content, the columnar and
+   // off-heap ones, still decode every text once as it is added.
+   public void setLazyText(boolean lazyText, boolean cacheText) {
+      this.lazyText = lazyText;
+      this.cacheText = cacheText;
+   }
+
+   // Appends a message to its sender's account. Safe to call from an ingest
+   // thread while the menu runs if the store is a ConcurrentMessageStore.
+   public void addMessage(Item messageItem) {
+      messageStore.add(messageItem);
+   }
+
+   // Returns the total charges of the account in Money units without
+   // walking its messages.
+   public long getTotalCharges(String number)
+         throws InvalidAccountException {
+
+      if (!messageStore.contains(number)) {
+         throw new InvalidAccountException(number);
+      }
+      return messageStore.totalCharges(number);
+   }
+
+   // Runs the listing and erase sweeps on this many threads, or on the
+   // caller thread if threads is 1 or less.
+   public void setParallelism(int threads) {
+
+      if (parallelSweep != null) {
+         parallelSweep.shutdown();
+         parallelSweep = null;
+      }
+      if (threads > 1) {
+         parallelSweep = new ParallelSweep(threads);
+      }
+   }
+
+   public SymbolTable getNumberSymbols() {
+      return numberSymbols;
+   }
+
+   public SymbolTable getFormatSymbols() {
+      return formatSymbols;
    }
 
    public void run() {
@@ -144,11 +791,7 @@ class SmartCarrier {
       final int QUIT = 4;
 
       do {
-         System.out.printf("%n%40s%n %42s%n %-20s%n %-34s%n %-21s%n %-7s%n",
-               "FOOTHILL WIRELESS at " + location,
-               "MESSAGE UTILIZATION AND ACCOUNT ADMIN", "1. List all accounts",
-               "2. Erase the first media message", "3. Disconnect account",
-               "4. Quit");
+         printMenu(location, isIndexed());
          try {
             userInput = Integer.parseInt(reader.readLine());
             switch (userInput) {
@@ -161,6 +804,11 @@ class SmartCarrier {
             case DISCONNECT_ACCOUNT:
                this.disconnectAccount();
                break;
+            default:
+               if (isIndexed()) {
+                  QueryMenu.run(userInput, this, reader);
+               }
+               break;
             }
          }
          catch (IOException e) {
@@ -169,57 +817,379 @@ class SmartCarrier {
       }
       while (userInput != QUIT);
 
+      exit();
+   }
+
+   // The menu run() answers, also used by ShardedCarrier. An indexed
+   // carrier also answers the QueryMenu choices.
+   static void printMenu(String location, boolean indexed) {
+      System.out.printf("%n%40s%n %42s%n %-20s%n %-34s%n %-21s%n %-7s%n",
+            "FOOTHILL WIRELESS at " + location,
+            "MESSAGE UTILIZATION AND ACCOUNT ADMIN", "1. List all accounts",
+            "2. Erase the first media message", "3. Disconnect account",
+            "4. Quit");
+      if (indexed) {
+         QueryMenu.print();
+      }
+   }
+
+   // Serves CommandServer clients until one sends SHUTDOWN, then exits the
+   // same way the menu's Quit does.
+   public void serve(int port) {
+
+      try {
+         CommandServer server = new CommandServer(this, port);
+         System.out.println("Serving commands on port " + server.getPort());
+         server.serve();
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+      exit();
+   }
+
+   // The follower is stopped first, so nothing is applied after the
+   // snapshot is saved or while the store is closed.
+   private void exit() {
+      if (follower != null) {
+         follower.stop();
+      }
+      if (snapshotOnExit) {
+         saveSnapshot();
+      }
+      closeMutationLog();
+      closeStore();
+      closeDeadLetters();
       System.exit(0);
    }
 
-   private void listAllAccounts() {
+   private void closeDeadLetters() {
+
+      if (followerDeadLetters != null) {
+         try {
+            followerDeadLetters.close();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+   }
 
-      ArrayList<Item> account = null;
-      double totalCharges = 0.0;
+   private void closeMutationLog() {
 
-      System.out.printf("%40s%n", "LIST OF ALL ACCOUNTS");
-      System.out.println("--------------------------------------------------");
+      if (mutationLog != null) {
+         try {
+            mutationLog.close();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+   }
 
-      for (Map.Entry<String, ArrayList<Item>> entry : messageMap.entrySet()) {
-         account = entry.getValue();
-         ListIterator<Item> iter = account.listIterator();
-         Item element = null;
+   // Writes back a store that keeps its accounts on disk.
+   private void closeStore() {
 
-         System.out.println("Account: " + entry.getKey());
-         while (iter.hasNext()) {
-            element = iter.next();
-            totalCharges += element.getCharge();
-            System.out.print(element.toString());
+      if (backingStore instanceof Closeable) {
+         try {
+            ((Closeable) backingStore).close();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
          }
-         System.out.printf("%-14s %.2f%n", "Total charges: ", totalCharges);
-         System.out.println(
-               "------------------------------------------------" + "--");
-         totalCharges = 0;
       }
    }
 
-   private void eraseFirstMedia() {
-      for (Map.Entry<String, ArrayList<Item>> entry : messageMap.entrySet()) {
-         eraseHelper(entry.getValue());
+   // Renders the listing through a ReportWriter, which pads every field by
+   // hand and writes the report to System.out in large blocks.
+   private void listAllAccounts() throws IOException {
+
+      if (report == null) {
+         report = new ReportWriter(System.out);
       }
+      listAllAccounts(report);
    }
 
-   private static void eraseHelper(List<? extends Item> list) {
-      for (Item element : list) {
-         if (element instanceof Message<?>) {
-            if (((Message<?>) element).getFormat() instanceof Media) {
-               list.remove(element);
-               break;
+   void listAllAccounts(ReportWriter report) throws IOException {
+
+      AccountSnapshot account = null;
+      long start = Metrics.start();
+
+      report.writeHeader();
+
+      if (parallelSweep != null) {
+         listAllAccountsParallel(report);
+      }
+
+      else {
+         for (String number : messageStore.accounts()) {
+            account = messageStore.snapshot(number);
+            if (account != null) {
+               report.writeAccount(account);
             }
          }
       }
+      report.flush();
+      Metrics.stop(Metrics.Operation.LIST_ALL_ACCOUNTS, start);
+   }
+
+   // Renders blocks of accounts on the sweep pool and prints each block in
+   // account order before rendering the next, so the whole report is never
+   // held in memory at once.
+   private void listAllAccountsParallel(ReportWriter report)
+         throws IOException {
+
+      final int REPORT_BLOCK = 1 << 14;
+      String[] numbers = messageStore.accounts().toArray(new String[0]);
+
+      for (int from = 0; from < numbers.length; from += REPORT_BLOCK) {
+         int to = Math.min(numbers.length, from + REPORT_BLOCK);
+         for (String account : parallelSweep.render(messageStore, numbers,
+               from, to)) {
+            report.write(account);
+         }
+      }
+   }
+
+   private void eraseFirstMedia() throws IOException {
+      eraseFirst(MessageType.MEDIA);
+      awaitDurable();
+   }
+
+   // Removes the first message of the type from every account and returns
+   // how many messages were removed.
+   public long eraseFirst(MessageType type) {
+
+      long removed = 0;
+      long start = Metrics.start();
+
+      if (parallelSweep != null && messageStore.supportsParallelUpdates()) {
+         removed = parallelSweep.eraseFirst(messageStore,
+               messageStore.accounts().toArray(new String[0]), type);
+      }
+
+      else {
+         for (String number : messageStore.accounts()) {
+            if (messageStore.eraseFirst(number, type) != null) {
+               removed++;
+            }
+         }
+      }
+      Metrics.stop(Metrics.Operation.ERASE_FIRST, start);
+      if (mutationLog != null && removed > 0) {
+         mutationLog.eraseFirst(type);
+         compactLogIfLarge();
+      }
+      return removed;
+   }
+
+   // Removes every message of the type from every account and returns how
+   // many messages were removed.
+   public long eraseAll(MessageType type) {
+
+      long removed = 0;
+      long start = Metrics.start();
+
+      if (parallelSweep != null && messageStore.supportsParallelUpdates()) {
+         removed = parallelSweep.eraseAll(messageStore,
+               messageStore.accounts().toArray(new String[0]), type);
+      }
+
+      else {
+         for (String number : messageStore.accounts()) {
+            removed += messageStore.eraseAll(number, type).size();
+         }
+      }
+      Metrics.stop(Metrics.Operation.ERASE_ALL, start);
+      if (mutationLog != null && removed > 0) {
+         mutationLog.eraseAll(type);
+         compactLogIfLarge();
+      }
+      return removed;
+   }
+
+   // Removes the account and returns its messages and total charges.
+   public AccountSnapshot disconnect(String number)
+         throws InvalidAccountException {
+
+      long start = Metrics.start();
+      AccountSnapshot account = messageStore.remove(number);
+
+      Metrics.stop(Metrics.Operation.DISCONNECT, start);
+      if (account == null) {
+         throw new InvalidAccountException(number);
+      }
+      if (mutationLog != null) {
+         mutationLog.disconnect(number);
+         compactLogIfLarge();
+      }
+      return account;
+   }
+
+   // Disconnects every account in numbers and reports the final charges of
+   // each and the numbers that have no account. The numbers are sorted and
+   // duplicates dropped, so the store removes them in key order in one
+   // batch. A ConcurrentMessageStore removes ranges of them on the sweep
+   // pool when parallelism is set.
+   public DisconnectReport disconnectAll(Collection<String> numbers) {
+
+      long start = Metrics.start();
+      String[] sorted = new TreeSet<String>(numbers).toArray(new String[0]);
+      AccountSnapshot[] removed = null;
+
+      if (parallelSweep != null
+            && backingStore instanceof ConcurrentMessageStore) {
+         removed = parallelSweep.removeAll(messageStore, sorted);
+      }
+
+      else {
+         removed = messageStore.removeAll(sorted);
+      }
+      Metrics.stop(Metrics.Operation.DISCONNECT_ALL, start);
+
+      DisconnectReport disconnected = new DisconnectReport(sorted, removed);
+
+      if (mutationLog != null && disconnected.getDisconnectedCount() > 0) {
+         mutationLog.disconnectAll(disconnected.getCharges().keySet()
+               .toArray(new String[0]));
+         compactLogIfLarge();
+      }
+      return disconnected;
+   }
+
+   // Reads one number per line, skipping blank lines, and disconnects them
+   // all as one batch.
+   public DisconnectReport disconnectAll(BufferedReader numbers)
+         throws IOException {
+
+      ArrayList<String> batch = new ArrayList<String>();
+      String line = null;
+
+      while ((line = numbers.readLine()) != null) {
+         line = line.trim();
+         if (!line.isEmpty()) {
+            batch.add(line);
+         }
+      }
+      return disconnectAll(batch);
+   }
+
+   public DisconnectReport disconnectAll(Path numbersFile)
+         throws IOException {
+
+      try (BufferedReader reader = Files.newBufferedReader(numbersFile,
+            StandardCharsets.US_ASCII)) {
+         return disconnectAll(reader);
+      }
+   }
+
+   // The inbound, time range and usage queries below need a carrier
+   // created with indexes and throw an IllegalStateException otherwise.
+
+   // Returns the messages sent to the number, grouped by sender in account
+   // order. The number does not need an account of its own.
+   public List<Item> getInboundMessages(String number) {
+      return receiverIndex().inboundMessages(number);
+   }
+
+   // Returns the total charges of the messages sent to the number, in Money
+   // units.
+   public long getInboundCharges(String number) {
+      return receiverIndex().inboundCharges(number);
+   }
+
+   // Returns the messages the account sent in [from, to).
+   public List<Item> getMessages(String number, int from, int to)
+         throws InvalidAccountException {
+
+      if (!messageStore.contains(number)) {
+         throw new InvalidAccountException(number);
+      }
+      return timeIndex().messages(number, from, to);
+   }
+
+   // Returns the charges of the messages the account sent in [from, to), in
+   // Money units.
+   public long getTotalCharges(String number, int from, int to)
+         throws InvalidAccountException {
+
+      if (!messageStore.contains(number)) {
+         throw new InvalidAccountException(number);
+      }
+      return timeIndex().charges(number, from, to);
+   }
+
+   // Returns every message sent in [from, to), ordered by time.
+   public List<Item> getTraffic(int from, int to) {
+      return timeIndex().windowMessages(from, to);
+   }
+
+   public long getTrafficCount(int from, int to) {
+      return timeIndex().windowCount(from, to);
+   }
+
+   // Returns the charges of every message sent in [from, to), in Money
+   // units.
+   public long getTrafficCharges(int from, int to) {
+      return timeIndex().windowCharges(from, to);
+   }
+
+   // Count, volume and charges of the messages of the type the account has
+   // sent, in the format or in every format if format is null, such as
+   // getUsage(number, MessageType.MEDIA, "GIF").getMegabytes(). Answered
+   // from running totals without reading any message.
+   public Usage getUsage(String number, MessageType type, String format) {
+      return usageIndex().usage(number, type, format);
+   }
+
+   // The same across every account, such as the voice seconds of a format.
+   public Usage getTotalUsage(MessageType type, String format) {
+      return usageIndex().totalUsage(type, format);
+   }
+
+   public SortedMap<String, Usage> getUsageByFormat(String number,
+         MessageType type) {
+      return usageIndex().usageByFormat(number, type);
+   }
+
+   public SortedMap<String, Usage> getTotalUsageByFormat(MessageType type) {
+      return usageIndex().totalUsageByFormat(type);
+   }
+
+   public MessageStore getMessageStore() {
+      return messageStore;
+   }
+
+   public boolean isIndexed() {
+      return usageIndex != null;
+   }
+
+   private ReceiverIndex receiverIndex() {
+      requireIndexes();
+      return receiverIndex;
+   }
+
+   private TimeIndex timeIndex() {
+      requireIndexes();
+      return timeIndex;
+   }
+
+   private UsageIndex usageIndex() {
+      requireIndexes();
+      return usageIndex;
+   }
+
+   private void requireIndexes() {
+      if (usageIndex == null) {
+         throw new IllegalStateException("The carrier at " + location
+               + " was created without indexes");
+      }
    }
 
    private void disconnectAccount() throws IOException {
 
       String userInput = null;
-      double totalCharges = 0;
-      ArrayList<Item> account = null;
+      AccountSnapshot account = null;
       BufferedReader reader = new BufferedReader(
             new InputStreamReader(System.in));
       try {
@@ -227,24 +1197,10 @@ class SmartCarrier {
                + " you would like to disconnect: ");
          userInput = reader.readLine();
 
-         if (!messageMap.containsKey(userInput)) {
-            throw new InvalidAccountException(userInput);
-         }
-
-         else if (messageMap.containsKey(userInput)) {
-            account = messageMap.get(userInput);
-            ListIterator<Item> iter = account.listIterator();
-
-            while (iter.hasNext()) {
-               Item element = iter.next();
-               totalCharges += element.getCharge();
-            }
-
-            System.out.print("Total charges for account " + userInput + ": ");
-            System.out.printf("%.2f%n", totalCharges);
-
-            messageMap.remove(userInput);
-         }
+         account = disconnect(userInput);
+         awaitDurable();
+         System.out.print("Total charges for account " + userInput + ": ");
+         System.out.println(Money.format(account.getTotalCharges()));
       }
 
       catch (InvalidAccountException e) {
@@ -0,0 +1,362 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ColumnarMessageStore.java
+//Program Purpose: ColumnarMessageStore.java is a MessageStore that keeps
+//messages in parallel primitive arrays instead of one Item, one Message
+//and one payload object per message. Every message is a row: time,
+//charge, type, receiver and format are columns, and a single detail
+//column holds the one value only the row's type has, the address of a
+//text's content, a media size or a voice duration. Phone numbers and
+//formats are stored once in a SymbolTable and referenced by id, and text
+//content is kept as UTF-8 bytes in shared pages. Accounts only hold the
+//row numbers of their messages, in a RowList with one queue per message
+//type, so erasing the first or every message of a type takes them from
+//the front of a queue without scanning. Items are created on demand when
+//an account's messages are asked for.
+//----------------------------
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+//----------------------------
+class ColumnarMessageStore implements MessageStore {
+
+   private static final int INITIAL_CAPACITY = 1024;
+   private static final int NO_FORMAT = -1;
+   private static final int TEXT_PAGE_SIZE = 1 << 20;
+   private static final int COMPACT_THRESHOLD = 1 << 16;
+
+   private int rows;
+   private int deadRows;
+   private int[] time;
+   private long[] charge;
+   private byte[] type;
+   private int[] receiver;
+   private int[] format;
+   // A text's content address, the bits of a media size or a voice
+   // duration, depending on the type.
+   private long[] detail;
+
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private TextPages textPages;
+   private TreeMap<String, RowList> accounts;
+
+   public ColumnarMessageStore() {
+      time = new int[INITIAL_CAPACITY];
+      charge = new long[INITIAL_CAPACITY];
+      type = new byte[INITIAL_CAPACITY];
+      receiver = new int[INITIAL_CAPACITY];
+      format = new int[INITIAL_CAPACITY];
+      detail = new long[INITIAL_CAPACITY];
+      numbers = new SymbolTable("numbers");
+      formats = new SymbolTable("formats");
+      textPages = new TextPages();
+      accounts = new TreeMap<String, RowList>();
+   }
+
+   public void add(Item messageItem) {
+
+      MessageType messageType = MessageType.of(messageItem);
+
+      if (messageType == null) {
+         throw new IllegalArgumentException(
+               "Not a text, media or voice message: " + messageItem);
+      }
+      String key = messageItem.getFrom();
+      RowList account = accounts.get(key);
+
+      if (account == null) {
+         account = new RowList();
+         accounts.put(key, account);
+      }
+
+      // Sum first, so a total that overflows leaves the store unchanged.
+      long totalCharges = Money.add(account.getTotalCharges(),
+            messageItem.getCharge());
+
+      if (rows == time.length) {
+         grow();
+      }
+
+      int row = rows++;
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      time[row] = messageItem.getTime();
+      charge[row] = messageItem.getCharge();
+      type[row] = (byte) messageType.ordinal();
+      receiver[row] = numbers.id(messageItem.getTo());
+      format[row] = NO_FORMAT;
+
+      switch (messageType) {
+      case TEXT:
+         detail[row] = textPages.add(((Text) payload).getContent());
+         break;
+      case MEDIA:
+         detail[row] = Double.doubleToRawLongBits(((Media) payload).getSize());
+         format[row] = formats.id(((Media) payload).getFormat());
+         break;
+      case VOICE:
+         detail[row] = ((Voice) payload).getDuration();
+         format[row] = formats.id(((Voice) payload).getFormat());
+         break;
+      }
+
+      account.add(row, messageType);
+      account.setTotalCharges(totalCharges);
+   }
+
+   public void addAll(String account, List<? extends Item> messages) {
+      for (Item messageItem : messages) {
+         add(messageItem);
+      }
+   }
+
+   public boolean contains(String account) {
+      return accounts.containsKey(account);
+   }
+
+   public Collection<String> accounts() {
+      return Collections.unmodifiableSet(accounts.keySet());
+   }
+
+   public List<Item> messages(String account) {
+
+      RowList list = accounts.get(account);
+
+      if (list == null) {
+         return null;
+      }
+
+      int[] accountRows = list.rows();
+      ArrayList<Item> messages = new ArrayList<Item>(accountRows.length);
+      for (int row : accountRows) {
+         messages.add(item(account, row));
+      }
+      return Collections.unmodifiableList(messages);
+   }
+
+   public long totalCharges(String account) {
+      RowList list = accounts.get(account);
+      return list == null ? 0 : list.getTotalCharges();
+   }
+
+   public AccountSnapshot snapshot(String account) {
+      List<Item> messages = messages(account);
+      return messages == null ? null : new AccountSnapshot(account, messages,
+            totalCharges(account));
+   }
+
+   public Item eraseFirst(String account, MessageType messageType) {
+
+      RowList list = accounts.get(account);
+      int row = list == null ? -1 : list.removeFirst(messageType);
+
+      if (row < 0) {
+         return null;
+      }
+
+      Item removed = item(account, row);
+      list.setTotalCharges(Money.subtract(list.getTotalCharges(),
+            charge[row]));
+      deadRows++;
+      compactIfSparse();
+      return removed;
+   }
+
+   public List<Item> eraseAll(String account, MessageType messageType) {
+
+      RowList list = accounts.get(account);
+      ArrayList<Item> removed = new ArrayList<Item>();
+
+      if (list != null) {
+         for (int row : list.removeAll(messageType)) {
+            removed.add(item(account, row));
+            list.setTotalCharges(Money.subtract(list.getTotalCharges(),
+                  charge[row]));
+         }
+         deadRows += removed.size();
+         compactIfSparse();
+      }
+      return removed;
+   }
+
+   public AccountSnapshot remove(String account) {
+
+      AccountSnapshot removed = snapshot(account);
+
+      if (removed != null) {
+         deadRows += accounts.remove(account).size();
+         compactIfSparse();
+      }
+      return removed;
+   }
+
+   public AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+
+      for (int i = 0; i < numbers.length; i++) {
+         removed[i] = remove(numbers[i]);
+      }
+      return removed;
+   }
+
+   public int accountCount() {
+      return accounts.size();
+   }
+
+   public long messageCount() {
+      return rows - deadRows;
+   }
+
+   // Erasing changes shared counters and can compact the whole table.
+   public boolean supportsParallelUpdates() {
+      return false;
+   }
+
+   public SymbolTable getNumberSymbols() {
+      return numbers;
+   }
+
+   public SymbolTable getFormatSymbols() {
+      return formats;
+   }
+
+   // Builds the Item for one row. The sender is the account key, so every
+   // message of an account shares the same String.
+   private Item item(String account, int row) {
+
+      switch (MessageType.values()[type[row]]) {
+      case TEXT:
+         return new Message<Text>(time[row], account,
+               numbers.value(receiver[row]), charge[row],
+               new Text(textPages.get(detail[row])));
+      case MEDIA:
+         return new Message<Media>(time[row], account,
+               numbers.value(receiver[row]), charge[row],
+               new Media(Double.longBitsToDouble(detail[row]),
+                     formats.value(format[row])));
+      default:
+         return new Message<Voice>(time[row], account,
+               numbers.value(receiver[row]), charge[row],
+               new Voice((int) detail[row], formats.value(format[row])));
+      }
+   }
+
+   private void grow() {
+
+      int capacity = time.length + (time.length >> 1);
+
+      time = Arrays.copyOf(time, capacity);
+      charge = Arrays.copyOf(charge, capacity);
+      type = Arrays.copyOf(type, capacity);
+      receiver = Arrays.copyOf(receiver, capacity);
+      format = Arrays.copyOf(format, capacity);
+      detail = Arrays.copyOf(detail, capacity);
+   }
+
+   // Erased and disconnected rows are only dropped from their account. Once
+   // they make up more than half of the table the live rows are moved down
+   // in row order, which keeps insertion order, and the account row lists
+   // are renumbered. The text content of the live rows is copied into new
+   // pages on the way, so the old pages, and the text of the dead rows in
+   // them, are left to the garbage collector.
+   private void compactIfSparse() {
+
+      if (deadRows < COMPACT_THRESHOLD || deadRows * 2 < rows) {
+         return;
+      }
+
+      boolean[] live = new boolean[rows];
+      int[] moved = new int[rows];
+      int next = 0;
+      TextPages liveText = new TextPages();
+
+      for (RowList list : accounts.values()) {
+         for (int row : list.rows()) {
+            live[row] = true;
+         }
+      }
+      for (int row = 0; row < rows; row++) {
+         if (live[row]) {
+            time[next] = time[row];
+            charge[next] = charge[row];
+            type[next] = type[row];
+            receiver[next] = receiver[row];
+            format[next] = format[row];
+            detail[next] = type[row] == MessageType.TEXT.ordinal()
+                  ? liveText.copy(textPages, detail[row]) : detail[row];
+            moved[row] = next++;
+         }
+      }
+      for (RowList list : accounts.values()) {
+         list.renumber(moved);
+      }
+      textPages = liveText;
+      rows = next;
+      deadRows = 0;
+   }
+
+   // Text content as UTF-8 bytes. An address is the page number in the high
+   // 32 bits and the offset of a 4 byte length prefix in the low 32 bits.
+   private static class TextPages {
+
+      private ArrayList<byte[]> pages = new ArrayList<byte[]>();
+      private byte[] page;
+      private int used;
+
+      public long add(String content) {
+
+         byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+         long address = reserve(bytes.length + 4);
+
+         page[used++] = (byte) (bytes.length >>> 24);
+         page[used++] = (byte) (bytes.length >>> 16);
+         page[used++] = (byte) (bytes.length >>> 8);
+         page[used++] = (byte) bytes.length;
+         System.arraycopy(bytes, 0, page, used, bytes.length);
+         used += bytes.length;
+         return address;
+      }
+
+      public String get(long address) {
+
+         byte[] source = pages.get((int) (address >>> 32));
+         int offset = (int) address;
+
+         return new String(source, offset + 4, length(source, offset),
+               StandardCharsets.UTF_8);
+      }
+
+      // Appends the content at address in from, still encoded, and returns
+      // its address here.
+      public long copy(TextPages from, long address) {
+
+         byte[] source = from.pages.get((int) (address >>> 32));
+         int offset = (int) address;
+         int needed = length(source, offset) + 4;
+         long copied = reserve(needed);
+
+         System.arraycopy(source, offset, page, used, needed);
+         used += needed;
+         return copied;
+      }
+
+      // Starts a new page if needed bytes do not fit in the current one and
+      // returns the address they will have.
+      private long reserve(int needed) {
+         if (page == null || used + needed > page.length) {
+            page = new byte[Math.max(TEXT_PAGE_SIZE, needed)];
+            pages.add(page);
+            used = 0;
+         }
+         return ((long) (pages.size() - 1) << 32) | used;
+      }
+
+      private static int length(byte[] source, int offset) {
+         return ((source[offset] & 0xff) << 24)
+               | ((source[offset + 1] & 0xff) << 16)
+               | ((source[offset + 2] & 0xff) << 8)
+               | (source[offset + 3] & 0xff);
+      }
+   }
+}
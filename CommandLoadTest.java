@@ -0,0 +1,270 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: CommandLoadTest.java
+//Program Purpose: CommandLoadTest.java drives a CommandServer with many
+//concurrent clients from one selector thread. Every client keeps up to a
+//pipeline depth of requests in flight, picking CHARGES and LIST commands
+//for numbers read from the message input file, and the time from sending
+//each request to reading its reply is recorded. It prints the throughput
+//and latency percentiles when every client is done. Only read commands
+//are sent, so the carrier is left as it was.
+//----------------------------
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+//----------------------------
+class CommandLoadTest {
+
+   private static final int BUFFER_SIZE = 1 << 14;
+   private static final byte NEW_LINE = '\n';
+
+   private String[] numbers;
+   private int requestsPerClient;
+   private int pipeline;
+   private int listPercent;
+   private Random random;
+   private long[] latencies;
+   private int completed;
+   private long errors;
+   private long replyBytes;
+
+   public CommandLoadTest(String[] numbers, int requestsPerClient,
+         int pipeline, int listPercent, long seed) {
+      this.numbers = numbers;
+      this.requestsPerClient = requestsPerClient;
+      this.pipeline = Math.max(1, pipeline);
+      this.listPercent = listPercent;
+      random = new Random(seed);
+   }
+
+   public static void main(String[] args) {
+
+      if (args.length < 2) {
+         System.out.println("Usage: java CommandLoadTest <port>"
+               + " <messages.txt> [clients] [requests per client]"
+               + " [pipeline depth] [percent LIST]");
+         return;
+      }
+
+      int port = Integer.parseInt(args[0]);
+      int clients = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+      int requests = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+      int pipeline = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+      int listPercent = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+      try {
+         CommandLoadTest test = new CommandLoadTest(readSenders(args[1]),
+               requests, pipeline, listPercent, 1);
+         test.run(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+               port), clients);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // The distinct senders of the input file.
+   private static String[] readSenders(String inputFile) throws IOException {
+
+      LinkedHashSet<String> senders = new LinkedHashSet<String>();
+      String line = null;
+
+      try (BufferedReader reader = Files.newBufferedReader(
+            Paths.get(inputFile), StandardCharsets.US_ASCII)) {
+         while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(",", 4);
+            if (parts.length > 2) {
+               senders.add(parts[2]);
+            }
+         }
+      }
+      if (senders.isEmpty()) {
+         throw new IOException("No accounts in " + inputFile);
+      }
+      return senders.toArray(new String[0]);
+   }
+
+   public void run(InetSocketAddress address, int clients)
+         throws IOException {
+
+      Selector selector = Selector.open();
+      int open = 0;
+
+      latencies = new long[clients * requestsPerClient];
+      long start = System.nanoTime();
+
+      for (int i = 0; i < clients; i++) {
+         SocketChannel channel = SocketChannel.open(address);
+         channel.configureBlocking(false);
+         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         Client client = new Client();
+         client.key = channel.register(selector, SelectionKey.OP_READ, client);
+         send(client);
+         open++;
+      }
+
+      while (open > 0) {
+         selector.select();
+         Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+         while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Client client = (Client) key.attachment();
+            if (key.isValid() && key.isWritable()) {
+               flush(client);
+            }
+            if (key.isValid() && key.isReadable() && receive(client)) {
+               key.channel().close();
+               open--;
+            }
+         }
+      }
+      selector.close();
+      report(clients, System.nanoTime() - start);
+   }
+
+   // Tops the client's pipeline up and writes what it can.
+   private void send(Client client) throws IOException {
+
+      StringBuilder requests = new StringBuilder();
+
+      while (client.sent < requestsPerClient
+            && client.inFlight.size() < pipeline) {
+         String number = numbers[random.nextInt(numbers.length)];
+         requests.append(random.nextInt(100) < listPercent ? "LIST "
+               : "CHARGES ").append(number).append('\n');
+         client.inFlight.add(System.nanoTime());
+         client.sent++;
+      }
+      if (requests.length() > 0) {
+         byte[] bytes = requests.toString().getBytes(StandardCharsets.US_ASCII);
+         client.out.add(ByteBuffer.wrap(bytes));
+         flush(client);
+      }
+   }
+
+   private void flush(Client client) throws IOException {
+
+      SocketChannel channel = (SocketChannel) client.key.channel();
+
+      while (!client.out.isEmpty()) {
+         ByteBuffer buffer = client.out.peek();
+         channel.write(buffer);
+         if (buffer.hasRemaining()) {
+            client.key.interestOps(SelectionKey.OP_READ
+                  | SelectionKey.OP_WRITE);
+            return;
+         }
+         client.out.poll();
+      }
+      client.key.interestOps(SelectionKey.OP_READ);
+   }
+
+   // Reads replies and records their latency. Returns true once the client
+   // has all its replies or the server has closed the connection.
+   private boolean receive(Client client) throws IOException {
+
+      SocketChannel channel = (SocketChannel) client.key.channel();
+      ByteBuffer in = client.in;
+      int read = channel.read(in);
+
+      if (read < 0) {
+         errors += requestsPerClient - client.received;
+         return true;
+      }
+      replyBytes += read;
+      in.flip();
+      while (in.hasRemaining()) {
+         if (client.skip > 0) {
+            int skipped = (int) Math.min(client.skip, in.remaining());
+            in.position(in.position() + skipped);
+            client.skip -= skipped;
+            if (client.skip == 0) {
+               replied(client);
+            }
+            continue;
+         }
+
+         int end = -1;
+         for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == NEW_LINE) {
+               end = i;
+               break;
+            }
+         }
+         if (end < 0) {
+            break;
+         }
+
+         String line = new String(in.array(), in.position(),
+               end - in.position(), StandardCharsets.US_ASCII);
+         in.position(end + 1);
+         if (line.startsWith("DATA ")) {
+            client.skip = Long.parseLong(line.substring(5));
+            if (client.skip == 0) {
+               replied(client);
+            }
+            continue;
+         }
+         if (line.startsWith("ERR")) {
+            errors++;
+         }
+         replied(client);
+      }
+      in.compact();
+      if (client.received == requestsPerClient) {
+         return true;
+      }
+      send(client);
+      return false;
+   }
+
+   private void replied(Client client) {
+      latencies[completed++] = System.nanoTime() - client.inFlight.poll();
+      client.received++;
+   }
+
+   private void report(int clients, long elapsed) {
+
+      long[] sorted = Arrays.copyOf(latencies, completed);
+
+      Arrays.sort(sorted);
+      System.out.printf("%d clients, %d requests, pipeline %d, %d%% LIST%n",
+            clients, completed, pipeline, listPercent);
+      System.out.printf("%.2f s, %.0f requests/s, %d errors, %d KB read%n",
+            elapsed / 1e9, completed / (elapsed / 1e9), errors,
+            replyBytes / 1024);
+      if (sorted.length > 0) {
+         System.out.printf("latency us: p50 %d, p90 %d, p99 %d, max %d%n",
+               percentile(sorted, 50), percentile(sorted, 90),
+               percentile(sorted, 99), sorted[sorted.length - 1] / 1000);
+      }
+   }
+
+   private static long percentile(long[] sorted, int percent) {
+      int index = (int) Math.min(sorted.length - 1,
+            (long) sorted.length * percent / 100);
+      return sorted[index] / 1000;
+   }
+
+   private static class Client {
+
+      private SelectionKey key;
+      private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+      private ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+      private ArrayDeque<Long> inFlight = new ArrayDeque<Long>();
+      private int sent;
+      private int received;
+      private long skip;
+   }
+}
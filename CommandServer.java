@@ -0,0 +1,584 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: CommandServer.java
+//Program Purpose: CommandServer.java lets tools drive a carrier over TCP
+//instead of the System.in menu. One selector thread accepts and serves
+//every connection without blocking, so thousands of clients cost a socket
+//and a small buffer each. Commands are plain text lines. A client may send
+//many lines without waiting (pipelining); all the complete lines read in
+//one go are run as a batch on a single carrier thread, in the order they
+//arrived across all clients, and the replies go back in request order.
+//A client that does not read its replies stops being read from until it
+//catches up.
+//
+//Commands and replies (one line each, ASCII, new line terminated):
+//  CHARGES <number>     OK <total charges>
+//  LIST <number>        DATA <n>, then n bytes of the account's listing
+//  ERASE_MEDIA          OK <messages erased>
+//  DISCONNECT <number>  OK <total charges of the removed account>
+//  DISCONNECT_ALL <n>   followed by n lines of one number each
+//                       DATA <n>, then n bytes of DisconnectReport for the
+//                       numbers, sent once the last number has arrived
+//  PING                 OK
+//  QUIT                 OK, then the connection is closed
+//  SHUTDOWN             OK, then the server stops
+//A carrier started with -indexed also answers, times being whole numbers
+//and ranges including from but not to:
+//  INBOUND <number>     DATA <n>, then n bytes listing the messages sent
+//                       to the number
+//  INBOUND_CHARGES <number>
+//                       OK <total charges of the messages sent to it>
+//  RANGE <number> <from> <to>
+//                       DATA <n>, then n bytes listing the messages the
+//                       account sent in the range
+//  RANGE_CHARGES <number> <from> <to>
+//                       OK <total charges of those messages>
+//  TRAFFIC <from> <to>  OK <messages> <charges> of every account
+//  USAGE <number|*> <TEXT|MEDIA|VOICE> [<format>]
+//                       OK <messages> <volume> <charges> of the account, or
+//                       of every account for *, volume being thousandths
+//                       of a megabyte for media and seconds for voice
+//Failures reply ERR <reason>, ERR NOT_INDEXED for a query to a carrier
+//without indexes. With a mutation log, replies to a batch are sent once
+//its erases and disconnects are on disk.
+//----------------------------
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+//----------------------------
+class CommandServer {
+
+   private static final int READ_BUFFER_SIZE = 1 << 13;
+   private static final int MAX_LINE = 1 << 12;
+   // Most numbers one DISCONNECT_ALL may send.
+   private static final int MAX_BATCH = 1 << 20;
+   // Unsent reply bytes at which a client stops being read from.
+   private static final int MAX_PENDING = 1 << 20;
+   private static final byte NEW_LINE = '\n';
+   // Commands that need a carrier started with -indexed.
+   private static final Set<String> INDEX_QUERIES = new HashSet<String>(
+         Arrays.asList("INBOUND", "INBOUND_CHARGES", "RANGE", "RANGE_CHARGES",
+               "TRAFFIC", "USAGE"));
+
+   private SmartCarrier carrier;
+   private ServerSocketChannel server;
+   private Selector selector;
+   private ExecutorService carrierThread;
+   private ConcurrentLinkedQueue<Connection> replied;
+   private volatile boolean running;
+   private AtomicLong commands;
+   private long accepted;
+
+   // Listens on the loopback interface only.
+   public CommandServer(SmartCarrier carrier, int port) throws IOException {
+      this(carrier, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+            port));
+   }
+
+   public CommandServer(SmartCarrier carrier, InetSocketAddress address)
+         throws IOException {
+      this.carrier = carrier;
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.bind(address, 1024);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+      carrierThread = Executors.newSingleThreadExecutor();
+      replied = new ConcurrentLinkedQueue<Connection>();
+      commands = new AtomicLong();
+   }
+
+   public int getPort() {
+      return server.socket().getLocalPort();
+   }
+
+   public long getCommandCount() {
+      return commands.get();
+   }
+
+   public long getAcceptedCount() {
+      return accepted;
+   }
+
+   // Serves clients on the calling thread until stop() or a SHUTDOWN
+   // command.
+   public void serve() throws IOException {
+
+      running = true;
+      try {
+         while (running) {
+            selector.select();
+            registerReplies();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+               SelectionKey key = keys.next();
+               keys.remove();
+               try {
+                  if (!key.isValid()) {
+                     continue;
+                  }
+                  if (key.isAcceptable()) {
+                     accept();
+                  }
+                  if (key.isValid() && key.isReadable()) {
+                     read(key);
+                  }
+                  if (key.isValid() && key.isWritable()) {
+                     write(key);
+                  }
+               }
+               catch (IOException e) {
+                  close(key);
+               }
+            }
+         }
+      }
+      finally {
+         carrierThread.shutdown();
+         try {
+            carrierThread.awaitTermination(10, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         registerReplies();
+         for (SelectionKey key : selector.keys()) {
+            flushReplies(key);
+            key.channel().close();
+         }
+         selector.close();
+      }
+   }
+
+   public void stop() {
+      running = false;
+      selector.wakeup();
+   }
+
+   private void accept() throws IOException {
+
+      SocketChannel client = null;
+
+      while ((client = server.accept()) != null) {
+         client.configureBlocking(false);
+         client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+         key.attach(new Connection(key));
+         accepted++;
+      }
+   }
+
+   // Reads what has arrived and hands every complete line to the carrier
+   // thread as one batch.
+   private void read(SelectionKey key) throws IOException {
+
+      Connection connection = (Connection) key.attachment();
+      SocketChannel client = (SocketChannel) key.channel();
+      int read = client.read(connection.in);
+
+      if (read < 0) {
+         connection.closing = true;
+         key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+         closeIfDone(connection);
+         return;
+      }
+
+      List<String> lines = connection.takeLines();
+
+      if (lines == null) {
+         close(key);
+         return;
+      }
+      if (!lines.isEmpty()) {
+         connection.running++;
+         carrierThread.execute(new Batch(connection, lines));
+      }
+   }
+
+   private void write(SelectionKey key) throws IOException {
+
+      Connection connection = (Connection) key.attachment();
+      SocketChannel client = (SocketChannel) key.channel();
+
+      synchronized (connection) {
+         while (!connection.out.isEmpty()) {
+            ByteBuffer reply = connection.out.peek();
+            connection.pending -= client.write(reply);
+            if (reply.hasRemaining()) {
+               break;
+            }
+            connection.out.poll();
+         }
+         if (connection.out.isEmpty()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+         }
+         if (!connection.closing && !connection.quit
+               && connection.pending < MAX_PENDING) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+         }
+      }
+      closeIfDone(connection);
+   }
+
+   // Runs on the selector thread for every connection the carrier thread
+   // has queued replies for.
+   private void registerReplies() {
+
+      Connection connection = null;
+
+      while ((connection = replied.poll()) != null) {
+         SelectionKey key = connection.key;
+         connection.running--;
+         if (!key.isValid()) {
+            continue;
+         }
+         synchronized (connection) {
+            int ops = key.interestOps();
+            if (!connection.out.isEmpty()) {
+               ops |= SelectionKey.OP_WRITE;
+            }
+            if (connection.pending >= MAX_PENDING || connection.closing
+                  || connection.quit) {
+               ops &= ~SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+         }
+         closeIfDone(connection);
+      }
+   }
+
+   // One last attempt to send what is queued, such as the reply to
+   // SHUTDOWN, before the server closes.
+   private void flushReplies(SelectionKey key) {
+      if (key.isValid() && key.attachment() != null) {
+         try {
+            write(key);
+         }
+         catch (IOException e) {
+            // The client is gone.
+         }
+      }
+   }
+
+   private void closeIfDone(Connection connection) {
+      synchronized (connection) {
+         if ((connection.closing || connection.quit) && connection.running == 0
+               && connection.out.isEmpty()) {
+            close(connection.key);
+         }
+      }
+   }
+
+   private void close(SelectionKey key) {
+      key.cancel();
+      try {
+         key.channel().close();
+      }
+      catch (IOException e) {
+         // Nothing more to send to it.
+      }
+   }
+
+   // Runs one command and appends its reply.
+   private void execute(String line, ByteArrayOutputStream reply,
+         Connection connection) {
+
+      // The numbers of a DISCONNECT_ALL, which may arrive over many reads.
+      if (connection.batchRemaining > 0) {
+         connection.batch.add(line);
+         if (--connection.batchRemaining == 0) {
+            disconnectBatch(reply, connection);
+         }
+         return;
+      }
+
+      int space = line.indexOf(' ');
+      String command = space < 0 ? line : line.substring(0, space);
+      String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+      commands.incrementAndGet();
+      if (INDEX_QUERIES.contains(command.toUpperCase())
+            && !carrier.isIndexed()) {
+         line(reply, "ERR NOT_INDEXED");
+         return;
+      }
+      try {
+         switch (command.toUpperCase()) {
+         case "CHARGES":
+            ok(reply, Money.format(carrier.getTotalCharges(argument)));
+            break;
+         case "LIST": {
+            AccountSnapshot account = carrier.getMessageStore().snapshot(
+                  argument);
+            if (account == null) {
+               throw new InvalidAccountException(argument);
+            }
+            StringBuilder listing = new StringBuilder();
+            ReportWriter.appendAccount(listing, account);
+            byte[] bytes = listing.toString().getBytes(StandardCharsets.UTF_8);
+            line(reply, "DATA " + bytes.length);
+            reply.write(bytes, 0, bytes.length);
+            break;
+         }
+         case "ERASE_MEDIA":
+            ok(reply, Long.toString(carrier.eraseFirst(MessageType.MEDIA)));
+            break;
+         case "DISCONNECT":
+            ok(reply, Money.format(carrier.disconnect(argument)
+                  .getTotalCharges()));
+            break;
+         case "DISCONNECT_ALL": {
+            int count = Integer.parseInt(argument);
+            if (count < 0 || count > MAX_BATCH) {
+               line(reply, "ERR BAD_COUNT " + argument);
+               break;
+            }
+            connection.batch = new ArrayList<String>(Math.min(count, 1024));
+            connection.batchRemaining = count;
+            if (count == 0) {
+               disconnectBatch(reply, connection);
+            }
+            break;
+         }
+         case "INBOUND":
+            data(reply, listing(carrier.getInboundMessages(argument)));
+            break;
+         case "INBOUND_CHARGES":
+            ok(reply, Money.format(carrier.getInboundCharges(argument)));
+            break;
+         case "RANGE": {
+            String[] fields = fields(argument, 3);
+            data(reply, listing(carrier.getMessages(fields[0],
+                  time(fields[1]), time(fields[2]))));
+            break;
+         }
+         case "RANGE_CHARGES": {
+            String[] fields = fields(argument, 3);
+            ok(reply, Money.format(carrier.getTotalCharges(fields[0],
+                  time(fields[1]), time(fields[2]))));
+            break;
+         }
+         case "TRAFFIC": {
+            String[] fields = fields(argument, 2);
+            int from = time(fields[0]);
+            int to = time(fields[1]);
+            ok(reply, carrier.getTrafficCount(from, to) + " "
+                  + Money.format(carrier.getTrafficCharges(from, to)));
+            break;
+         }
+         case "USAGE":
+            usage(reply, argument);
+            break;
+         case "PING":
+            line(reply, "OK");
+            break;
+         case "QUIT":
+            line(reply, "OK");
+            connection.quit = true;
+            break;
+         case "SHUTDOWN":
+            line(reply, "OK");
+            connection.quit = true;
+            stop();
+            break;
+         default:
+            line(reply, "ERR UNKNOWN_COMMAND " + command);
+            break;
+         }
+      }
+      catch (InvalidAccountException e) {
+         line(reply, "ERR NO_ACCOUNT " + e.getPhoneNumber());
+      }
+      catch (NumberFormatException e) {
+         line(reply, "ERR BAD_COUNT " + argument);
+      }
+      catch (IllegalArgumentException e) {
+         line(reply, "ERR BAD_ARGUMENT " + argument);
+      }
+      catch (RuntimeException e) {
+         line(reply, "ERR FAILED " + e);
+      }
+   }
+
+   // Disconnects the numbers a DISCONNECT_ALL has sent as one batch.
+   private void disconnectBatch(ByteArrayOutputStream reply,
+         Connection connection) {
+
+      byte[] bytes = carrier.disconnectAll(connection.batch).toString()
+            .getBytes(StandardCharsets.UTF_8);
+
+      connection.batch = null;
+      line(reply, "DATA " + bytes.length);
+      reply.write(bytes, 0, bytes.length);
+   }
+
+   // Replies to USAGE <number|*> <type> [<format>].
+   private void usage(ByteArrayOutputStream reply, String argument) {
+
+      String[] fields = argument.split(" +");
+
+      if (fields.length < 2 || fields.length > 3) {
+         throw new IllegalArgumentException(argument);
+      }
+
+      MessageType type = MessageType.valueOf(fields[1].toUpperCase());
+      String format = fields.length == 3 ? fields[2] : null;
+      Usage usage = fields[0].equals("*")
+            ? carrier.getTotalUsage(type, format)
+            : carrier.getUsage(fields[0], type, format);
+
+      ok(reply, usage.getCount() + " " + usage.getVolume() + " "
+            + Money.format(usage.getCharges()));
+   }
+
+   // The argument split at spaces into exactly count fields.
+   private static String[] fields(String argument, int count) {
+
+      String[] fields = argument.split(" +");
+
+      if (fields.length != count) {
+         throw new IllegalArgumentException(argument);
+      }
+      return fields;
+   }
+
+   // A time, which NumberFormatException would report as a bad count.
+   private static int time(String field) {
+      try {
+         return Integer.parseInt(field);
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException(field, e);
+      }
+   }
+
+   private static byte[] listing(List<Item> messages) {
+
+      StringBuilder builder = new StringBuilder();
+
+      for (Item messageItem : messages) {
+         ReportWriter.appendMessage(builder, messageItem);
+      }
+      return builder.toString().getBytes(StandardCharsets.UTF_8);
+   }
+
+   private static void data(ByteArrayOutputStream reply, byte[] bytes) {
+      line(reply, "DATA " + bytes.length);
+      reply.write(bytes, 0, bytes.length);
+   }
+
+   private static void ok(ByteArrayOutputStream reply, String value) {
+      line(reply, "OK " + value);
+   }
+
+   private static void line(ByteArrayOutputStream reply, String text) {
+      byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+      reply.write(bytes, 0, bytes.length);
+   }
+
+   // The lines one read produced for one connection, run together on the
+   // carrier thread.
+   private class Batch implements Runnable {
+
+      private Connection connection;
+      private List<String> lines;
+
+      public Batch(Connection connection, List<String> lines) {
+         this.connection = connection;
+         this.lines = lines;
+      }
+
+      public void run() {
+
+         ByteArrayOutputStream reply = new ByteArrayOutputStream();
+
+         for (String line : lines) {
+            if (connection.quit) {
+               break;
+            }
+            long start = Metrics.start();
+            execute(line, reply, connection);
+            Metrics.stop(Metrics.Operation.SERVER_COMMAND, start);
+         }
+         // Replies only go out once the batch's changes are durable, and
+         // the whole batch shares one wait. A client whose changes could
+         // not be logged is closed without them.
+         try {
+            carrier.awaitDurable();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+            reply.reset();
+            connection.quit = true;
+         }
+         synchronized (connection) {
+            connection.out.add(ByteBuffer.wrap(reply.toByteArray()));
+            connection.pending += reply.size();
+         }
+         replied.add(connection);
+         selector.wakeup();
+      }
+   }
+
+   // State of one client. The read buffer and running count belong to the
+   // selector thread and the DISCONNECT_ALL numbers to the carrier thread;
+   // the reply queue is shared between them under the connection's lock.
+   private static class Connection {
+
+      private SelectionKey key;
+      private ByteBuffer in;
+      private ArrayDeque<ByteBuffer> out;
+      private long pending;
+      private int running;
+      private ArrayList<String> batch;
+      private int batchRemaining;
+      // Set at end of stream: replies still go out, then it is closed.
+      private volatile boolean closing;
+      // Set by QUIT: later commands are not run.
+      private volatile boolean quit;
+
+      public Connection(SelectionKey key) {
+         this.key = key;
+         in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+         out = new ArrayDeque<ByteBuffer>();
+      }
+
+      // Removes the complete lines from the read buffer. Returns null if a
+      // line is longer than MAX_LINE.
+      public List<String> takeLines() {
+
+         ArrayList<String> lines = new ArrayList<String>();
+         int start = 0;
+
+         in.flip();
+         for (int i = 0; i < in.limit(); i++) {
+            if (in.get(i) == NEW_LINE) {
+               int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+               String line = new String(in.array(), start, end - start,
+                     StandardCharsets.US_ASCII).trim();
+               if (!line.isEmpty()) {
+                  lines.add(line);
+               }
+               start = i + 1;
+            }
+         }
+         in.position(start);
+         in.compact();
+         if (in.position() > MAX_LINE) {
+            return null;
+         }
+         return lines;
+      }
+   }
+}
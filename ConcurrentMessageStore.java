@@ -0,0 +1,176 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ConcurrentMessageStore.java
+//Program Purpose: ConcurrentMessageStore.java is a MessageStore that can be
+//appended to by an ingest thread while other threads list, erase and
+//disconnect. Accounts live in a ConcurrentSkipListMap, so the account
+//numbers are always walked in sorted order without locking the map, and
+//every account is guarded by its own lock. A disconnected account is
+//closed under its lock, and an append that finds its account closed
+//starts over with a new one, so no message is lost to a disconnect.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+//----------------------------
+class ConcurrentMessageStore implements MessageStore {
+
+   private ConcurrentSkipListMap<String, Entry> messageMap;
+   private LongAdder messageCount;
+
+   public ConcurrentMessageStore() {
+      messageMap = new ConcurrentSkipListMap<String, Entry>();
+      messageCount = new LongAdder();
+   }
+
+   public void add(Item messageItem) {
+      addAll(messageItem.getFrom(), Collections.singletonList(messageItem));
+   }
+
+   public void addAll(String account, List<? extends Item> messages) {
+
+      while (true) {
+         Entry entry = messageMap.get(account);
+
+         if (entry == null) {
+            Entry created = new Entry();
+            entry = messageMap.putIfAbsent(account, created);
+            if (entry == null) {
+               entry = created;
+            }
+         }
+         synchronized (entry) {
+            if (!entry.closed) {
+               entry.addAll(messages);
+               messageCount.add(messages.size());
+               return;
+            }
+         }
+      }
+   }
+
+   public boolean contains(String account) {
+      return messageMap.containsKey(account);
+   }
+
+   public Collection<String> accounts() {
+      return Collections.unmodifiableSet(messageMap.keySet());
+   }
+
+   // Returns a copy, since other threads keep appending to the account.
+   public List<Item> messages(String account) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+      synchronized (entry) {
+         return entry.closed ? null
+               : Collections.unmodifiableList(
+                     new ArrayList<Item>(entry.getMessages()));
+      }
+   }
+
+   public long totalCharges(String account) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return 0;
+      }
+      synchronized (entry) {
+         return entry.closed ? 0 : entry.getTotalCharges();
+      }
+   }
+
+   public AccountSnapshot snapshot(String account) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+      synchronized (entry) {
+         return entry.closed ? null : entry.snapshot(account);
+      }
+   }
+
+   public Item eraseFirst(String account, MessageType type) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+      synchronized (entry) {
+         Item removed = entry.closed ? null : entry.removeFirst(type);
+         if (removed != null) {
+            messageCount.decrement();
+         }
+         return removed;
+      }
+   }
+
+   public List<Item> eraseAll(String account, MessageType type) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return Collections.emptyList();
+      }
+      synchronized (entry) {
+         if (entry.closed) {
+            return Collections.emptyList();
+         }
+         List<Item> removed = entry.removeAll(type);
+         messageCount.add(-removed.size());
+         return removed;
+      }
+   }
+
+   public AccountSnapshot remove(String account) {
+
+      Entry entry = messageMap.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+      synchronized (entry) {
+         if (entry.closed) {
+            return null;
+         }
+         entry.closed = true;
+         messageMap.remove(account, entry);
+         messageCount.add(-entry.size());
+         return entry.snapshot(account);
+      }
+   }
+
+   public AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+
+      for (int i = 0; i < numbers.length; i++) {
+         removed[i] = remove(numbers[i]);
+      }
+      return removed;
+   }
+
+   public int accountCount() {
+      return messageMap.size();
+   }
+
+   public long messageCount() {
+      return messageCount.sum();
+   }
+
+   public boolean supportsParallelUpdates() {
+      return true;
+   }
+
+   private static class Entry extends Account {
+
+      private boolean closed;
+   }
+}
@@ -0,0 +1,348 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ConcurrentStoreStressTest.java
+//Program Purpose: ConcurrentStoreStressTest.java checks that a
+//ConcurrentMessageStore stays consistent under contention. Appender
+//threads add messages to a small set of accounts while sweepers erase the
+//first media message of every account, disconnectors remove accounts one
+//at a time and in batches, and listers walk the accounts. Every message
+//has its own id in its time field, and every message that is erased or
+//disconnected is kept. Once all threads are done, every message must be
+//either still in its sender's account or among the removed ones, exactly
+//once. The message count and the charges, in cents, of what is left plus
+//what was removed must equal what was added. Each account's total must
+//match its messages, which must still be in the order they were added.
+//While the threads run, the listers check that the accounts are listed in
+//ascending order and that every snapshot's total matches its messages.
+//It prints the counts and exits with status 1 if any check fails.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+//----------------------------
+class ConcurrentStoreStressTest {
+
+   private static final String[] FORMATS = { "GIF", "JPG", "PNG" };
+
+   private ConcurrentMessageStore store;
+   private String[] numbers;
+   private int appenders;
+   private int messagesPerAppender;
+   private volatile boolean appending;
+   // Filled in by each thread and read once every thread has finished.
+   private List<List<Item>> removed;
+   private AtomicLong addedCents;
+   private AtomicLong listings;
+   private AtomicLong operations;
+   private List<String> failures;
+
+   public ConcurrentStoreStressTest(int accounts, int appenders,
+         int messagesPerAppender) {
+      store = new ConcurrentMessageStore();
+      numbers = new String[accounts];
+      for (int i = 0; i < accounts; i++) {
+         numbers[i] = String.format("1-%03d-555-%04d", i % 1000, i);
+      }
+      this.appenders = appenders;
+      this.messagesPerAppender = messagesPerAppender;
+      removed = Collections.synchronizedList(new ArrayList<List<Item>>());
+      addedCents = new AtomicLong();
+      listings = new AtomicLong();
+      operations = new AtomicLong();
+      failures = Collections.synchronizedList(new ArrayList<String>());
+   }
+
+   public static void main(String[] args) throws InterruptedException {
+
+      int appenders = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      int sweepers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+      int disconnectors = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+      int listers = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+      int messages = args.length > 4 ? Integer.parseInt(args[4]) : 200000;
+      int accounts = args.length > 5 ? Integer.parseInt(args[5]) : 2000;
+
+      if (args.length > 6 || appenders < 1 || messages < 1 || accounts < 1) {
+         System.out.println("Usage: java ConcurrentStoreStressTest"
+               + " [appenders] [sweepers] [disconnectors] [listers]"
+               + " [messages per appender] [accounts]");
+         return;
+      }
+
+      ConcurrentStoreStressTest test = new ConcurrentStoreStressTest(
+            accounts, appenders, messages);
+      long start = System.nanoTime();
+
+      test.run(sweepers, disconnectors, listers);
+      System.out.printf("%d appenders, %d sweepers, %d disconnectors,"
+            + " %d listers: %d messages, %d erases and disconnects,"
+            + " %d listings in %.1f s%n", appenders, sweepers,
+            disconnectors, listers, (long) appenders * messages,
+            test.operations.get(), test.listings.get(),
+            (System.nanoTime() - start) / 1e9);
+
+      if (!test.check()) {
+         System.exit(1);
+      }
+   }
+
+   public void run(int sweepers, int disconnectors, int listers)
+         throws InterruptedException {
+
+      ArrayList<Thread> adding = new ArrayList<Thread>();
+      ArrayList<Thread> others = new ArrayList<Thread>();
+
+      appending = true;
+      for (int i = 0; i < appenders; i++) {
+         final int appender = i;
+         adding.add(start("appender-" + i, new Runnable() {
+            public void run() {
+               append(appender);
+            }
+         }));
+      }
+      for (int i = 0; i < sweepers; i++) {
+         others.add(start("sweeper-" + i, new Runnable() {
+            public void run() {
+               sweep();
+            }
+         }));
+      }
+      for (int i = 0; i < disconnectors; i++) {
+         others.add(start("disconnector-" + i, new Runnable() {
+            public void run() {
+               disconnect();
+            }
+         }));
+      }
+      for (int i = 0; i < listers; i++) {
+         others.add(start("lister-" + i, new Runnable() {
+            public void run() {
+               list();
+            }
+         }));
+      }
+
+      for (Thread thread : adding) {
+         thread.join();
+      }
+      appending = false;
+      for (Thread thread : others) {
+         thread.join();
+      }
+   }
+
+   // Checks the store against everything that was added and removed, and
+   // prints each failure. Returns true if there were none.
+   public boolean check() {
+
+      int total = appenders * messagesPerAppender;
+      int[] seen = new int[total];
+      long removedMessages = 0;
+      long removedCents = 0;
+      long residentMessages = 0;
+      long residentCents = 0;
+      String previous = null;
+
+      synchronized (removed) {
+         for (List<Item> batch : removed) {
+            for (Item messageItem : batch) {
+               seen[messageItem.getTime()]++;
+               removedMessages++;
+               removedCents += messageItem.getCharge();
+            }
+         }
+      }
+
+      for (String number : store.accounts()) {
+         if (previous != null && previous.compareTo(number) >= 0) {
+            fail("accounts out of order: " + previous + ", " + number);
+         }
+         previous = number;
+
+         List<Item> messages = store.messages(number);
+         long charges = 0;
+         int[] lastId = new int[appenders];
+         Arrays.fill(lastId, -1);
+         for (Item messageItem : messages) {
+            int id = messageItem.getTime();
+            int appender = id / messagesPerAppender;
+            seen[id]++;
+            charges += messageItem.getCharge();
+            if (!messageItem.getFrom().equals(number)) {
+               fail("message " + id + " from " + messageItem.getFrom()
+                     + " is in account " + number);
+            }
+            if (id <= lastId[appender]) {
+               fail("account " + number + " lists message " + id
+                     + " after " + lastId[appender]);
+            }
+            lastId[appender] = id;
+         }
+         if (charges != store.totalCharges(number)) {
+            fail("account " + number + " totals " + store.totalCharges(number)
+                  + " but its messages add up to " + charges);
+         }
+         residentMessages += messages.size();
+         residentCents += charges;
+      }
+
+      for (int id = 0; id < total; id++) {
+         if (seen[id] != 1) {
+            fail("message " + id + " found " + seen[id] + " times");
+         }
+      }
+      if (residentMessages != store.messageCount()) {
+         fail("message count " + store.messageCount() + " but accounts hold "
+               + residentMessages);
+      }
+      if (residentMessages + removedMessages != total) {
+         fail(residentMessages + " resident and " + removedMessages
+               + " removed messages, but " + total + " were added");
+      }
+      if (residentCents + removedCents != addedCents.get()) {
+         fail(residentCents + " resident and " + removedCents
+               + " removed cents, but " + addedCents.get() + " were added");
+      }
+
+      System.out.println(residentMessages + " messages resident in "
+            + store.accountCount() + " accounts, " + removedMessages
+            + " removed");
+      if (failures.isEmpty()) {
+         System.out.println("OK");
+         return true;
+      }
+      for (String failure : failures) {
+         System.out.println("FAILED: " + failure);
+      }
+      return false;
+   }
+
+   // Adds this appender's messages, with ids from appender *
+   // messagesPerAppender up, to random accounts.
+   private void append(int appender) {
+
+      Random random = new Random(appender);
+      long cents = 0;
+
+      for (int i = 0; i < messagesPerAppender; i++) {
+         int id = appender * messagesPerAppender + i;
+         String from = numbers[random.nextInt(numbers.length)];
+         String to = numbers[random.nextInt(numbers.length)];
+         int charge = 1 + random.nextInt(500);
+         Item messageItem = null;
+
+         switch (id % 3) {
+         case 0:
+            messageItem = new Message<Text>(id, from, to,
+                  Money.rescale(charge, 2), new Text("stress " + id));
+            break;
+         case 1:
+            messageItem = new Message<Media>(id, from, to,
+                  Money.rescale(charge, 2), new Media(1.5,
+                        FORMATS[random.nextInt(FORMATS.length)]));
+            break;
+         default:
+            messageItem = new Message<Voice>(id, from, to,
+                  Money.rescale(charge, 2), new Voice(60, "MP3"));
+            break;
+         }
+         store.add(messageItem);
+         cents += messageItem.getCharge();
+      }
+      addedCents.addAndGet(cents);
+   }
+
+   // Erases the first media message of every account, as the menu does,
+   // until the appenders are done, then once more.
+   private void sweep() {
+
+      ArrayList<Item> erased = new ArrayList<Item>();
+      boolean last = false;
+
+      while (!last) {
+         last = !appending;
+         for (String number : store.accounts()) {
+            Item messageItem = store.eraseFirst(number, MessageType.MEDIA);
+            if (messageItem != null) {
+               erased.add(messageItem);
+            }
+         }
+         operations.incrementAndGet();
+      }
+      removed.add(erased);
+   }
+
+   // Disconnects a random account, or a sorted batch of them, at a time.
+   private void disconnect() {
+
+      ArrayList<Item> disconnected = new ArrayList<Item>();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+
+      while (appending) {
+         if (random.nextInt(4) == 0) {
+            TreeSet<String> batch = new TreeSet<String>();
+            for (int i = 0; i < 8; i++) {
+               batch.add(numbers[random.nextInt(numbers.length)]);
+            }
+            for (AccountSnapshot account : store.removeAll(
+                  batch.toArray(new String[0]))) {
+               if (account != null) {
+                  disconnected.addAll(account.getMessages());
+               }
+            }
+         }
+
+         else {
+            AccountSnapshot account = store.remove(
+                  numbers[random.nextInt(numbers.length)]);
+            if (account != null) {
+               disconnected.addAll(account.getMessages());
+            }
+         }
+         operations.incrementAndGet();
+         Thread.yield();
+      }
+      removed.add(disconnected);
+   }
+
+   // Walks the accounts in order, checking the order and that every
+   // snapshot's total is the sum of its messages.
+   private void list() {
+      while (appending) {
+         String previous = null;
+         for (String number : store.accounts()) {
+            if (previous != null && previous.compareTo(number) >= 0) {
+               fail("listing out of order: " + previous + ", " + number);
+            }
+            previous = number;
+            AccountSnapshot account = store.snapshot(number);
+            if (account == null) {
+               continue;
+            }
+            long charges = 0;
+            for (Item messageItem : account.getMessages()) {
+               charges += messageItem.getCharge();
+            }
+            if (charges != account.getTotalCharges()) {
+               fail("snapshot of " + number + " totals "
+                     + account.getTotalCharges() + " but its messages add"
+                     + " up to " + charges);
+            }
+         }
+         listings.incrementAndGet();
+      }
+   }
+
+   private void fail(String failure) {
+      // Enough to show what went wrong without flooding the output.
+      if (failures.size() < 20) {
+         failures.add(failure);
+      }
+   }
+
+   private static Thread start(String name, Runnable task) {
+      Thread thread = new Thread(task, name);
+      thread.start();
+      return thread;
+   }
+}
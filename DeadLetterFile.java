@@ -0,0 +1,80 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: DeadLetterFile.java
+//Program Purpose: DeadLetterFile.java collects the input lines that could
+//not be parsed, such as a record with missing fields or a charge that is
+//not a number, so one bad line does not stop the whole load. Each line is
+//written as it was read, one per line, so once it is fixed the file can
+//be loaded like any other input. The file is only created once there is
+//a line to put in it, and a file left by an earlier load is removed.
+//----------------------------
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+//----------------------------
+class DeadLetterFile implements Closeable {
+
+   private static final byte NEW_LINE = '\n';
+
+   private Path path;
+   private OutputStream out;
+   private long lines;
+
+   public DeadLetterFile(Path path) throws IOException {
+      this.path = path;
+      Files.deleteIfExists(path);
+   }
+
+   // Writes bytes [from, to) of the buffer as one line.
+   public synchronized void add(ByteBuffer buffer, int from, int to) {
+      try {
+         if (out == null) {
+            out = new BufferedOutputStream(Files.newOutputStream(path));
+         }
+         for (int i = from; i < to; i++) {
+            out.write(buffer.get(i));
+         }
+         out.write(NEW_LINE);
+         lines++;
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   public synchronized long getLines() {
+      return lines;
+   }
+
+   public Path getPath() {
+      return path;
+   }
+
+   // Tells System.err how many lines of the source were rejected, if any.
+   public synchronized void report(Object source) {
+      if (lines > 0) {
+         System.err.println("Rejected " + lines + " lines of " + source
+               + " that do not parse, see " + path);
+      }
+   }
+
+   // Writes out the lines added so far, for a file that stays open while
+   // more input arrives.
+   public synchronized void flush() throws IOException {
+      if (out != null) {
+         out.flush();
+      }
+   }
+
+   public synchronized void close() throws IOException {
+      if (out != null) {
+         out.close();
+         out = null;
+      }
+   }
+}
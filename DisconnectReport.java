@@ -0,0 +1,126 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: DisconnectReport.java
+//Program Purpose: DisconnectReport.java is the outcome of disconnecting a
+//batch of accounts: the final total charges of every account that was
+//disconnected, in number order, and every number that had no account.
+//Missing numbers are reported together here rather than one
+//InvalidAccountException each. Only the totals are kept, so a nightly
+//batch of many accounts does not hold on to their messages.
+//----------------------------
+import java.util.*;
+//----------------------------
+class DisconnectReport {
+
+   private static final String NEW_LINE = System.lineSeparator();
+   // Most missing numbers the text form lists; the rest are only counted.
+   private static final int MISSING_LISTED = 20;
+
+   private String[] numbers;
+   private long[] charges;
+   private int disconnected;
+   private ArrayList<String> missing;
+   private long totalCharges;
+
+   // numbers and removed are parallel arrays; a null snapshot means the
+   // number had no account.
+   public DisconnectReport(String[] numbers, AccountSnapshot[] removed) {
+
+      this.numbers = new String[numbers.length];
+      charges = new long[numbers.length];
+      missing = new ArrayList<String>();
+
+      for (int i = 0; i < numbers.length; i++) {
+         if (removed[i] == null) {
+            missing.add(numbers[i]);
+            continue;
+         }
+         this.numbers[disconnected] = numbers[i];
+         charges[disconnected] = removed[i].getTotalCharges();
+         totalCharges = Money.add(totalCharges, charges[disconnected]);
+         disconnected++;
+      }
+   }
+
+   // Puts together the reports of batches that share no number, such as
+   // the parts of one batch that went to different shards.
+   public DisconnectReport(List<DisconnectReport> parts) {
+
+      TreeMap<String, Long> byNumber = new TreeMap<String, Long>();
+
+      missing = new ArrayList<String>();
+      for (DisconnectReport part : parts) {
+         for (int i = 0; i < part.disconnected; i++) {
+            byNumber.put(part.numbers[i], part.charges[i]);
+         }
+         missing.addAll(part.missing);
+      }
+      Collections.sort(missing);
+
+      numbers = new String[byNumber.size()];
+      charges = new long[byNumber.size()];
+      for (Map.Entry<String, Long> entry : byNumber.entrySet()) {
+         numbers[disconnected] = entry.getKey();
+         charges[disconnected] = entry.getValue();
+         totalCharges = Money.add(totalCharges, charges[disconnected]);
+         disconnected++;
+      }
+   }
+
+   // The final total charges of each disconnected account, in Money units,
+   // by number.
+   public SortedMap<String, Long> getCharges() {
+
+      TreeMap<String, Long> byNumber = new TreeMap<String, Long>();
+
+      for (int i = 0; i < disconnected; i++) {
+         byNumber.put(numbers[i], charges[i]);
+      }
+      return byNumber;
+   }
+
+   public List<String> getMissing() {
+      return Collections.unmodifiableList(missing);
+   }
+
+   public int getDisconnectedCount() {
+      return disconnected;
+   }
+
+   public long getTotalCharges() {
+      return totalCharges;
+   }
+
+   // One "number,charges" line per disconnected account, then a summary
+   // line and the first MISSING_LISTED missing numbers. getMissing() has
+   // all of them.
+   public void appendTo(StringBuilder builder) {
+
+      for (int i = 0; i < disconnected; i++) {
+         builder.append(numbers[i]).append(',');
+         Money.append(builder, charges[i]);
+         builder.append(NEW_LINE);
+      }
+      builder.append("Disconnected ").append(disconnected)
+            .append(" accounts, total charges ");
+      Money.append(builder, totalCharges);
+      builder.append(NEW_LINE);
+      if (!missing.isEmpty()) {
+         builder.append(missing.size()).append(" accounts do not exist:");
+         for (int i = 0; i < Math.min(missing.size(), MISSING_LISTED); i++) {
+            builder.append(' ').append(missing.get(i));
+         }
+         if (missing.size() > MISSING_LISTED) {
+            builder.append(" and ").append(missing.size() - MISSING_LISTED)
+                  .append(" more");
+         }
+         builder.append(NEW_LINE);
+      }
+   }
+
+   public String toString() {
+      StringBuilder builder = new StringBuilder();
+      appendTo(builder);
+      return builder.toString();
+   }
+}
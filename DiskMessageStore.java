@@ -0,0 +1,916 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: DiskMessageStore.java
+//Program Purpose: DiskMessageStore.java is a MessageStore that keeps the
+//accounts in a file on local disk, so the subscriber base does not have
+//to fit in memory. The heap holds the sorted account index (where each
+//account's record is in the file, its message count and total charges)
+//and a cache of the messages of recently used accounts that is bounded by
+//an estimate of its size in bytes. The cache evicts the least recently
+//used account first. A cached account is an Account, whose positions by
+//message type let erases find their messages without scanning. Changes
+//are made in the cache and written back to the file when the account is
+//evicted, on flush() and on close().
+//Counts and totals come from the index and never read the file.
+//
+//The file is a log of account records. A changed account is appended
+//again and a disconnected one gets a removal record, so reopening the
+//file replays it to rebuild the index. A message added to an account
+//that is not cached is appended as a record of its own, chained to the
+//account's earlier ones, so the add never reads the account. The next
+//read of the account joins the chain and writes it back as one record.
+//Records are appended through a write buffer. A record that was cut short
+//by a crash ends the log and is dropped. Once superseded records take up
+//more than half of the file it is rewritten with only the live ones, each
+//account in one record.
+//
+//Layout (big endian):
+//  int magic, int version, int Money scale of the charges
+//  records: int body length, int CRC32C of the body, body
+//  body: account number, byte kind, and for a live account its message
+//        count, total charges and messages in order, or for an appended
+//        message the offset of the account's previous appended message
+//        (-1 for none) and the message
+//----------------------------
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+//----------------------------
+class DiskMessageStore implements MessageStore, Closeable {
+
+   private static final int MAGIC = 0x43434453;
+   // Version 1 files have no appended messages and are read as they are.
+   private static final int VERSION = 2;
+   private static final int FILE_HEADER_SIZE = 4 + 4 + 4;
+   private static final int RECORD_HEADER_SIZE = 4 + 4;
+   private static final byte LIVE = 0;
+   private static final byte REMOVED = 1;
+   private static final byte APPENDED = 2;
+   private static final long COMPACT_THRESHOLD = 1L << 24;
+   private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+   // Rough heap cost of one cached message and of one cached account, not
+   // counting text content.
+   private static final int MESSAGE_BYTES = 96;
+   private static final int ACCOUNT_BYTES = 64;
+
+   private Path file;
+   private FileChannel channel;
+   private long fileEnd;
+   private long garbage;
+   private TreeMap<String, Entry> entries;
+   private long messageCount;
+
+   private LinkedHashMap<String, Cached> cache;
+   private long cacheLimit;
+   private long cachedBytes;
+   private long hits;
+   private long misses;
+   private long evictions;
+   private long writeBacks;
+   private long appends;
+
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private ByteBuffer scratch;
+   // Records appended after the last write to the file, which end at
+   // fileEnd.
+   private ByteBuffer writeBuffer;
+   private CRC32C crc;
+
+   // Opens the account file, creating it if needed, with a cache of about
+   // cacheLimit bytes.
+   public DiskMessageStore(Path file, long cacheLimit) throws IOException {
+      this.file = file;
+      this.cacheLimit = cacheLimit;
+      entries = new TreeMap<String, Entry>();
+      cache = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+      numbers = new SymbolTable("numbers");
+      formats = new SymbolTable("formats");
+      scratch = ByteBuffer.allocate(1 << 16);
+      writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+      crc = new CRC32C();
+      channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (channel.size() == 0) {
+         writeFileHeader(channel);
+         fileEnd = FILE_HEADER_SIZE;
+      }
+
+      else {
+         replay();
+      }
+      Metrics.registerCache(this);
+   }
+
+   public synchronized void add(Item messageItem) {
+
+      if (MessageType.of(messageItem) == null) {
+         throw new IllegalArgumentException(
+               "Not a text, media or voice message: " + messageItem);
+      }
+
+      String key = messageItem.getFrom();
+      Entry entry = entries.get(key);
+      Cached account = null;
+
+      if (entry == null) {
+         entry = new Entry();
+         account = new Cached(new Account());
+         entries.put(key, entry);
+         cache(key, account);
+      }
+
+      else if (!cache.containsKey(key)) {
+         appendMessage(key, entry, messageItem);
+         return;
+      }
+
+      else {
+         account = load(key, entry);
+      }
+
+      // Sum first, so a total that overflows leaves the store unchanged.
+      long totalCharges = Money.add(entry.totalCharges,
+            messageItem.getCharge());
+
+      account.messages.add(messageItem);
+      account.dirty = true;
+      resize(account, estimate(messageItem));
+      entry.count++;
+      entry.totalCharges = totalCharges;
+      messageCount++;
+      evictIfFull();
+   }
+
+   public synchronized void addAll(String account,
+         List<? extends Item> messages) {
+      for (Item messageItem : messages) {
+         add(messageItem);
+      }
+   }
+
+   public synchronized boolean contains(String account) {
+      return entries.containsKey(account);
+   }
+
+   public synchronized Collection<String> accounts() {
+      return Collections.unmodifiableSet(entries.keySet());
+   }
+
+   public synchronized List<Item> messages(String account) {
+
+      Entry entry = entries.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+
+      List<Item> messages = load(account, entry).messages.getMessages();
+      evictIfFull();
+      return messages;
+   }
+
+   public synchronized long totalCharges(String account) {
+      Entry entry = entries.get(account);
+      return entry == null ? 0 : entry.totalCharges;
+   }
+
+   public synchronized AccountSnapshot snapshot(String account) {
+      List<Item> messages = messages(account);
+      return messages == null ? null : new AccountSnapshot(account,
+            Collections.unmodifiableList(new ArrayList<Item>(messages)),
+            totalCharges(account));
+   }
+
+   public synchronized Item eraseFirst(String account,
+         MessageType messageType) {
+
+      Entry entry = entries.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+
+      Cached cached = load(account, entry);
+      Item removed = cached.messages.removeFirst(messageType);
+
+      if (removed != null) {
+         removed(entry, cached, removed);
+      }
+      evictIfFull();
+      return removed;
+   }
+
+   public synchronized List<Item> eraseAll(String account,
+         MessageType messageType) {
+
+      Entry entry = entries.get(account);
+
+      if (entry == null) {
+         return new ArrayList<Item>();
+      }
+
+      Cached cached = load(account, entry);
+      List<Item> removed = cached.messages.removeAll(messageType);
+
+      for (Item messageItem : removed) {
+         removed(entry, cached, messageItem);
+      }
+      evictIfFull();
+      return removed;
+   }
+
+   public synchronized AccountSnapshot remove(String account) {
+
+      Entry entry = entries.get(account);
+
+      if (entry == null) {
+         return null;
+      }
+
+      AccountSnapshot removed = new AccountSnapshot(account,
+            load(account, entry).messages.getMessages(),
+            entry.totalCharges);
+
+      cachedBytes -= cache.remove(account).bytes;
+      entries.remove(account);
+      messageCount -= entry.count;
+      if (entry.offset >= 0) {
+         garbage += entry.length + entry.appendedLength;
+         try {
+            garbage += append(encodeRemoval(account));
+         }
+         catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         compactIfSparse();
+      }
+      return removed;
+   }
+
+   public synchronized AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+
+      for (int i = 0; i < numbers.length; i++) {
+         removed[i] = remove(numbers[i]);
+      }
+      return removed;
+   }
+
+   public synchronized int accountCount() {
+      return entries.size();
+   }
+
+   public synchronized long messageCount() {
+      return messageCount;
+   }
+
+   // One cache and one file behind a lock.
+   public boolean supportsParallelUpdates() {
+      return false;
+   }
+
+   // Writes every changed account in the cache to the file and forces the
+   // file to disk.
+   public synchronized void flush() throws IOException {
+      for (Map.Entry<String, Cached> cached : cache.entrySet()) {
+         if (cached.getValue().dirty) {
+            writeBack(cached.getKey(), cached.getValue());
+         }
+      }
+      drain();
+      channel.force(false);
+      compactIfSparse();
+   }
+
+   public synchronized void close() throws IOException {
+      if (channel.isOpen()) {
+         flush();
+         channel.close();
+      }
+   }
+
+   public synchronized long getHits() {
+      return hits;
+   }
+
+   public synchronized long getMisses() {
+      return misses;
+   }
+
+   public synchronized long getEvictions() {
+      return evictions;
+   }
+
+   public synchronized long getWriteBacks() {
+      return writeBacks;
+   }
+
+   // Messages appended to accounts that were not cached.
+   public synchronized long getAppends() {
+      return appends;
+   }
+
+   public synchronized int getCachedAccounts() {
+      return cache.size();
+   }
+
+   public synchronized long getCachedBytes() {
+      return cachedBytes;
+   }
+
+   public synchronized String toString() {
+      long lookups = hits + misses;
+      return String.format("account cache: %d hits, %d misses (%.1f%% hits),"
+            + " %d evictions, %d write-backs, %d appends, %d accounts in"
+            + " ~%d KB", hits, misses,
+            lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions,
+            writeBacks, appends, cache.size(), cachedBytes / 1024);
+   }
+
+   // Returns the cached messages of the account, reading them from the file
+   // on a miss.
+   private Cached load(String account, Entry entry) {
+
+      Cached cached = cache.get(account);
+
+      if (cached != null) {
+         hits++;
+         return cached;
+      }
+      misses++;
+      try {
+         cached = new Cached(read(account, entry));
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      cache(account, cached);
+      for (Item messageItem : cached.messages.getMessages()) {
+         resize(cached, estimate(messageItem));
+      }
+      // Written back as one record, so the chain is read only once.
+      cached.dirty = entry.lastAppended >= 0;
+      return cached;
+   }
+
+   private void cache(String account, Cached cached) {
+      cache.put(account, cached);
+      resize(cached, ACCOUNT_BYTES);
+   }
+
+   private void resize(Cached cached, long bytes) {
+      cached.bytes += bytes;
+      cachedBytes += bytes;
+   }
+
+   private void removed(Entry entry, Cached cached, Item messageItem) {
+      entry.totalCharges = Money.subtract(entry.totalCharges,
+            messageItem.getCharge());
+      entry.count--;
+      messageCount--;
+      cached.dirty = true;
+      resize(cached, -estimate(messageItem));
+   }
+
+   // Evicts least recently used accounts until the cache fits its limit.
+   // The account used last always stays.
+   private void evictIfFull() {
+
+      Iterator<Map.Entry<String, Cached>> eldest = cache.entrySet()
+            .iterator();
+
+      try {
+         while (cachedBytes > cacheLimit && cache.size() > 1) {
+            Map.Entry<String, Cached> evicted = eldest.next();
+            if (evicted.getValue().dirty) {
+               writeBack(evicted.getKey(), evicted.getValue());
+            }
+            eldest.remove();
+            cachedBytes -= evicted.getValue().bytes;
+            evictions++;
+         }
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      compactIfSparse();
+   }
+
+   private void writeBack(String account, Cached cached) throws IOException {
+
+      Entry entry = entries.get(account);
+      long offset = fileEnd;
+
+      if (entry.offset >= 0) {
+         garbage += entry.length + entry.appendedLength;
+      }
+      entry.length = append(encode(account, cached.messages.getMessages()));
+      entry.offset = offset;
+      entry.lastAppended = -1;
+      entry.appendedLength = 0;
+      cached.dirty = false;
+      writeBacks++;
+   }
+
+   // Appends the message after the account's records without reading
+   // them.
+   private void appendMessage(String account, Entry entry,
+         Item messageItem) {
+
+      // Sum first, so a total that overflows leaves the store unchanged.
+      long totalCharges = Money.add(entry.totalCharges,
+            messageItem.getCharge());
+      long offset = fileEnd;
+
+      begin(account, APPENDED);
+      ensure(8);
+      scratch.putLong(entry.lastAppended);
+      writeMessage(messageItem);
+      try {
+         entry.appendedLength += append(end());
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      entry.lastAppended = offset;
+      entry.count++;
+      entry.totalCharges = totalCharges;
+      messageCount++;
+      appends++;
+   }
+
+   private static long estimate(Item messageItem) {
+      if (MessageType.of(messageItem) == MessageType.TEXT) {
+         return MESSAGE_BYTES + 40 + ((Text) ((Message<?>) messageItem)
+               .getFormat()).getContent().length();
+      }
+      return MESSAGE_BYTES;
+   }
+
+   // Appends the record in scratch and returns its length. A record larger
+   // than the write buffer is written straight to the file.
+   private int append(ByteBuffer record) throws IOException {
+
+      int length = record.remaining();
+
+      if (length > writeBuffer.remaining()) {
+         drain();
+      }
+      if (length > writeBuffer.capacity()) {
+         long position = fileEnd;
+         while (record.hasRemaining()) {
+            position += channel.write(record, position);
+         }
+      }
+
+      else {
+         writeBuffer.put(record);
+      }
+      fileEnd += length;
+      return length;
+   }
+
+   // Writes the write buffer to the file. Anything that reads the file
+   // drains it first.
+   private void drain() throws IOException {
+
+      long position = fileEnd - writeBuffer.position();
+
+      writeBuffer.flip();
+      while (writeBuffer.hasRemaining()) {
+         position += channel.write(writeBuffer, position);
+      }
+      writeBuffer.clear();
+   }
+
+   // The count and total are those of the messages, which are not always
+   // the entry's while the account is cached.
+   private ByteBuffer encode(String account, List<Item> messages) {
+
+      long totalCharges = 0;
+
+      for (Item messageItem : messages) {
+         totalCharges = Money.add(totalCharges, messageItem.getCharge());
+      }
+      begin(account, LIVE);
+      varInt(messages.size());
+      ensure(8);
+      scratch.putLong(totalCharges);
+      for (Item messageItem : messages) {
+         writeMessage(messageItem);
+      }
+      return end();
+   }
+
+   private ByteBuffer encodeRemoval(String account) {
+      begin(account, REMOVED);
+      return end();
+   }
+
+   private void begin(String account, byte kind) {
+      scratch.clear();
+      scratch.position(RECORD_HEADER_SIZE);
+      string(account);
+      ensure(1);
+      scratch.put(kind);
+   }
+
+   private ByteBuffer end() {
+      int bodyLength = scratch.position() - RECORD_HEADER_SIZE;
+      crc.reset();
+      crc.update(scratch.array(), RECORD_HEADER_SIZE, bodyLength);
+      scratch.putInt(0, bodyLength);
+      scratch.putInt(4, (int) crc.getValue());
+      scratch.flip();
+      return scratch;
+   }
+
+   private void writeMessage(Item messageItem) {
+
+      MessageType type = MessageType.of(messageItem);
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      ensure(1 + 4 + 8);
+      scratch.put((byte) type.ordinal());
+      scratch.putInt(messageItem.getTime());
+      scratch.putLong(messageItem.getCharge());
+      string(messageItem.getTo());
+
+      switch (type) {
+      case TEXT:
+         string(((Text) payload).getContent());
+         break;
+      case MEDIA:
+         ensure(8);
+         scratch.putDouble(((Media) payload).getSize());
+         string(((Media) payload).getFormat());
+         break;
+      case VOICE:
+         ensure(4);
+         scratch.putInt(((Voice) payload).getDuration());
+         string(((Voice) payload).getFormat());
+         break;
+      }
+   }
+
+   private void ensure(int bytes) {
+      if (scratch.remaining() < bytes) {
+         ByteBuffer larger = ByteBuffer.allocate(Math.max(
+               scratch.capacity() * 2, scratch.position() + bytes));
+         scratch.flip();
+         larger.put(scratch);
+         scratch = larger;
+      }
+   }
+
+   private void varInt(int value) {
+      ensure(5);
+      while ((value & ~0x7f) != 0) {
+         scratch.put((byte) ((value & 0x7f) | 0x80));
+         value >>>= 7;
+      }
+      scratch.put((byte) value);
+   }
+
+   private void string(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      varInt(bytes.length);
+      ensure(bytes.length);
+      scratch.put(bytes);
+   }
+
+   // Reads the account's record and the messages appended after it back
+   // into Items, checking their checksums. The appended messages are
+   // chained from the last one back.
+   private Account read(String account, Entry entry)
+         throws IOException {
+
+      drain();
+
+      ByteBuffer body = readRecord(account, entry.offset);
+      ArrayDeque<ByteBuffer> appended = new ArrayDeque<ByteBuffer>();
+
+      for (long offset = entry.lastAppended; offset >= 0;) {
+         ByteBuffer message = readRecord(account, offset);
+         string(message);
+         message.get();
+         offset = message.getLong();
+         appended.push(message);
+      }
+      string(body);
+      body.get();
+
+      int count = varInt(body);
+      Account messages = new Account();
+
+      body.getLong();
+      for (int i = 0; i < count; i++) {
+         messages.add(readMessage(body, account));
+      }
+      for (ByteBuffer message : appended) {
+         messages.add(readMessage(message, account));
+      }
+      return messages;
+   }
+
+   private ByteBuffer readRecord(String account, long offset)
+         throws IOException {
+
+      ByteBuffer body = readBody(channel, offset);
+
+      if (body == null) {
+         throw new IOException("Record of " + account + " at offset "
+               + offset + " in " + file + " is corrupt");
+      }
+      return body;
+   }
+
+   private Item readMessage(ByteBuffer body, String account) {
+
+      byte type = body.get();
+      int time = body.getInt();
+      long charge = body.getLong();
+      String receiver = numbers.intern(string(body));
+
+      switch (MessageType.values()[type]) {
+      case TEXT:
+         return new Message<Text>(time, account, receiver, charge,
+               new Text(string(body)));
+      case MEDIA: {
+         double size = body.getDouble();
+         return new Message<Media>(time, account, receiver, charge,
+               new Media(size, formats.intern(string(body))));
+      }
+      default: {
+         int duration = body.getInt();
+         return new Message<Voice>(time, account, receiver, charge,
+               new Voice(duration, formats.intern(string(body))));
+      }
+      }
+   }
+
+   // Returns the body of the record at offset, or null if the record runs
+   // past the end of the file or fails its checksum.
+   private ByteBuffer readBody(FileChannel from, long offset)
+         throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+      if (!readFully(from, header, offset)) {
+         return null;
+      }
+
+      int bodyLength = header.getInt(0);
+
+      if (bodyLength <= 0
+            || offset + RECORD_HEADER_SIZE + bodyLength > from.size()) {
+         return null;
+      }
+
+      ByteBuffer body = ByteBuffer.allocate(bodyLength);
+
+      if (!readFully(from, body, offset + RECORD_HEADER_SIZE)) {
+         return null;
+      }
+      crc.reset();
+      crc.update(body.array(), 0, bodyLength);
+      if ((int) crc.getValue() != header.getInt(4)) {
+         return null;
+      }
+      body.flip();
+      return body;
+   }
+
+   private static boolean readFully(FileChannel from, ByteBuffer buffer,
+         long offset) throws IOException {
+
+      while (buffer.hasRemaining()) {
+         int read = from.read(buffer, offset + buffer.position());
+         if (read < 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int varInt(ByteBuffer body) {
+
+      int value = 0;
+
+      for (int shift = 0; shift < 35; shift += 7) {
+         byte b = body.get();
+         value |= (b & 0x7f) << shift;
+         if (b >= 0) {
+            return value;
+         }
+      }
+      throw new IllegalStateException("Malformed length in account record");
+   }
+
+   private static String string(ByteBuffer body) {
+      int length = varInt(body);
+      String value = new String(body.array(), body.position(), length,
+            StandardCharsets.UTF_8);
+      body.position(body.position() + length);
+      return value;
+   }
+
+   private static void writeFileHeader(FileChannel to) throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+      header.putInt(MAGIC).putInt(VERSION).putInt(Money.SCALE).flip();
+      while (header.hasRemaining()) {
+         to.write(header, header.position());
+      }
+   }
+
+   // Rebuilds the index from the records in the file. A record that was
+   // cut short or fails its checksum ends the log and is cut off.
+   private void replay() throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+      if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+         throw new IOException(file + " is not an account file");
+      }
+      if (header.getInt(4) != VERSION && header.getInt(4) != 1) {
+         throw new IOException(file + " has unsupported version "
+               + header.getInt(4));
+      }
+      if (header.getInt(8) != Money.SCALE) {
+         throw new IOException(file + " keeps charges with Money scale "
+               + header.getInt(8) + ", not " + Money.SCALE);
+      }
+
+      long offset = FILE_HEADER_SIZE;
+      ByteBuffer body = null;
+
+      while ((body = readBody(channel, offset)) != null) {
+         int length = RECORD_HEADER_SIZE + body.limit();
+         String account = string(body);
+         byte kind = body.get();
+
+         if (kind == APPENDED) {
+            replayAppended(account, offset, length, body);
+            offset += length;
+            continue;
+         }
+
+         Entry previous = entries.remove(account);
+
+         if (previous != null) {
+            garbage += previous.length + previous.appendedLength;
+            messageCount -= previous.count;
+         }
+         if (kind == LIVE) {
+            Entry entry = new Entry();
+            entry.offset = offset;
+            entry.length = length;
+            entry.count = varInt(body);
+            entry.totalCharges = body.getLong();
+            entries.put(account, entry);
+            messageCount += entry.count;
+         }
+
+         else {
+            garbage += length;
+         }
+         offset += length;
+      }
+      if (offset < channel.size()) {
+         channel.truncate(offset);
+      }
+      fileEnd = offset;
+      if (header.getInt(4) != VERSION) {
+         writeFileHeader(channel);
+      }
+   }
+
+   // Counts an appended message into its account, reading only the charge.
+   private void replayAppended(String account, long offset, int length,
+         ByteBuffer body) throws IOException {
+
+      Entry entry = entries.get(account);
+
+      if (entry == null) {
+         throw new IOException("Message appended at offset " + offset
+               + " in " + file + " has no record of " + account);
+      }
+      body.getLong();
+      body.get();
+      body.getInt();
+      entry.totalCharges = Money.add(entry.totalCharges, body.getLong());
+      entry.count++;
+      entry.lastAppended = offset;
+      entry.appendedLength += length;
+      messageCount++;
+   }
+
+   // Rewrites the file with only the current record of every account that
+   // has been written, once superseded records outweigh the live ones. An
+   // account with appended messages is read and written as one record.
+   private void compactIfSparse() {
+
+      if (garbage < COMPACT_THRESHOLD || garbage * 2 < fileEnd) {
+         return;
+      }
+
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      long[] moved = new long[entries.size()];
+      int[] lengths = new int[entries.size()];
+      long position = FILE_HEADER_SIZE;
+      int index = 0;
+
+      try {
+         drain();
+         try (FileChannel to = FileChannel.open(temporary,
+               StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            writeFileHeader(to);
+            to.position(position);
+            for (Map.Entry<String, Entry> account : entries.entrySet()) {
+               Entry entry = account.getValue();
+               if (entry.lastAppended >= 0) {
+                  ByteBuffer record = encode(account.getKey(),
+                        read(account.getKey(), entry).getMessages());
+                  lengths[index] = record.remaining();
+                  while (record.hasRemaining()) {
+                     to.write(record);
+                  }
+               }
+
+               else if (entry.offset >= 0) {
+                  long copied = 0;
+                  while (copied < entry.length) {
+                     copied += channel.transferTo(entry.offset + copied,
+                           entry.length - copied, to);
+                  }
+                  lengths[index] = entry.length;
+               }
+               moved[index] = position;
+               position += lengths[index];
+               index++;
+            }
+            to.force(true);
+         }
+         channel.close();
+         Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+         channel = FileChannel.open(file, StandardOpenOption.READ,
+               StandardOpenOption.WRITE);
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+
+      // Offsets only change once the new file is in place.
+      index = 0;
+      for (Entry entry : entries.values()) {
+         if (entry.offset >= 0) {
+            entry.offset = moved[index];
+            entry.length = lengths[index];
+            entry.lastAppended = -1;
+            entry.appendedLength = 0;
+         }
+         index++;
+      }
+      fileEnd = position;
+      garbage = 0;
+   }
+
+   // Where an account's current record is in the file, or offset -1 if it
+   // has only been cached so far, where its last appended message is, or
+   // -1 if none has been appended since the record, and its count and
+   // total charges.
+   private static class Entry {
+
+      private long offset = -1;
+      private int length;
+      private long lastAppended = -1;
+      private long appendedLength;
+      private int count;
+      private long totalCharges;
+   }
+
+   private static class Cached {
+
+      private Account messages;
+      private long bytes;
+      private boolean dirty;
+
+      public Cached(Account messages) {
+         this.messages = messages;
+      }
+   }
+}
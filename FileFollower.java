@@ -0,0 +1,333 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: FileFollower.java
+//Program Purpose: FileFollower.java follows the message input file while
+//the carrier runs. It remembers the offset of the first byte it has not
+//applied yet, and whenever the file grows it parses only the complete
+//lines past that offset into the live store, a batch of up to BATCH_SIZE
+//bytes at a time. A batch is parsed in full before any of it is applied
+//and the offset moves past it as soon as it is, so a line that fails to
+//parse never leaves part of its batch applied for a later poll to apply
+//again. Given a DeadLetterFile, such lines go there and are passed over.
+//A batch is then added one message at a time, and the offset moves past
+//each line as its message is added. A message the store rejects, such as
+//one whose charge overflows a total, goes to the DeadLetterFile too, and
+//without one the poll stops at its line, so only that line is tried again.
+//After every poll the offset and the identity of the file are written to
+//a checkpoint file. A restart that has restored the accounts up to an
+//offset carries on from there instead of reading the whole file again,
+//unless the checkpoint shows the file was replaced or cut short while the
+//carrier was down. A file that shrinks or is replaced is read again from
+//the start.
+//----------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+//----------------------------
+class FileFollower implements Runnable {
+
+   private static final long POLL_INTERVAL_MS = 1000;
+   private static final int PROBE_SIZE = 8192;
+   private static final int BATCH_SIZE = 1 << 22;
+
+   private Path inputFilePath;
+   private Path checkpointPath;
+   private MessageStore messageStore;
+   private MappedRecordParser parser;
+   private DeadLetterFile deadLetters;
+   private long offset;
+   private Object fileKey;
+   private boolean checkpointChecked;
+   private volatile boolean running;
+   private Thread thread;
+
+   public FileFollower(Path inputFilePath, Path checkpointPath,
+         MessageStore messageStore, SymbolTable numbers, SymbolTable formats,
+         long offset) {
+      this.inputFilePath = inputFilePath;
+      this.checkpointPath = checkpointPath;
+      this.messageStore = messageStore;
+      this.offset = offset;
+      parser = new MappedRecordParser(numbers, formats);
+   }
+
+   // Applies every complete line appended since the last call and returns
+   // the number of bytes applied. A trailing line without its new line yet
+   // is left for the next call.
+   public synchronized long poll() throws IOException {
+
+      if (!Files.exists(inputFilePath)) {
+         return 0;
+      }
+
+      Object key = Files.readAttributes(inputFilePath,
+            BasicFileAttributes.class).fileKey();
+
+      try (FileChannel channel = FileChannel.open(inputFilePath,
+            StandardOpenOption.READ)) {
+
+         long size = channel.size();
+
+         if (!checkpointChecked) {
+            checkpointChecked = true;
+            if (offset > 0 && changedSinceCheckpoint(key, size)) {
+               offset = 0;
+            }
+         }
+         if (size < offset || (fileKey != null && !fileKey.equals(key))) {
+            offset = 0;
+         }
+         fileKey = key;
+
+         long end = lastLineEnd(channel, offset, size);
+         if (end <= offset) {
+            return 0;
+         }
+
+         long start = offset;
+         try {
+            while (offset < end) {
+               long batchEnd = end;
+               if (end - offset > BATCH_SIZE) {
+                  batchEnd = lastLineEnd(channel, offset, offset + BATCH_SIZE);
+                  batchEnd = batchEnd > offset ? batchEnd : end;
+               }
+               apply(channel, batchEnd);
+            }
+         }
+         finally {
+            if (offset != start) {
+               writeCheckpoint();
+            }
+            if (deadLetters != null) {
+               deadLetters.flush();
+            }
+         }
+         return end - start;
+      }
+   }
+
+   // Parses the lines from the offset to end, adds their messages to the
+   // store and moves the offset to end, past each line as it is added.
+   private void apply(FileChannel channel, long end) throws IOException {
+
+      long start = offset;
+      long length = end - start;
+      ArrayList<Item> batch = new ArrayList<Item>();
+      ArrayList<Integer> lineStarts = new ArrayList<Integer>();
+
+      if (length > Integer.MAX_VALUE) {
+         throw new IOException("Line at offset " + offset + " is longer than "
+               + Integer.MAX_VALUE + " bytes");
+      }
+
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            length);
+
+      parser.parse(buffer, start, 0, (int) length, batch, lineStarts);
+      for (int i = 0; i < batch.size(); i++) {
+         int lineStart = lineStarts.get(i);
+         int lineEnd = lineEnd(buffer, lineStart, (int) length);
+         try {
+            messageStore.add(batch.get(i));
+         }
+         catch (RuntimeException e) {
+            if (deadLetters == null) {
+               throw e;
+            }
+            deadLetters.add(buffer, lineStart, trimmedEnd(buffer, lineStart,
+                  lineEnd));
+         }
+         offset = start + lineEnd;
+      }
+      offset = end;
+   }
+
+   // Returns the index just past the new line of the line at from, or to
+   // if it has none.
+   private static int lineEnd(ByteBuffer buffer, int from, int to) {
+      for (int i = from; i < to; i++) {
+         if (buffer.get(i) == '\n') {
+            return i + 1;
+         }
+      }
+      return to;
+   }
+
+   // Returns end less the new line and carriage return that end the line.
+   private static int trimmedEnd(ByteBuffer buffer, int start, int end) {
+      if (end > start && buffer.get(end - 1) == '\n') {
+         end--;
+      }
+      if (end > start && buffer.get(end - 1) == '\r') {
+         end--;
+      }
+      return end;
+   }
+
+   // See MappedRecordParser.setDeadLetters(). The file is flushed after
+   // every poll that applied lines.
+   public synchronized void setDeadLetters(DeadLetterFile deadLetters) {
+      parser.setDeadLetters(deadLetters);
+      this.deadLetters = deadLetters;
+   }
+
+   // A poll holds the follower's lock while it applies lines, so a caller
+   // that holds it too sees the store at exactly this offset.
+   public synchronized long getOffset() {
+      return offset;
+   }
+
+   public Thread start() {
+      running = true;
+      thread = new Thread(this, "message-follower");
+      thread.setDaemon(true);
+      thread.start();
+      return thread;
+   }
+
+   // Returns once the thread has finished the poll it was in, if any.
+   public void stop() {
+      running = false;
+      if (thread != null) {
+         thread.interrupt();
+         try {
+            thread.join();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   // Wakes up on changes in the file's directory, or every poll interval
+   // where the file system does not report them, and applies new lines.
+   public void run() {
+
+      WatchService watcher = null;
+      Path directory = inputFilePath.toAbsolutePath().getParent();
+
+      try {
+         watcher = FileSystems.getDefault().newWatchService();
+         directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+               StandardWatchEventKinds.ENTRY_MODIFY);
+      }
+      catch (IOException e) {
+         watcher = null;
+      }
+
+      while (running) {
+         try {
+            poll();
+            if (watcher != null) {
+               WatchKey key = watcher.poll(POLL_INTERVAL_MS,
+                     TimeUnit.MILLISECONDS);
+               if (key != null) {
+                  key.pollEvents();
+                  key.reset();
+               }
+            }
+
+            else {
+               Thread.sleep(POLL_INTERVAL_MS);
+            }
+         }
+         catch (InterruptedException e) {
+            running = false;
+         }
+         // Reading the file fails when stop() interrupts a poll.
+         catch (IOException e) {
+            if (running) {
+               e.printStackTrace();
+            }
+         }
+         // Such as a store that rejects a message with no DeadLetterFile.
+         // The poll stopped at its line, which is tried again on the next
+         // poll instead of ending the thread.
+         catch (RuntimeException e) {
+            e.printStackTrace();
+         }
+      }
+
+      try {
+         if (watcher != null) {
+            watcher.close();
+         }
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // True if the checkpoint left by the last run was for another file than
+   // the one now at the input path, or for more of the file than it now
+   // has. Either way the offset the accounts were restored to no longer
+   // points into the same lines.
+   private boolean changedSinceCheckpoint(Object key, long size)
+         throws IOException {
+
+      if (checkpointPath == null || !Files.exists(checkpointPath)) {
+         return false;
+      }
+
+      String[] saved = new String(Files.readAllBytes(checkpointPath),
+            StandardCharsets.US_ASCII).trim().split(" ", 2);
+
+      if (saved[0].isEmpty()) {
+         return false;
+      }
+      if (Long.parseLong(saved[0]) > size) {
+         return true;
+      }
+      return saved.length > 1 && key != null
+            && !saved[1].equals(key.toString());
+   }
+
+   // Writes the offset and the file key to a temporary file and moves it
+   // over the checkpoint, so a crash never leaves a half written
+   // checkpoint.
+   private void writeCheckpoint() throws IOException {
+
+      if (checkpointPath == null) {
+         return;
+      }
+
+      Path temporary = checkpointPath.resolveSibling(
+            checkpointPath.getFileName() + ".tmp");
+      String saved = fileKey == null ? Long.toString(offset)
+            : offset + " " + fileKey;
+      Files.write(temporary, (saved + System.lineSeparator())
+            .getBytes(StandardCharsets.US_ASCII));
+      Files.move(temporary, checkpointPath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   // Returns the offset just past the last new line in [start, size), or
+   // start if there is no complete line yet.
+   private static long lastLineEnd(FileChannel channel, long start,
+         long size) throws IOException {
+
+      ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+      long position = size;
+
+      while (position > start) {
+         int length = (int) Math.min(PROBE_SIZE, position - start);
+         probe.clear();
+         probe.limit(length);
+         channel.read(probe, position - length);
+         for (int i = length - 1; i >= 0; i--) {
+            if (probe.get(i) == '\n') {
+               return position - length + i + 1;
+            }
+         }
+         position -= length;
+      }
+      return start;
+   }
+}
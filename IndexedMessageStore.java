@@ -0,0 +1,153 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: IndexedMessageStore.java
+//Program Purpose: IndexedMessageStore.java is the base of the secondary
+//indexes. It wraps another MessageStore, passes every call through to it
+//and tells the index about every message that goes in or comes out, so an
+//index stays in sync with loads, snapshots, the file follower, erases and
+//disconnects without any of them knowing it is there. Indexes can be
+//stacked by wrapping one in another.
+//----------------------------
+import java.util.*;
+//----------------------------
+abstract class IndexedMessageStore implements MessageStore {
+
+   protected MessageStore messageStore;
+
+   public IndexedMessageStore(MessageStore messageStore) {
+      this.messageStore = messageStore;
+   }
+
+   // Called for every message before it is stored. Must be safe to call
+   // from several threads at once.
+   protected abstract void index(Item messageItem);
+
+   // Called for every message after it has been removed from the store.
+   protected abstract void unindex(Item messageItem);
+
+   // Indexes the messages that are already in the wrapped store, for a
+   // store that was opened with accounts in it.
+   public void indexExisting() {
+      for (String account : messageStore.accounts()) {
+         List<Item> messages = messageStore.messages(account);
+         if (messages == null) {
+            continue;
+         }
+         for (Item messageItem : messages) {
+            index(messageItem);
+         }
+      }
+   }
+
+   // A message is indexed before it is stored and unindexed after it is
+   // removed, so a concurrent erase never returns a message the index has
+   // not seen yet.
+   public void add(Item messageItem) {
+
+      index(messageItem);
+      try {
+         messageStore.add(messageItem);
+      }
+      catch (RuntimeException e) {
+         unindex(messageItem);
+         throw e;
+      }
+   }
+
+   public void addAll(String account, List<? extends Item> messages) {
+
+      int indexed = 0;
+
+      try {
+         for (Item messageItem : messages) {
+            index(messageItem);
+            indexed++;
+         }
+         messageStore.addAll(account, messages);
+      }
+      catch (RuntimeException e) {
+         for (int i = 0; i < indexed; i++) {
+            unindex(messages.get(i));
+         }
+         throw e;
+      }
+   }
+
+   public boolean contains(String account) {
+      return messageStore.contains(account);
+   }
+
+   public Collection<String> accounts() {
+      return messageStore.accounts();
+   }
+
+   public List<Item> messages(String account) {
+      return messageStore.messages(account);
+   }
+
+   public long totalCharges(String account) {
+      return messageStore.totalCharges(account);
+   }
+
+   public AccountSnapshot snapshot(String account) {
+      return messageStore.snapshot(account);
+   }
+
+   public Item eraseFirst(String account, MessageType type) {
+
+      Item removed = messageStore.eraseFirst(account, type);
+
+      if (removed != null) {
+         unindex(removed);
+      }
+      return removed;
+   }
+
+   public List<Item> eraseAll(String account, MessageType type) {
+
+      List<Item> removed = messageStore.eraseAll(account, type);
+
+      for (Item messageItem : removed) {
+         unindex(messageItem);
+      }
+      return removed;
+   }
+
+   public AccountSnapshot remove(String account) {
+
+      AccountSnapshot removed = messageStore.remove(account);
+
+      if (removed != null) {
+         for (Item messageItem : removed.getMessages()) {
+            unindex(messageItem);
+         }
+      }
+      return removed;
+   }
+
+   public AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = messageStore.removeAll(numbers);
+
+      for (AccountSnapshot account : removed) {
+         if (account != null) {
+            for (Item messageItem : account.getMessages()) {
+               unindex(messageItem);
+            }
+         }
+      }
+      return removed;
+   }
+
+   public int accountCount() {
+      return messageStore.accountCount();
+   }
+
+   public long messageCount() {
+      return messageStore.messageCount();
+   }
+
+   public boolean supportsParallelUpdates() {
+      return messageStore.supportsParallelUpdates();
+   }
+}
@@ -0,0 +1,177 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: IndexedQueries.java
+//Program Purpose: IndexedQueries.java is what a carrier started with
+//-indexed answers from its receiver, time and usage indexes: the messages
+//sent to a number, the messages and charges of a time range and the usage
+//of a message type. SmartCarrier answers them from its own indexes and
+//ShardedCarrier from every shard's. QueryMenu holds the menu choices that
+//ask for them, shared by both menus.
+//
+//Time ranges are half open: from is included and to is not.
+//----------------------------
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+//----------------------------
+interface IndexedQueries {
+
+   boolean isIndexed();
+
+   // The messages sent to the number, grouped by sender in account order.
+   List<Item> getInboundMessages(String number);
+
+   long getInboundCharges(String number);
+
+   List<Item> getMessages(String number, int from, int to)
+         throws InvalidAccountException;
+
+   long getTotalCharges(String number, int from, int to)
+         throws InvalidAccountException;
+
+   // Every message sent in [from, to), ordered by time.
+   List<Item> getTraffic(int from, int to);
+
+   long getTrafficCount(int from, int to);
+
+   long getTrafficCharges(int from, int to);
+
+   Usage getUsage(String number, MessageType type, String format);
+
+   SortedMap<String, Usage> getUsageByFormat(String number,
+         MessageType type);
+
+   Usage getTotalUsage(MessageType type, String format);
+
+   SortedMap<String, Usage> getTotalUsageByFormat(MessageType type);
+}
+
+class QueryMenu {
+
+   public static final int INBOUND = 5;
+   public static final int TIME_RANGE = 6;
+   public static final int USAGE = 7;
+
+   private QueryMenu() {
+   }
+
+   // The choices below follow the menu's Quit.
+   public static void print() {
+      System.out.printf(" %-28s%n %-27s%n %-24s%n",
+            "5. Messages sent to a number", "6. Messages in a time range",
+            "7. Usage by message type");
+   }
+
+   // Runs the choice if it is one of these and returns false if it is not.
+   public static boolean run(int choice, IndexedQueries carrier,
+         BufferedReader reader) throws IOException {
+
+      switch (choice) {
+      case INBOUND:
+         inbound(carrier, reader);
+         return true;
+      case TIME_RANGE:
+         timeRange(carrier, reader);
+         return true;
+      case USAGE:
+         usage(carrier, reader);
+         return true;
+      default:
+         return false;
+      }
+   }
+
+   private static void inbound(IndexedQueries carrier, BufferedReader reader)
+         throws IOException {
+
+      System.out.println("Enter the phone number the messages were sent to: ");
+      String number = reader.readLine().trim();
+
+      System.out.print(listing(carrier.getInboundMessages(number)));
+      System.out.println("Total charges sent to " + number + ": "
+            + Money.format(carrier.getInboundCharges(number)));
+   }
+
+   // Lists an account's messages in the range, or counts every account's
+   // if no number is entered, since those may be far too many to list.
+   private static void timeRange(IndexedQueries carrier,
+         BufferedReader reader) throws IOException {
+
+      System.out.println("Enter the phone number of the account, or nothing"
+            + " for every account: ");
+      String number = reader.readLine().trim();
+      System.out.println("Enter the first time and the time after the"
+            + " last: ");
+      String[] times = reader.readLine().trim().split("\\s+");
+
+      if (times.length != 2) {
+         System.out.println("Enter two times separated by a space");
+         return;
+      }
+
+      try {
+         int from = Integer.parseInt(times[0]);
+         int to = Integer.parseInt(times[1]);
+         if (number.isEmpty()) {
+            System.out.println(carrier.getTrafficCount(from, to)
+                  + " messages, charges "
+                  + Money.format(carrier.getTrafficCharges(from, to)));
+         }
+
+         else {
+            System.out.print(listing(carrier.getMessages(number, from, to)));
+            System.out.println("Total charges: " + Money.format(
+                  carrier.getTotalCharges(number, from, to)));
+         }
+      }
+      catch (NumberFormatException e) {
+         System.out.println("Times are whole numbers");
+      }
+      catch (InvalidAccountException e) {
+         System.out
+               .println("Account " + e.getPhoneNumber() + " does not exist!");
+      }
+   }
+
+   // The usage of the type in every format and in each one, of an account
+   // or of every account if no number is entered.
+   private static void usage(IndexedQueries carrier, BufferedReader reader)
+         throws IOException {
+
+      System.out.println("Enter the phone number of the account, or nothing"
+            + " for every account: ");
+      String number = reader.readLine().trim();
+      System.out.println("Enter the message type (TEXT, MEDIA or VOICE): ");
+      MessageType type = null;
+
+      try {
+         type = MessageType.valueOf(reader.readLine().trim().toUpperCase());
+      }
+      catch (IllegalArgumentException e) {
+         System.out.println("There is no such message type");
+         return;
+      }
+
+      Usage usage = number.isEmpty() ? carrier.getTotalUsage(type, null)
+            : carrier.getUsage(number, type, null);
+      SortedMap<String, Usage> byFormat = number.isEmpty()
+            ? carrier.getTotalUsageByFormat(type)
+            : carrier.getUsageByFormat(number, type);
+
+      System.out.println(type + ": " + usage.describe(type));
+      for (Map.Entry<String, Usage> format : byFormat.entrySet()) {
+         System.out.println("   " + format.getKey() + ": "
+               + format.getValue().describe(type));
+      }
+   }
+
+   private static String listing(List<Item> messages) {
+
+      StringBuilder builder = new StringBuilder();
+
+      for (Item messageItem : messages) {
+         ReportWriter.appendMessage(builder, messageItem);
+      }
+      return builder.toString();
+   }
+}
@@ -0,0 +1,58 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: IntQueue.java
+//Program Purpose: IntQueue.java is a first in, first out queue of ints in
+//one growable array, without boxing. Values are taken from the head and
+//added at the tail, and the live part is moved back to the start of the
+//array before it grows. The values still queued can be read and replaced
+//in place by index.
+//----------------------------
+import java.util.*;
+//----------------------------
+class IntQueue {
+
+   private int[] values = new int[2];
+   private int head;
+   private int tail;
+
+   public void add(int value) {
+      if (tail == values.length) {
+         if (head >= values.length / 2) {
+            System.arraycopy(values, head, values, 0, tail - head);
+            tail -= head;
+            head = 0;
+         }
+
+         else {
+            values = Arrays.copyOf(values, values.length * 2);
+         }
+      }
+      values[tail++] = value;
+   }
+
+   public int poll() {
+      return values[head++];
+   }
+
+   // The index-th value from the head.
+   public int get(int index) {
+      return values[head + index];
+   }
+
+   public void set(int index, int value) {
+      values[head + index] = value;
+   }
+
+   public boolean isEmpty() {
+      return head == tail;
+   }
+
+   public int size() {
+      return tail - head;
+   }
+
+   public void clear() {
+      head = 0;
+      tail = 0;
+   }
+}
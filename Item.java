@@ -17,16 +17,17 @@ public class Item {
    private int time;
    private String from;
    private String to;
-   private double charge;
+   // In Money units, cents by default.
+   private long charge;
 
    public Item() {
       time = 0;
       from = "-----------";
       to = "------------";
-      charge = 0.0;
+      charge = 0;
    }
 
-   public Item(int time, String from, String to, double charge) {
+   public Item(int time, String from, String to, long charge) {
       this.time = time;
       this.from = from;
       this.to = to;
@@ -51,7 +52,7 @@ public class Item {
       return to;
    }
 
-   public double getCharge() {
+   public long getCharge() {
       return charge;
    }
 
@@ -67,7 +68,7 @@ public class Item {
       this.to = receiver;
    }
 
-   public void setCharge(double charge) {
+   public void setCharge(long charge) {
       this.charge = charge;
    }
 }
@@ -81,7 +82,7 @@ class Message<T> extends Item {
       format = null;
    }
 
-   public Message(int time, String from, String to, double charge, T format) {
+   public Message(int time, String from, String to, long charge, T format) {
       super(time, from, to, charge);
       this.format = format;
    }
@@ -106,6 +107,10 @@ class Message<T> extends Item {
 class Text {
 
    private String content;
+   // Set for a lazy Text, whose content is still in the input file.
+   private TextSource source;
+   private long offset;
+   private int length;
 
    public Text() {
       content = "";
@@ -115,16 +120,34 @@ class Text {
       content = text;
    }
 
+   public Text(TextSource source, long offset, int length) {
+      this.source = source;
+      this.offset = offset;
+      this.length = length;
+   }
+
    public String toString() {
-      return String.format("%-48s", "\tTEXT: " + content);
+      return String.format("%-48s", "\tTEXT: " + getContent());
    }
 
+   // A lazy Text decodes its content from the input file here. Two threads
+   // may both decode it, but they get equal Strings.
    public String getContent() {
-      return content;
+
+      String decoded = content;
+
+      if (decoded == null && source != null) {
+         decoded = source.decode(offset, length);
+         if (source.isCaching()) {
+            content = decoded;
+         }
+      }
+      return decoded;
    }
 
    public void setContent(String content) {
       this.content = content;
+      source = null;
    }
 }
 
@@ -201,3 +224,29 @@ class Voice {
       this.format = format;
    }
 }
+
+enum MessageType {
+
+   TEXT, MEDIA, VOICE;
+
+   // Returns the type of the message payload, or null if the item is not a
+   // message with a Text, Media or Voice payload.
+   public static MessageType of(Item messageItem) {
+
+      if (messageItem instanceof Message<?>) {
+         Object format = ((Message<?>) messageItem).getFormat();
+         if (format instanceof Text) {
+            return TEXT;
+         }
+
+         else if (format instanceof Media) {
+            return MEDIA;
+         }
+
+         else if (format instanceof Voice) {
+            return VOICE;
+         }
+      }
+      return null;
+   }
+}
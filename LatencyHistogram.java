@@ -0,0 +1,125 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: LatencyHistogram.java
+//Program Purpose: LatencyHistogram.java records durations in nanoseconds
+//the way an HDR histogram does: values below 2^SUB_BITS get a bucket of
+//their own, and above that every power of two is split into 2^(SUB_BITS-1)
+//equal buckets, so any recorded value is known to within 1/64 of itself
+//from a few thousand counters. Recording is one atomic increment and
+//never blocks, so parser and sweep threads can share one histogram.
+//Percentiles report the highest value of the bucket they fall in.
+//----------------------------
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+//----------------------------
+class LatencyHistogram {
+
+   private static final int SUB_BITS = 7;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int HALF_COUNT = SUB_COUNT / 2;
+   private static final int MAX_SHIFT = 63 - SUB_BITS;
+   private static final int BUCKETS = (MAX_SHIFT + 2) * HALF_COUNT;
+
+   private AtomicLongArray counts;
+   private LongAdder count;
+   private LongAdder sum;
+   private AtomicLong max;
+
+   public LatencyHistogram() {
+      counts = new AtomicLongArray(BUCKETS);
+      count = new LongAdder();
+      sum = new LongAdder();
+      max = new AtomicLong();
+   }
+
+   public void record(long nanos) {
+
+      long value = Math.max(0, nanos);
+      long seen = max.get();
+
+      counts.incrementAndGet(bucket(value));
+      count.increment();
+      sum.add(value);
+      while (value > seen && !max.compareAndSet(seen, value)) {
+         seen = max.get();
+      }
+   }
+
+   public long getCount() {
+      return count.sum();
+   }
+
+   public long getSum() {
+      return sum.sum();
+   }
+
+   public long getMax() {
+      return max.get();
+   }
+
+   public double getMean() {
+      long recorded = count.sum();
+      return recorded == 0 ? 0 : (double) sum.sum() / recorded;
+   }
+
+   // The smallest bucket value that at least percent of the recorded values
+   // are at or below, or 0 if nothing has been recorded. Values recorded
+   // while this runs may or may not be counted.
+   public long percentile(double percent) {
+
+      long[] snapshot = new long[BUCKETS];
+      long total = 0;
+
+      for (int i = 0; i < BUCKETS; i++) {
+         snapshot[i] = counts.get(i);
+         total += snapshot[i];
+      }
+      if (total == 0) {
+         return 0;
+      }
+
+      long rank = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+      long seen = 0;
+
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += snapshot[i];
+         if (seen >= rank) {
+            return Math.min(highest(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   public void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+         counts.set(i, 0);
+      }
+      count.reset();
+      sum.reset();
+      max.set(0);
+   }
+
+   // Values below SUB_COUNT map to themselves. Larger values keep their top
+   // SUB_BITS bits: shift is how far they were shifted right to get there.
+   private static int bucket(long value) {
+
+      if (value < SUB_COUNT) {
+         return (int) value;
+      }
+
+      int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+      return shift * HALF_COUNT + (int) (value >>> shift);
+   }
+
+   private static long highest(int bucket) {
+
+      if (bucket < SUB_COUNT) {
+         return bucket;
+      }
+
+      int shift = bucket / HALF_COUNT - 1;
+      long top = bucket - (long) shift * HALF_COUNT;
+      return ((top + 1) << shift) - 1;
+   }
+}
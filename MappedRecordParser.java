@@ -0,0 +1,462 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: MappedRecordParser.java
+//Program Purpose: MappedRecordParser.java parses the T/M/V message format
+//straight out of a memory mapped input file. Numbers are read from the
+//ASCII bytes in place and strings are only created for the fields that a
+//message keeps (sender, receiver, text content and format), so loading a
+//large file creates far less garbage than splitting every line. Numbers
+//and formats are looked up in a SymbolTable straight from the bytes, so a
+//value that was seen before does not create a String at all. Given a
+//TextSource, text contents are not decoded at all: each Text only records
+//where its content is in the file. Given a DeadLetterFile, lines that do
+//not parse are written to it instead of failing the load; without one the
+//first such line fails it with a RecordFormatException.
+//----------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+//----------------------------
+class MappedRecordParser {
+
+   private static final long MAP_WINDOW_SIZE = 1L << 28;
+   private static final int MAX_FIELDS = 8;
+   private static final byte NEW_LINE = '\n';
+   private static final byte CARRIAGE_RETURN = '\r';
+   private static final byte SEPARATOR = ',';
+   private static final long NOT_IN_FILE = -1;
+
+   // Powers of ten that are exact as doubles, see parseDouble().
+   private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+         1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+         1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+   private static final int MAX_EXACT_DIGITS = 15;
+
+   private ByteBuffer buffer;
+   private long bufferPosition;
+   private TextSource textSource;
+   private DeadLetterFile deadLetters;
+   // Collects the messages when there is no target store, and the buffer
+   // index where the line of each starts if lineStarts is not null.
+   private List<Item> batch;
+   private List<Integer> lineStarts;
+   private int[] fieldStart;
+   private int[] fieldEnd;
+   private byte[] scratch;
+   private SymbolTable.Lookup numbers;
+   private SymbolTable.Lookup formats;
+
+   public MappedRecordParser() {
+      this(new SymbolTable("numbers"), new SymbolTable("formats"));
+   }
+
+   public MappedRecordParser(SymbolTable numbers, SymbolTable formats) {
+      fieldStart = new int[MAX_FIELDS];
+      fieldEnd = new int[MAX_FIELDS];
+      scratch = new byte[256];
+      this.numbers = numbers.newLookup();
+      this.formats = formats.newLookup();
+   }
+
+   // Makes text messages lazy Texts that point into the source, which must
+   // map the same file this parser reads. Null decodes them right away.
+   public void setTextSource(TextSource textSource) {
+      this.textSource = textSource;
+   }
+
+   // Sends lines that do not parse to the file instead of throwing. Null
+   // throws a RecordFormatException.
+   public void setDeadLetters(DeadLetterFile deadLetters) {
+      this.deadLetters = deadLetters;
+   }
+
+   // Loads the whole file and returns how many bytes were parsed.
+   public long load(Path inputFilePath, MessageStore target)
+         throws IOException {
+
+      try (FileChannel channel = FileChannel.open(inputFilePath,
+            StandardOpenOption.READ)) {
+         long size = channel.size();
+         parse(channel, 0, size, target);
+         return size;
+      }
+   }
+
+   // Parses every line in [start, end) of the channel. start must be the
+   // beginning of a line. The range is mapped in windows that end on a line
+   // boundary so that files larger than one mapping can be read.
+   public void parse(FileChannel channel, long start, long end,
+         MessageStore target) throws IOException {
+
+      long position = start;
+
+      while (position < end) {
+         long length = Math.min(MAP_WINDOW_SIZE, end - position);
+         MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+               position, length);
+         int limit = (int) length;
+
+         if (position + length < end) {
+            limit = lastLineEnd(window, limit);
+            if (limit == 0) {
+               throw new IOException("Line at offset " + position
+                     + " is longer than " + MAP_WINDOW_SIZE + " bytes");
+            }
+         }
+         parse(window, position, 0, limit, target);
+         position += limit;
+      }
+   }
+
+   // Parses every line in [from, to) of the buffer into the target store.
+   public void parse(ByteBuffer buffer, int from, int to,
+         MessageStore target) throws RecordFormatException {
+      parse(buffer, NOT_IN_FILE, from, to, target);
+   }
+
+   // Parses every line in [from, to) of the buffer and appends the
+   // messages to the batch in line order.
+   public void parse(ByteBuffer buffer, int from, int to, List<Item> batch)
+         throws RecordFormatException {
+      parse(buffer, NOT_IN_FILE, from, to, batch);
+   }
+
+   // The same for a buffer mapped from the input file at bufferPosition, so
+   // that texts can point into the TextSource.
+   public void parse(ByteBuffer buffer, long bufferPosition, int from,
+         int to, List<Item> batch) throws RecordFormatException {
+      parse(buffer, bufferPosition, from, to, batch, null);
+   }
+
+   // The same, also appending to lineStarts the buffer index where the line
+   // of each message starts.
+   public void parse(ByteBuffer buffer, long bufferPosition, int from,
+         int to, List<Item> batch, List<Integer> lineStarts)
+         throws RecordFormatException {
+      this.batch = batch;
+      this.lineStarts = lineStarts;
+      try {
+         parse(buffer, bufferPosition, from, to, (MessageStore) null);
+      }
+      finally {
+         this.batch = null;
+         this.lineStarts = null;
+      }
+   }
+
+   // bufferPosition is the file offset the buffer was mapped from, or
+   // NOT_IN_FILE.
+   private void parse(ByteBuffer buffer, long bufferPosition, int from,
+         int to, MessageStore target) throws RecordFormatException {
+
+      this.buffer = buffer;
+      this.bufferPosition = bufferPosition;
+      int lineStart = from;
+      long lines = 0;
+
+      try {
+         for (int i = from; i < to; i++) {
+            if (buffer.get(i) == NEW_LINE) {
+               parseLine(lineStart, i, target);
+               lineStart = i + 1;
+               lines++;
+            }
+         }
+         if (lineStart < to) {
+            parseLine(lineStart, to, target);
+            lines++;
+         }
+      }
+      finally {
+         this.buffer = null;
+         Metrics.linesParsed(lines);
+      }
+   }
+
+   private static int lastLineEnd(ByteBuffer window, int limit) {
+      for (int i = limit - 1; i >= 0; i--) {
+         if (window.get(i) == NEW_LINE) {
+            return i + 1;
+         }
+      }
+      return 0;
+   }
+
+   // A null target appends the message to the batch.
+   private void parseLine(int start, int end, MessageStore target)
+         throws RecordFormatException {
+
+      if (end > start && buffer.get(end - 1) == CARRIAGE_RETURN) {
+         end--;
+      }
+      int fields = splitFields(start, end);
+      if (fieldEnd[0] - fieldStart[0] != 1) {
+         return;
+      }
+
+      Item messageItem = null;
+      byte type = buffer.get(fieldStart[0]);
+
+      try {
+         messageItem = parseMessage(type, fields);
+      }
+      catch (RuntimeException e) {
+         Metrics.parseFailed((char) type);
+         if (deadLetters == null) {
+            throw new RecordFormatException(describe(start, end,
+                  e.getMessage()), e);
+         }
+         deadLetters.add(buffer, start, end);
+      }
+
+      if (messageItem == null) {
+         return;
+      }
+      if (target == null) {
+         batch.add(messageItem);
+         if (lineStarts != null) {
+            lineStarts.add(start);
+         }
+      }
+
+      else {
+         target.add(messageItem);
+      }
+   }
+
+   // Returns the message of a line of the given record type, or null if the
+   // type is not a message type.
+   private Item parseMessage(byte type, int fields) {
+
+      Item messageItem = null;
+
+      switch (type) {
+      case 'T':
+      case 't': {
+         requireFields(fields, 6);
+         Text text = text(4);
+         messageItem = new Message<Text>(parseInt(1), symbol(numbers, 2),
+               symbol(numbers, 3), parseCharge(5), text);
+         break;
+      }
+      case 'M':
+      case 'm': {
+         requireFields(fields, 7);
+         Media media = new Media(parseDouble(4), symbol(formats, 5));
+         messageItem = new Message<Media>(parseInt(1), symbol(numbers, 2),
+               symbol(numbers, 3), parseCharge(6), media);
+         break;
+      }
+      case 'V':
+      case 'v': {
+         requireFields(fields, 7);
+         Voice voice = new Voice(parseInt(4), symbol(formats, 5));
+         messageItem = new Message<Voice>(parseInt(1), symbol(numbers, 2),
+               symbol(numbers, 3), parseCharge(6), voice);
+         break;
+      }
+      }
+      return messageItem;
+   }
+
+   // Records where the first MAX_FIELDS comma separated fields of the line
+   // start and end, and returns how many fields the line has.
+   private int splitFields(int start, int end) {
+
+      int fields = 0;
+      int fieldBegin = start;
+
+      for (int i = start; i < end && fields < MAX_FIELDS - 1; i++) {
+         if (buffer.get(i) == SEPARATOR) {
+            fieldStart[fields] = fieldBegin;
+            fieldEnd[fields] = i;
+            fields++;
+            fieldBegin = i + 1;
+         }
+      }
+      fieldStart[fields] = fieldBegin;
+      fieldEnd[fields] = end;
+      return fields + 1;
+   }
+
+   private void requireFields(int fields, int required) {
+      if (fields < required) {
+         throw new IllegalArgumentException("Expected " + required
+               + " fields but found " + fields);
+      }
+   }
+
+   // Where the line is, what is wrong with it and the line itself.
+   private String describe(int start, int end, String reason) {
+
+      String where = bufferPosition == NOT_IN_FILE ? "Line"
+            : "Line at offset " + (bufferPosition + start);
+
+      return where + ": " + reason + ": " + decode(start, end - start);
+   }
+
+   private String symbol(SymbolTable.Lookup symbols, int field) {
+      return symbols.intern(buffer, fieldStart[field],
+            fieldEnd[field] - fieldStart[field]);
+   }
+
+   private Text text(int field) {
+
+      int length = fieldEnd[field] - fieldStart[field];
+
+      if (textSource != null && bufferPosition != NOT_IN_FILE
+            && textSource.covers(bufferPosition + fieldStart[field], length)) {
+         return new Text(textSource, bufferPosition + fieldStart[field],
+               length);
+      }
+      return new Text(string(field));
+   }
+
+   private String string(int field) {
+      return decode(fieldStart[field], fieldEnd[field] - fieldStart[field]);
+   }
+
+   private String decode(int offset, int length) {
+      if (scratch.length < length) {
+         scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      buffer.get(offset, scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.US_ASCII);
+   }
+
+   private int parseInt(int field) {
+
+      int start = fieldStart[field];
+      int end = fieldEnd[field];
+      boolean negative = false;
+      long value = 0;
+
+      if (start < end && (buffer.get(start) == '-' || buffer.get(start) == '+')) {
+         negative = buffer.get(start) == '-';
+         start++;
+      }
+      if (start == end || end - start > 10) {
+         return Integer.parseInt(string(field));
+      }
+      for (int i = start; i < end; i++) {
+         int digit = buffer.get(i) - '0';
+         if (digit < 0 || digit > 9) {
+            return Integer.parseInt(string(field));
+         }
+         value = value * 10 + digit;
+      }
+      value = negative ? -value : value;
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+         return Integer.parseInt(string(field));
+      }
+      return (int) value;
+   }
+
+   // Reads a charge in Money units straight from the bytes, the same way
+   // Money.parse reads it from characters. Anything but a plain decimal
+   // falls back to Money.parse.
+   private long parseCharge(int field) {
+
+      int start = fieldStart[field];
+      int end = fieldEnd[field];
+      boolean negative = false;
+      boolean seenPoint = false;
+      boolean roundUp = false;
+      long units = 0;
+      int digits = 0;
+      int fraction = 0;
+
+      if (start < end && (buffer.get(start) == '-' || buffer.get(start) == '+')) {
+         negative = buffer.get(start) == '-';
+         start++;
+      }
+      for (int i = start; i < end; i++) {
+         byte b = buffer.get(i);
+         if (b == '.' && !seenPoint) {
+            seenPoint = true;
+         }
+
+         else if (b >= '0' && b <= '9' && digits < MAX_EXACT_DIGITS) {
+            if (!seenPoint || fraction < Money.SCALE) {
+               units = units * 10 + (b - '0');
+               digits++;
+               fraction += seenPoint ? 1 : 0;
+            }
+
+            else if (fraction == Money.SCALE) {
+               roundUp = b >= '5';
+               fraction++;
+            }
+         }
+
+         else {
+            return Money.parse(string(field));
+         }
+      }
+      if (digits == 0) {
+         return Money.parse(string(field));
+      }
+      return Money.finish(units, Math.min(fraction, Money.SCALE), roundUp,
+            negative);
+   }
+
+   // Plain decimals with at most MAX_EXACT_DIGITS digits are computed as an
+   // exact integer divided by an exact power of ten. A single IEEE division
+   // of two exact values is correctly rounded, so this gives the same double
+   // as Double.parseDouble. Anything else falls back to Double.parseDouble.
+   private double parseDouble(int field) {
+
+      int start = fieldStart[field];
+      int end = fieldEnd[field];
+      boolean negative = false;
+      boolean seenPoint = false;
+      long mantissa = 0;
+      int digits = 0;
+      int scale = 0;
+
+      if (start < end && (buffer.get(start) == '-' || buffer.get(start) == '+')) {
+         negative = buffer.get(start) == '-';
+         start++;
+      }
+      for (int i = start; i < end; i++) {
+         byte b = buffer.get(i);
+         if (b == '.' && !seenPoint) {
+            seenPoint = true;
+         }
+
+         else if (b >= '0' && b <= '9' && digits < MAX_EXACT_DIGITS) {
+            mantissa = mantissa * 10 + (b - '0');
+            digits++;
+            if (seenPoint) {
+               scale++;
+            }
+         }
+
+         else {
+            return Double.parseDouble(string(field));
+         }
+      }
+      if (digits == 0) {
+         return Double.parseDouble(string(field));
+      }
+
+      double value = mantissa / POWERS_OF_TEN[scale];
+      return negative ? -value : value;
+   }
+}
+
+// A line of the T/M/V format that does not parse, such as a record with
+// missing fields or a charge that is not a number.
+class RecordFormatException extends IOException {
+
+   private static final long serialVersionUID = 1L;
+
+   public RecordFormatException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
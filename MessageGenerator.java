@@ -0,0 +1,159 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: MessageGenerator.java
+//Program Purpose: MessageGenerator.java writes synthetic input files in the
+//same T/M/V record format as src/messages.txt, so loading, erasing and
+//listing can be measured on data of any size. The number of messages, the
+//number of sending accounts and the mix of text, media and voice messages
+//are chosen by the caller, and the same seed always writes the same file,
+//so different stores and parsers can be compared on identical data.
+//----------------------------
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+//----------------------------
+class MessageGenerator {
+
+   private static final String[] TEXTS = {
+         "Are you going to the movie tonight?",
+         "Mom said you go home by 11pm", "Happy birhday!!!",
+         "Call me when you get this", "Running late so start without me",
+         "See you at the game", "Did you finish the homework?",
+         "Meet at the usual place" };
+   private static final String[] MEDIA_FORMATS = { "GIF", "JPG", "PNG",
+         "JPEG" };
+   private static final String[] VOICE_FORMATS = { "MOV", "MP4", "MPE" };
+
+   private int accounts;
+   private int textWeight;
+   private int mediaWeight;
+   private int voiceWeight;
+   private long seed;
+
+   // mix is the relative weight of text, media and voice messages, such as
+   // "50:25:25".
+   public MessageGenerator(int accounts, String mix, long seed) {
+
+      String[] weights = mix.split(":");
+
+      if (accounts < 1 || weights.length != 3) {
+         throw new IllegalArgumentException("accounts must be positive and"
+               + " the mix must look like T:M:V, not " + mix);
+      }
+      this.accounts = accounts;
+      this.seed = seed;
+      textWeight = Integer.parseInt(weights[0].trim());
+      mediaWeight = Integer.parseInt(weights[1].trim());
+      voiceWeight = Integer.parseInt(weights[2].trim());
+      if (textWeight < 0 || mediaWeight < 0 || voiceWeight < 0
+            || textWeight + mediaWeight + voiceWeight == 0) {
+         throw new IllegalArgumentException("Bad message mix " + mix);
+      }
+   }
+
+   public static void main(String[] args) {
+
+      if (args.length < 3) {
+         System.out.println("Usage: java MessageGenerator <messages.txt>"
+               + " <messages> <accounts> [T:M:V mix] [seed]");
+         return;
+      }
+
+      String mix = args.length > 3 ? args[3] : "50:25:25";
+      long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+      try {
+         MessageGenerator generator = new MessageGenerator(
+               Integer.parseInt(args[2]), mix, seed);
+         generator.write(Paths.get(args[0]), Long.parseLong(args[1]));
+         System.out.println("Wrote " + args[1] + " messages from " + args[2]
+               + " accounts to " + args[0]);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // Writes count messages, sent at random from the accounts to random
+   // receivers.
+   public void write(Path outputPath, long count) throws IOException {
+
+      Random random = new Random(seed);
+      String[] senders = numbers(accounts, random);
+      String[] receivers = numbers(Math.max(accounts, 1000), random);
+      int total = textWeight + mediaWeight + voiceWeight;
+
+      try (BufferedWriter writer = Files.newBufferedWriter(outputPath,
+            StandardCharsets.US_ASCII)) {
+
+         StringBuilder line = new StringBuilder(128);
+
+         for (long i = 0; i < count; i++) {
+            int pick = random.nextInt(total);
+            String from = senders[random.nextInt(senders.length)];
+            String to = receivers[random.nextInt(receivers.length)];
+            int time = 100000000 + random.nextInt(100000000);
+
+            line.setLength(0);
+            if (pick < textWeight) {
+               line.append("T,").append(time).append(',').append(from)
+                     .append(',').append(to).append(',')
+                     .append(pick(TEXTS, random))
+                     .append(",0.25");
+            }
+
+            else if (pick < textWeight + mediaWeight) {
+               line.append("M,").append(time).append(',').append(from)
+                     .append(',').append(to).append(',');
+               appendCents(line, 1 + random.nextInt(1000));
+               line.append(',').append(pick(MEDIA_FORMATS, random))
+                     .append(',');
+               appendCents(line, random.nextInt(1000));
+            }
+
+            else {
+               line.append("V,").append(time).append(',').append(from)
+                     .append(',').append(to).append(',')
+                     .append(1 + random.nextInt(900)).append(',')
+                     .append(pick(VOICE_FORMATS, random)).append(',');
+               appendCents(line, random.nextInt(1000));
+            }
+            line.append('\n');
+            writer.append(line);
+         }
+      }
+   }
+
+   // Makes count distinct phone numbers like 1-408-111-0222.
+   private static String[] numbers(int count, Random random) {
+
+      HashSet<String> unique = new HashSet<String>();
+      String[] numbers = new String[count];
+
+      while (unique.size() < count) {
+         String number = String.format("1-%03d-%03d-%04d",
+               200 + random.nextInt(800), 100 + random.nextInt(900),
+               random.nextInt(10000));
+         if (unique.add(number)) {
+            numbers[unique.size() - 1] = number;
+         }
+      }
+      return numbers;
+   }
+
+   private static String pick(String[] values, Random random) {
+      return values[random.nextInt(values.length)];
+   }
+
+   private static void appendCents(StringBuilder line, int cents) {
+      line.append(cents / 100).append('.');
+      if (cents % 100 < 10) {
+         line.append('0');
+      }
+      line.append(cents % 100);
+   }
+}
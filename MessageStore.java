@@ -0,0 +1,215 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: MessageStore.java
+//Program Purpose: MessageStore.java is the storage behind SmartCarrier.
+//A store keeps every account, identified by the sender's number, with its
+//messages in the order they were added. TreeMapMessageStore keeps the
+//original TreeMap of Items per account, other stores trade that layout
+//for a smaller or faster one but must answer every call the same way.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+//----------------------------
+interface MessageStore {
+
+   // Appends the message to the account of its sender.
+   void add(Item messageItem);
+
+   // Appends the messages, all sent from account, in list order.
+   void addAll(String account, List<? extends Item> messages);
+
+   boolean contains(String account);
+
+   // The account numbers in ascending order.
+   Collection<String> accounts();
+
+   // The messages of the account in insertion order, or null if the
+   // account does not exist. The list must not be modified.
+   List<Item> messages(String account);
+
+   // The sum of the charges of the account's messages in Money units, kept
+   // up to date as messages are added and removed, or 0 if the account does
+   // not exist.
+   long totalCharges(String account);
+
+   // The messages and total charges of the account as of one moment, or
+   // null if the account does not exist.
+   AccountSnapshot snapshot(String account);
+
+   // Removes the first message of the type from the account and returns
+   // it, or returns null if the account has none.
+   Item eraseFirst(String account, MessageType type);
+
+   // Removes every message of the type from the account and returns them in
+   // insertion order. The list is empty if the account has none.
+   List<Item> eraseAll(String account, MessageType type);
+
+   // Removes the account and returns its last messages and total, or null
+   // if the account does not exist.
+   AccountSnapshot remove(String account);
+
+   // Removes every account in numbers, which must be sorted ascending
+   // without duplicates, and returns what remove() returns for each, in the
+   // same order.
+   AccountSnapshot[] removeAll(String[] numbers);
+
+   int accountCount();
+
+   long messageCount();
+
+   // True if eraseFirst, eraseAll, messages and totalCharges may be called
+   // for different accounts from different threads at the same time.
+   boolean supportsParallelUpdates();
+}
+
+class TreeMapMessageStore implements MessageStore {
+
+   private TreeMap<String, Account> messageMap;
+   private AtomicLong messageCount;
+
+   public TreeMapMessageStore() {
+      messageMap = new TreeMap<String, Account>();
+      messageCount = new AtomicLong();
+   }
+
+   public void add(Item messageItem) {
+      account(messageItem.getFrom()).add(messageItem);
+      messageCount.incrementAndGet();
+   }
+
+   public void addAll(String account, List<? extends Item> messages) {
+      account(account).addAll(messages);
+      messageCount.addAndGet(messages.size());
+   }
+
+   public boolean contains(String account) {
+      return messageMap.containsKey(account);
+   }
+
+   public Collection<String> accounts() {
+      return Collections.unmodifiableSet(messageMap.keySet());
+   }
+
+   public List<Item> messages(String account) {
+      Account entry = messageMap.get(account);
+      return entry == null ? null : entry.getMessages();
+   }
+
+   public long totalCharges(String account) {
+      Account entry = messageMap.get(account);
+      return entry == null ? 0 : entry.getTotalCharges();
+   }
+
+   public AccountSnapshot snapshot(String account) {
+      Account entry = messageMap.get(account);
+      return entry == null ? null : entry.snapshot(account);
+   }
+
+   public Item eraseFirst(String account, MessageType type) {
+
+      Account entry = messageMap.get(account);
+      Item removed = entry == null ? null : entry.removeFirst(type);
+
+      if (removed != null) {
+         messageCount.decrementAndGet();
+      }
+      return removed;
+   }
+
+   public List<Item> eraseAll(String account, MessageType type) {
+
+      Account entry = messageMap.get(account);
+
+      if (entry == null) {
+         return Collections.emptyList();
+      }
+
+      List<Item> removed = entry.removeAll(type);
+      messageCount.addAndGet(-removed.size());
+      return removed;
+   }
+
+   public AccountSnapshot remove(String account) {
+
+      Account entry = messageMap.remove(account);
+
+      if (entry == null) {
+         return null;
+      }
+      messageCount.addAndGet(-entry.size());
+      return new AccountSnapshot(account, entry.getMessages(),
+            entry.getTotalCharges());
+   }
+
+   // A large batch is removed in one walk over the part of the map it
+   // spans, merging the sorted numbers with the sorted keys. A small one
+   // looks each number up.
+   public AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+
+      if (numbers.length == 0) {
+         return removed;
+      }
+      if ((long) numbers.length * 32 < messageMap.size()) {
+         for (int i = 0; i < numbers.length; i++) {
+            removed[i] = remove(numbers[i]);
+         }
+         return removed;
+      }
+
+      Iterator<Map.Entry<String, Account>> entries = messageMap.subMap(
+            numbers[0], true, numbers[numbers.length - 1], true).entrySet()
+            .iterator();
+      Map.Entry<String, Account> entry = entries.hasNext() ? entries.next()
+            : null;
+
+      for (int i = 0; i < numbers.length && entry != null; i++) {
+         int order = entry.getKey().compareTo(numbers[i]);
+         while (order < 0 && entries.hasNext()) {
+            entry = entries.next();
+            order = entry.getKey().compareTo(numbers[i]);
+         }
+         if (order != 0) {
+            if (order < 0) {
+               entry = null;
+            }
+            continue;
+         }
+
+         Account account = entry.getValue();
+         entries.remove();
+         messageCount.addAndGet(-account.size());
+         removed[i] = new AccountSnapshot(numbers[i], account.getMessages(),
+               account.getTotalCharges());
+         entry = entries.hasNext() ? entries.next() : null;
+      }
+      return removed;
+   }
+
+   public int accountCount() {
+      return messageMap.size();
+   }
+
+   public long messageCount() {
+      return messageCount.get();
+   }
+
+   // Every update below the map touches only its own Account, so different
+   // accounts can be updated at once as long as no account is added or
+   // removed meanwhile.
+   public boolean supportsParallelUpdates() {
+      return true;
+   }
+
+   private Account account(String key) {
+
+      Account entry = messageMap.get(key);
+
+      if (entry == null) {
+         entry = new Account();
+         messageMap.put(key, entry);
+      }
+      return entry;
+   }
+}
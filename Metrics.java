@@ -0,0 +1,431 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: Metrics.java
+//Program Purpose: Metrics.java counts and times what the carrier does:
+//lines parsed, parse failures by record type, the latency of every
+//operation, the accounts and messages resident and the heap they take,
+//the throughput of every stage of a RecordPipeline and the hits, misses,
+//evictions and write-backs of the account cache of a DiskMessageStore.
+//It is turned on with -Dcarrier.metrics=true. ENABLED is a constant, so
+//when metrics are off every check of it is compiled away and the calls
+//cost nothing. When on, counters are LongAdders and latencies go into
+//lock-free LatencyHistograms, so threads never wait on each other to
+//record. The numbers are published over JMX and, every
+//carrier.metrics.interval seconds (60 by default, 0 for never), written
+//to System.err.
+//----------------------------
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+//----------------------------
+final class Metrics {
+
+   public static final boolean ENABLED = Boolean.getBoolean(
+         "carrier.metrics");
+   public static final String OBJECT_NAME = "cellcarrier:type=Metrics";
+
+   private static final long DUMP_INTERVAL = Long.getLong(
+         "carrier.metrics.interval", 60);
+   private static final String RECORD_TYPES = "TMV";
+   private static final String NEW_LINE = System.lineSeparator();
+
+   // The operations that are timed.
+   enum Operation {
+      LOAD, LIST_ALL_ACCOUNTS, ERASE_FIRST, ERASE_ALL, DISCONNECT,
+      DISCONNECT_ALL, SNAPSHOT_SAVE, SNAPSHOT_RESTORE, SERVER_COMMAND
+   }
+
+   private static LongAdder linesParsed;
+   // One per letter of RECORD_TYPES and a last one for any other type.
+   private static LongAdder[] parseFailures;
+   private static LatencyHistogram[] latencies;
+   private static CopyOnWriteArrayList<WeakReference<MessageStore>> stores;
+   private static CopyOnWriteArrayList<WeakReference<DiskMessageStore>>
+         caches;
+   // Items, bytes and busy nanoseconds of each pipeline stage, by name.
+   private static ConcurrentSkipListMap<String, LongAdder[]> stages;
+
+   static {
+      linesParsed = new LongAdder();
+      parseFailures = new LongAdder[RECORD_TYPES.length() + 1];
+      for (int i = 0; i < parseFailures.length; i++) {
+         parseFailures[i] = new LongAdder();
+      }
+      latencies = new LatencyHistogram[Operation.values().length];
+      for (int i = 0; i < latencies.length; i++) {
+         latencies[i] = new LatencyHistogram();
+      }
+      stores = new CopyOnWriteArrayList<WeakReference<MessageStore>>();
+      caches = new CopyOnWriteArrayList<WeakReference<DiskMessageStore>>();
+      stages = new ConcurrentSkipListMap<String, LongAdder[]>();
+      if (ENABLED) {
+         publish();
+      }
+   }
+
+   private Metrics() {
+   }
+
+   // Returns the start time to pass to stop(), or 0 when metrics are off.
+   public static long start() {
+      return ENABLED ? System.nanoTime() : 0;
+   }
+
+   public static void stop(Operation operation, long start) {
+      if (ENABLED) {
+         latencies[operation.ordinal()].record(System.nanoTime() - start);
+      }
+   }
+
+   public static void linesParsed(long lines) {
+      if (ENABLED) {
+         linesParsed.add(lines);
+      }
+   }
+
+   // Counts a line of the given record type letter that failed to parse.
+   public static void parseFailed(char recordType) {
+      if (ENABLED) {
+         int index = RECORD_TYPES.indexOf(Character.toUpperCase(recordType));
+         parseFailures[index < 0 ? RECORD_TYPES.length() : index]
+               .increment();
+      }
+   }
+
+   // Counts work a pipeline stage has done: items such as lines or
+   // messages, their size in bytes and the time spent on them.
+   public static void stageProgress(String stage, long items, long bytes,
+         long busyNanos) {
+      if (ENABLED) {
+         LongAdder[] counters = stages.get(stage);
+         if (counters == null) {
+            LongAdder[] created = { new LongAdder(), new LongAdder(),
+                  new LongAdder() };
+            counters = stages.putIfAbsent(stage, created);
+            if (counters == null) {
+               counters = created;
+            }
+         }
+         counters[0].add(items);
+         counters[1].add(bytes);
+         counters[2].add(busyNanos);
+      }
+   }
+
+   // Counts the accounts and messages of the store in the resident totals
+   // for as long as the store is in use.
+   public static void register(MessageStore store) {
+      if (ENABLED) {
+         stores.add(new WeakReference<MessageStore>(store));
+      }
+   }
+
+   // Counts the account cache of the store in the cache totals for as long
+   // as the store is in use.
+   public static void registerCache(DiskMessageStore store) {
+      if (ENABLED) {
+         caches.add(new WeakReference<DiskMessageStore>(store));
+      }
+   }
+
+   public static long getLinesParsed() {
+      return linesParsed.sum();
+   }
+
+   public static double getLinesPerSecond() {
+      long loading = latencies[Operation.LOAD.ordinal()].getSum();
+      return loading == 0 ? 0 : linesParsed.sum() * 1e9 / loading;
+   }
+
+   public static Map<String, Long> getParseFailures() {
+
+      TreeMap<String, Long> failures = new TreeMap<String, Long>();
+
+      for (int i = 0; i < parseFailures.length; i++) {
+         String type = i < RECORD_TYPES.length()
+               ? RECORD_TYPES.substring(i, i + 1) : "other";
+         failures.put(type, parseFailures[i].sum());
+      }
+      return failures;
+   }
+
+   // Items each pipeline stage handles per second of its own time, by
+   // stage name.
+   public static Map<String, Double> getStageThroughput() {
+
+      TreeMap<String, Double> throughput = new TreeMap<String, Double>();
+
+      for (Map.Entry<String, LongAdder[]> entry : stages.entrySet()) {
+         long busy = entry.getValue()[2].sum();
+         throughput.put(entry.getKey(), busy == 0 ? 0
+               : entry.getValue()[0].sum() * 1e9 / busy);
+      }
+      return throughput;
+   }
+
+   public static long getAccounts() {
+
+      long accounts = 0;
+
+      for (MessageStore store : live(stores)) {
+         accounts += store.accountCount();
+      }
+      return accounts;
+   }
+
+   public static long getMessages() {
+
+      long messages = 0;
+
+      for (MessageStore store : live(stores)) {
+         messages += store.messageCount();
+      }
+      return messages;
+   }
+
+   // Account cache lookups that found the account cached, over every
+   // DiskMessageStore in use.
+   public static long getCacheHits() {
+
+      long hits = 0;
+
+      for (DiskMessageStore store : live(caches)) {
+         hits += store.getHits();
+      }
+      return hits;
+   }
+
+   public static long getCacheMisses() {
+
+      long misses = 0;
+
+      for (DiskMessageStore store : live(caches)) {
+         misses += store.getMisses();
+      }
+      return misses;
+   }
+
+   public static long getCacheEvictions() {
+
+      long evictions = 0;
+
+      for (DiskMessageStore store : live(caches)) {
+         evictions += store.getEvictions();
+      }
+      return evictions;
+   }
+
+   public static long getCacheWriteBacks() {
+
+      long writeBacks = 0;
+
+      for (DiskMessageStore store : live(caches)) {
+         writeBacks += store.getWriteBacks();
+      }
+      return writeBacks;
+   }
+
+   public static long getHeapBytesPerMessage() {
+      long messages = getMessages();
+      long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+            .getUsed();
+      return messages == 0 ? 0 : used / messages;
+   }
+
+   public static LatencyHistogram getLatency(Operation operation) {
+      return latencies[operation.ordinal()];
+   }
+
+   public static void reset() {
+      linesParsed.reset();
+      for (LongAdder failures : parseFailures) {
+         failures.reset();
+      }
+      for (LatencyHistogram histogram : latencies) {
+         histogram.reset();
+      }
+      stages.clear();
+   }
+
+   // One line of counters and gauges, then one line per operation that
+   // has run, with times in microseconds.
+   public static void appendTo(StringBuilder builder) {
+
+      builder.append(String.format("metrics: %d lines parsed (%.0f/s),"
+            + " failures %s, %d accounts, %d messages, ~%d heap bytes"
+            + " per message", getLinesParsed(), getLinesPerSecond(),
+            getParseFailures(), getAccounts(), getMessages(),
+            getHeapBytesPerMessage())).append(NEW_LINE);
+
+      for (Operation operation : Operation.values()) {
+         LatencyHistogram histogram = latencies[operation.ordinal()];
+         if (histogram.getCount() == 0) {
+            continue;
+         }
+         builder.append(String.format("  %-18s count %d, mean %.1f, p50 %d,"
+               + " p90 %d, p99 %d, p99.9 %d, max %d us", operation,
+               histogram.getCount(), histogram.getMean() / 1000,
+               histogram.percentile(50) / 1000,
+               histogram.percentile(90) / 1000,
+               histogram.percentile(99) / 1000,
+               histogram.percentile(99.9) / 1000,
+               histogram.getMax() / 1000)).append(NEW_LINE);
+      }
+
+      if (!caches.isEmpty()) {
+         builder.append(String.format("  account cache %d hits, %d misses,"
+               + " %d evictions, %d write-backs", getCacheHits(),
+               getCacheMisses(), getCacheEvictions(), getCacheWriteBacks()))
+               .append(NEW_LINE);
+      }
+
+      for (Map.Entry<String, LongAdder[]> entry : stages.entrySet()) {
+         LongAdder[] counters = entry.getValue();
+         long busy = counters[2].sum();
+         builder.append(String.format("  stage %-12s %d items, %d bytes,"
+               + " busy %.1f ms, %.0f items/s", entry.getKey(),
+               counters[0].sum(), counters[1].sum(), busy / 1e6,
+               busy == 0 ? 0 : counters[0].sum() * 1e9 / busy))
+               .append(NEW_LINE);
+      }
+   }
+
+   public static String dump() {
+      StringBuilder builder = new StringBuilder();
+      appendTo(builder);
+      return builder.toString();
+   }
+
+   private static <T> List<T> live(
+         CopyOnWriteArrayList<WeakReference<T>> references) {
+
+      ArrayList<T> live = new ArrayList<T>();
+
+      for (WeakReference<T> reference : references) {
+         T store = reference.get();
+         if (store == null) {
+            references.remove(reference);
+         }
+
+         else {
+            live.add(store);
+         }
+      }
+      return live;
+   }
+
+   // Registers the MXBean and starts the periodic dump.
+   private static void publish() {
+
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(
+               new MetricsBean(), new ObjectName(OBJECT_NAME));
+      }
+      catch (JMException e) {
+         System.err.println("Metrics are not available over JMX: " + e);
+      }
+
+      if (DUMP_INTERVAL > 0) {
+         ScheduledExecutorService dumper = Executors
+               .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                  public Thread newThread(Runnable task) {
+                     Thread thread = new Thread(task, "metrics-dump");
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+         dumper.scheduleAtFixedRate(new Runnable() {
+            // An exception would cancel every later dump.
+            public void run() {
+               try {
+                  System.err.print(dump());
+               }
+               catch (RuntimeException e) {
+                  e.printStackTrace();
+               }
+            }
+         }, DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.SECONDS);
+      }
+   }
+
+   private static class MetricsBean implements CarrierMetricsMXBean {
+
+      public long getLinesParsed() {
+         return Metrics.getLinesParsed();
+      }
+
+      public double getLinesPerSecond() {
+         return Metrics.getLinesPerSecond();
+      }
+
+      public Map<String, Long> getParseFailures() {
+         return Metrics.getParseFailures();
+      }
+
+      public Map<String, Double> getStageThroughput() {
+         return Metrics.getStageThroughput();
+      }
+
+      public long getAccounts() {
+         return Metrics.getAccounts();
+      }
+
+      public long getMessages() {
+         return Metrics.getMessages();
+      }
+
+      public long getHeapBytesPerMessage() {
+         return Metrics.getHeapBytesPerMessage();
+      }
+
+      public long getCacheHits() {
+         return Metrics.getCacheHits();
+      }
+
+      public long getCacheMisses() {
+         return Metrics.getCacheMisses();
+      }
+
+      public long getCacheEvictions() {
+         return Metrics.getCacheEvictions();
+      }
+
+      public long getCacheWriteBacks() {
+         return Metrics.getCacheWriteBacks();
+      }
+
+      public Map<String, LatencySummary> getLatencies() {
+
+         TreeMap<String, LatencySummary> summaries =
+               new TreeMap<String, LatencySummary>();
+
+         for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() == 0) {
+               continue;
+            }
+            summaries.put(operation.name(), new LatencySummary(
+                  histogram.getCount(), histogram.getMean() / 1000,
+                  histogram.percentile(50) / 1000,
+                  histogram.percentile(90) / 1000,
+                  histogram.percentile(99) / 1000,
+                  histogram.percentile(99.9) / 1000,
+                  histogram.getMax() / 1000));
+         }
+         return summaries;
+      }
+
+      public void reset() {
+         Metrics.reset();
+      }
+   }
+}
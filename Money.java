@@ -0,0 +1,173 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: Money.java
+//Program Purpose: Money.java is the fixed point representation of charges.
+//A charge is a long count of units of 10^-SCALE dollars, cents by
+//default, so adding millions of charges never drifts the way double sums
+//do, and a sum that no longer fits in a long throws instead of wrapping.
+//Charges are parsed straight from the input characters and printed the
+//same way %.2f prints them. The scale can be changed with the system
+//property carrier.money.scale.
+//----------------------------
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+//----------------------------
+final class Money {
+
+   public static final int SCALE = Integer.getInteger("carrier.money.scale",
+         2);
+   public static final long ONE = pow10(SCALE);
+
+   private static final int PRINTED_SCALE = 2;
+
+   static {
+      if (SCALE < 0 || SCALE > 9) {
+         throw new IllegalStateException("carrier.money.scale must be"
+               + " between 0 and 9, not " + SCALE);
+      }
+   }
+
+   private Money() {
+   }
+
+   // Parses a plain decimal such as "1.25". Digits past SCALE are rounded
+   // half up. Anything else that BigDecimal accepts, such as an exponent,
+   // is parsed by BigDecimal.
+   public static long parse(CharSequence text) {
+
+      int start = 0;
+      int end = text.length();
+      boolean negative = false;
+      boolean seenPoint = false;
+      boolean roundUp = false;
+      long units = 0;
+      int digits = 0;
+      int fraction = 0;
+
+      if (start < end && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+         negative = text.charAt(0) == '-';
+         start++;
+      }
+      for (int i = start; i < end; i++) {
+         char c = text.charAt(i);
+         if (c == '.' && !seenPoint) {
+            seenPoint = true;
+         }
+
+         else if (c >= '0' && c <= '9' && digits < 18) {
+            if (!seenPoint || fraction < SCALE) {
+               units = units * 10 + (c - '0');
+               digits++;
+               fraction += seenPoint ? 1 : 0;
+            }
+
+            else if (fraction == SCALE) {
+               roundUp = c >= '5';
+               fraction++;
+            }
+         }
+
+         else {
+            return parseSlow(text.toString());
+         }
+      }
+      if (digits == 0) {
+         return parseSlow(text.toString());
+      }
+      return finish(units, Math.min(fraction, SCALE), roundUp, negative);
+   }
+
+   // Completes a parse: pads units that had fewer than SCALE fraction
+   // digits and applies the rounding of the dropped digits.
+   static long finish(long units, int fraction, boolean roundUp,
+         boolean negative) {
+
+      units = Math.multiplyExact(units, pow10(SCALE - fraction));
+      if (roundUp) {
+         units = Math.addExact(units, 1);
+      }
+      return negative ? -units : units;
+   }
+
+   static long parseSlow(String text) {
+      try {
+         return new BigDecimal(text.trim()).setScale(SCALE,
+               RoundingMode.HALF_UP).unscaledValue().longValueExact();
+      }
+      catch (ArithmeticException e) {
+         throw new NumberFormatException("Charge out of range: " + text);
+      }
+   }
+
+   // Converts a double charge using its shortest decimal digits, so 0.1
+   // becomes exactly 10 cents.
+   public static long fromDouble(double value) {
+      return parseSlow(Double.toString(value));
+   }
+
+   public static double toDouble(long units) {
+      return (double) units / ONE;
+   }
+
+   public static long add(long units, long more) {
+      return Math.addExact(units, more);
+   }
+
+   public static long subtract(long units, long less) {
+      return Math.subtractExact(units, less);
+   }
+
+   // Converts units of another scale to this one, rounding half up.
+   public static long rescale(long units, int scale) {
+
+      if (scale == SCALE) {
+         return units;
+      }
+      return BigDecimal.valueOf(units, scale).setScale(SCALE,
+            RoundingMode.HALF_UP).unscaledValue().longValueExact();
+   }
+
+   // Appends the amount the way %.2f prints it.
+   public static void append(StringBuilder builder, long units) {
+
+      long cents = units;
+
+      if (SCALE > PRINTED_SCALE) {
+         long divisor = pow10(SCALE - PRINTED_SCALE);
+         long rest = Math.abs(units % divisor);
+         cents = units / divisor;
+         if (rest * 2 >= divisor) {
+            cents += units < 0 ? -1 : 1;
+         }
+      }
+
+      else if (SCALE < PRINTED_SCALE) {
+         cents = Math.multiplyExact(units, pow10(PRINTED_SCALE - SCALE));
+      }
+
+      if (units < 0) {
+         builder.append('-');
+      }
+      long whole = Math.abs(cents / 100);
+      int fraction = (int) Math.abs(cents % 100);
+      builder.append(whole).append('.');
+      if (fraction < 10) {
+         builder.append('0');
+      }
+      builder.append(fraction);
+   }
+
+   public static String format(long units) {
+      StringBuilder builder = new StringBuilder(24);
+      append(builder, units);
+      return builder.toString();
+   }
+
+   private static long pow10(int exponent) {
+      long value = 1;
+      for (int i = 0; i < exponent; i++) {
+         value *= 10;
+      }
+      return value;
+   }
+}
@@ -0,0 +1,571 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: MutationLog.java
+//Program Purpose: MutationLog.java makes erases and disconnects durable
+//without rewriting the accounts after each one. Every change is appended
+//to the log as a small binary record naming the operation (erase the
+//first or every message of a type, disconnect one account or a batch),
+//and on startup the log is replayed on top of what was loaded to redo
+//them in order.
+//
+//Appends only copy the record into a buffer. A committer thread writes
+//whatever has collected and forces it to disk with one fsync, so changes
+//made while an fsync is in progress share the next one (group commit).
+//awaitDurable() waits until everything appended so far is on disk;
+//callers make their changes and then wait once before answering.
+//
+//A log applies to one baseline: the input file, or a snapshot identified
+//by its checksum. compact() saves the accounts as a new snapshot and
+//starts an empty log for it. Before the snapshot replaces the old one a
+//compaction record naming its checksum is made durable, so a crash
+//anywhere in between leaves a log and snapshot that are still
+//understood on the next start.
+//
+//Layout (big endian):
+//  int magic, int version, long baseline
+//  records: int body length, int CRC32C of the body, body
+//  body: byte kind, then for an erase the message type, for a disconnect
+//        the number, for a batch the count and numbers, and for a
+//        compaction the checksum of the snapshot
+//----------------------------
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+//----------------------------
+class MutationLog implements Closeable {
+
+   // Baseline of a log that applies to the accounts parsed from the input
+   // file rather than to a snapshot.
+   public static final long INPUT = -1;
+   // What baseline() returns when there is no log yet.
+   public static final long NO_LOG = -2;
+   // Size past which the carrier compacts the log into a new snapshot.
+   public static final long COMPACT_BYTES = Long.getLong(
+         "carrier.log.compact", 64) << 20;
+
+   private static final int MAGIC = 0x4343574c;
+   private static final int VERSION = 1;
+   private static final int FILE_HEADER_SIZE = 4 + 4 + 8;
+   private static final int RECORD_HEADER_SIZE = 4 + 4;
+   private static final byte ERASE_FIRST = 0;
+   private static final byte ERASE_ALL = 1;
+   private static final byte DISCONNECT = 2;
+   private static final byte DISCONNECT_ALL = 3;
+   private static final byte COMPACTED = 4;
+
+   // The changes a log records, applied again by replay.
+   interface Target {
+
+      void eraseFirst(MessageType type);
+
+      void eraseAll(MessageType type);
+
+      void disconnect(String number);
+
+      void disconnectAll(String[] numbers);
+   }
+
+   private Path file;
+   private FileChannel channel;
+   private long size;
+   private CRC32C crc;
+   private Thread committer;
+
+   // Guarded by this: records not yet handed to the committer, how many
+   // records have been appended and how many are on disk, and the error
+   // that stopped the committer.
+   private ByteBuffer pending;
+   private long appended;
+   private long durable;
+   private IOException failure;
+   private boolean closed;
+
+   // Opens the log, creating it for the baseline if it does not exist, and
+   // replays it into the target. baseline is what the accounts were loaded
+   // from: INPUT or the checksum of the snapshot. Records from before a
+   // compaction into that snapshot are already in it and are dropped.
+   public MutationLog(Path file, long baseline, Target target)
+         throws IOException {
+
+      this.file = file;
+      crc = new CRC32C();
+      pending = ByteBuffer.allocate(1 << 16);
+
+      if (!Files.exists(file)) {
+         create(file, baseline);
+      }
+      channel = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+      long logBaseline = readHeader(channel, file);
+      long start = FILE_HEADER_SIZE;
+      long offset = FILE_HEADER_SIZE;
+      ByteBuffer body = null;
+
+      // Find the end of the intact records and the last compaction into
+      // the loaded snapshot.
+      while ((body = readBody(channel, offset, crc)) != null) {
+         offset += RECORD_HEADER_SIZE + body.limit();
+         if (body.get() == COMPACTED && body.getLong() == baseline) {
+            start = offset;
+         }
+      }
+      if (start == FILE_HEADER_SIZE && logBaseline != baseline) {
+         channel.close();
+         throw new IOException(file + " records changes to "
+               + describe(logBaseline) + ", but the accounts were loaded from "
+               + describe(baseline));
+      }
+
+      size = offset;
+      if (size < channel.size()) {
+         channel.truncate(size);
+      }
+      if (start > FILE_HEADER_SIZE) {
+         restart(baseline, start);
+      }
+
+      offset = FILE_HEADER_SIZE;
+      while (offset < size) {
+         body = readBody(channel, offset, crc);
+         offset += RECORD_HEADER_SIZE + body.limit();
+         apply(body, target);
+      }
+
+      committer = new Thread(new Runnable() {
+         public void run() {
+            commit();
+         }
+      }, "mutation-log");
+      committer.setDaemon(true);
+      committer.start();
+   }
+
+   // Returns the baseline the log at file applies to, or NO_LOG if there is
+   // none. If the log was compacted into the snapshot at snapshotPath, that
+   // is the snapshot's checksum even if the log was not restarted.
+   public static long baseline(Path file, Path snapshotPath)
+         throws IOException {
+
+      if (!Files.exists(file)) {
+         return NO_LOG;
+      }
+
+      try (FileChannel from = FileChannel.open(file,
+            StandardOpenOption.READ)) {
+
+         long baseline = readHeader(from, file);
+         long compacted = NO_LOG;
+         long offset = FILE_HEADER_SIZE;
+         CRC32C checksum = new CRC32C();
+         ByteBuffer body = null;
+
+         while ((body = readBody(from, offset, checksum)) != null) {
+            offset += RECORD_HEADER_SIZE + body.limit();
+            if (body.get() == COMPACTED) {
+               compacted = body.getLong();
+            }
+         }
+         if (compacted != NO_LOG && Files.exists(snapshotPath)
+               && SnapshotFile.checksum(snapshotPath) == compacted) {
+            return compacted;
+         }
+         return baseline;
+      }
+   }
+
+   // Each of these appends a record and returns its sequence number for
+   // awaitDurable(long). They throw UncheckedIOException once the log can
+   // no longer be written.
+   public long eraseFirst(MessageType type) {
+      return append(ERASE_FIRST, type, null, null, 0);
+   }
+
+   public long eraseAll(MessageType type) {
+      return append(ERASE_ALL, type, null, null, 0);
+   }
+
+   public long disconnect(String number) {
+      return append(DISCONNECT, null, number, null, 0);
+   }
+
+   public long disconnectAll(String[] numbers) {
+      return append(DISCONNECT_ALL, null, null, numbers, 0);
+   }
+
+   // Waits until the record with the sequence number, and every record
+   // before it, is on disk.
+   public synchronized void awaitDurable(long sequence) throws IOException {
+
+      boolean interrupted = false;
+
+      while (durable < sequence && failure == null) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      if (durable < sequence) {
+         throw new IOException("Mutation log could not be written", failure);
+      }
+   }
+
+   // Waits until every record appended so far is on disk.
+   public void awaitDurable() throws IOException {
+      awaitDurable(getAppended());
+   }
+
+   public synchronized long getAppended() {
+      return appended;
+   }
+
+   // Bytes in the log, including records not yet written.
+   public synchronized long size() {
+      return size + pending.position();
+   }
+
+   // Saves the store as the snapshot at snapshotPath and starts an empty
+   // log for it. Nothing may be changed while this runs.
+   public void compact(MessageStore store, Path snapshotPath,
+         long sourceOffset) throws IOException {
+
+      Path temporary = SnapshotFile.temporaryPath(snapshotPath);
+      long checksum = SnapshotFile.writeTemporary(temporary, store,
+            sourceOffset);
+
+      awaitDurable(append(COMPACTED, null, null, null, checksum));
+      Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      synchronized (this) {
+         restart(checksum, size);
+      }
+   }
+
+   // Writes out every record and stops the committer.
+   public void close() throws IOException {
+
+      synchronized (this) {
+         closed = true;
+         notifyAll();
+      }
+      try {
+         committer.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      channel.close();
+      if (failure != null) {
+         throw new IOException("Mutation log could not be written", failure);
+      }
+   }
+
+   public String toString() {
+      return file + ": " + size() + " bytes, " + getAppended()
+            + " changes logged";
+   }
+
+   private synchronized long append(byte kind, MessageType type,
+         String number, String[] numbers, long checksum) {
+
+      if (failure != null) {
+         throw new UncheckedIOException(new IOException(
+               "Mutation log could not be written", failure));
+      }
+      if (closed) {
+         throw new IllegalStateException(file + " is closed");
+      }
+
+      int start = pending.position();
+
+      reserve(RECORD_HEADER_SIZE + 1);
+      pending.position(start + RECORD_HEADER_SIZE);
+      pending.put(kind);
+      switch (kind) {
+      case ERASE_FIRST:
+      case ERASE_ALL:
+         pending.put((byte) type.ordinal());
+         break;
+      case DISCONNECT:
+         putString(number);
+         break;
+      case DISCONNECT_ALL:
+         putVarInt(numbers.length);
+         for (String each : numbers) {
+            putString(each);
+         }
+         break;
+      default:
+         reserve(8);
+         pending.putLong(checksum);
+         break;
+      }
+
+      int bodyLength = pending.position() - start - RECORD_HEADER_SIZE;
+
+      crc.reset();
+      crc.update(pending.array(), start + RECORD_HEADER_SIZE, bodyLength);
+      pending.putInt(start, bodyLength);
+      pending.putInt(start + 4, (int) crc.getValue());
+      appended++;
+      notifyAll();
+      return appended;
+   }
+
+   // Writes what has collected and forces it to disk, until closed.
+   private void commit() {
+
+      ByteBuffer spare = ByteBuffer.allocate(pending.capacity());
+      ByteBuffer batch = null;
+      long sequence = 0;
+      long position = 0;
+
+      while (true) {
+         synchronized (this) {
+            while (pending.position() == 0 && !closed) {
+               try {
+                  wait();
+               }
+               catch (InterruptedException e) {
+                  return;
+               }
+            }
+            if (pending.position() == 0) {
+               return;
+            }
+            batch = pending;
+            pending = spare.capacity() >= batch.capacity() ? spare
+                  : ByteBuffer.allocate(batch.capacity());
+            pending.clear();
+            sequence = appended;
+            position = size;
+            size += batch.position();
+         }
+
+         try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+               channel.write(batch, position + batch.position());
+            }
+            channel.force(false);
+         }
+         catch (IOException e) {
+            synchronized (this) {
+               failure = e;
+               notifyAll();
+            }
+            return;
+         }
+
+         synchronized (this) {
+            durable = sequence;
+            notifyAll();
+         }
+         spare = batch;
+         spare.clear();
+      }
+   }
+
+   // Replaces the log with one for the baseline that keeps the records from
+   // offset on. Every appended record must already be on disk.
+   private void restart(long baseline, long offset) throws IOException {
+
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+      try (FileChannel to = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+         writeHeader(to, baseline);
+         long copied = 0;
+         while (copied < size - offset) {
+            copied += channel.transferTo(offset + copied,
+                  size - offset - copied, to.position(FILE_HEADER_SIZE
+                        + copied));
+         }
+         to.force(true);
+      }
+      channel.close();
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      channel = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+      size = FILE_HEADER_SIZE + size - offset;
+   }
+
+   private static void create(Path file, long baseline) throws IOException {
+
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+      try (FileChannel to = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+         writeHeader(to, baseline);
+         to.force(true);
+      }
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private static void writeHeader(FileChannel to, long baseline)
+         throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+      header.putInt(MAGIC).putInt(VERSION).putLong(baseline).flip();
+      while (header.hasRemaining()) {
+         to.write(header, header.position());
+      }
+   }
+
+   // Returns the baseline in the header.
+   private static long readHeader(FileChannel from, Path file)
+         throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+
+      if (!readFully(from, header, 0) || header.getInt(0) != MAGIC) {
+         throw new IOException(file + " is not a mutation log");
+      }
+      if (header.getInt(4) != VERSION) {
+         throw new IOException(file + " has unsupported version "
+               + header.getInt(4));
+      }
+      return header.getLong(8);
+   }
+
+   private static void apply(ByteBuffer body, Target target) {
+
+      MessageType[] types = MessageType.values();
+
+      switch (body.get()) {
+      case ERASE_FIRST:
+         target.eraseFirst(types[body.get()]);
+         break;
+      case ERASE_ALL:
+         target.eraseAll(types[body.get()]);
+         break;
+      case DISCONNECT:
+         target.disconnect(string(body));
+         break;
+      case DISCONNECT_ALL: {
+         String[] numbers = new String[varInt(body)];
+         for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = string(body);
+         }
+         target.disconnectAll(numbers);
+         break;
+      }
+      }
+   }
+
+   private static String describe(long baseline) {
+      return baseline == INPUT ? "the input file"
+            : "the snapshot with checksum " + Long.toHexString(baseline);
+   }
+
+   // Returns the body of the record at offset, or null if the record runs
+   // past the end of the file or fails its checksum.
+   private static ByteBuffer readBody(FileChannel from, long offset,
+         CRC32C crc) throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+      if (!readFully(from, header, offset)) {
+         return null;
+      }
+
+      int bodyLength = header.getInt(0);
+
+      if (bodyLength <= 0
+            || offset + RECORD_HEADER_SIZE + bodyLength > from.size()) {
+         return null;
+      }
+
+      ByteBuffer body = ByteBuffer.allocate(bodyLength);
+
+      if (!readFully(from, body, offset + RECORD_HEADER_SIZE)) {
+         return null;
+      }
+      crc.reset();
+      crc.update(body.array(), 0, bodyLength);
+      if ((int) crc.getValue() != header.getInt(4)) {
+         return null;
+      }
+      body.flip();
+      return body;
+   }
+
+   private static boolean readFully(FileChannel from, ByteBuffer buffer,
+         long offset) throws IOException {
+
+      while (buffer.hasRemaining()) {
+         int read = from.read(buffer, offset + buffer.position());
+         if (read < 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // Grows the pending buffer to fit bytes more.
+   private void reserve(int bytes) {
+
+      if (pending.remaining() >= bytes) {
+         return;
+      }
+
+      ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+            pending.position() + bytes));
+
+      pending.flip();
+      grown.put(pending);
+      pending = grown;
+   }
+
+   private void putVarInt(int value) {
+      reserve(5);
+      while ((value & ~0x7f) != 0) {
+         pending.put((byte) ((value & 0x7f) | 0x80));
+         value >>>= 7;
+      }
+      pending.put((byte) value);
+   }
+
+   private void putString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      putVarInt(bytes.length);
+      reserve(bytes.length);
+      pending.put(bytes);
+   }
+
+   private static int varInt(ByteBuffer body) {
+
+      int value = 0;
+
+      for (int shift = 0; shift < 35; shift += 7) {
+         byte b = body.get();
+         value |= (b & 0x7f) << shift;
+         if (b >= 0) {
+            return value;
+         }
+      }
+      throw new IllegalStateException("Malformed length in mutation record");
+   }
+
+   private static String string(ByteBuffer body) {
+      int length = varInt(body);
+      String value = new String(body.array(), body.position(), length,
+            StandardCharsets.UTF_8);
+      body.position(body.position() + length);
+      return value;
+   }
+}
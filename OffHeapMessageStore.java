@@ -0,0 +1,450 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: OffHeapMessageStore.java
+//Program Purpose: OffHeapMessageStore.java is a MessageStore that keeps the
+//messages outside the Java heap, so the history can grow past a sensible
+//heap size without adding to garbage collection work. Every message is a
+//fixed size slot in large off-heap chunks, either direct memory or, when
+//a directory is given, a memory-mapped scratch file that the operating
+//system pages in and out. Text content goes into a separate off-heap area
+//of length prefixed UTF-8 strings, whose pages are rewritten with only the
+//live texts whenever the slots are compacted, the old pages being kept
+//for reuse. The heap only holds the sorted account map with the slot
+//numbers and total charges of every account, and the symbol tables of
+//phone numbers and formats. An account's slot numbers are in a RowList
+//with one queue per message type, so erasing the first or every message
+//of a type never scans the account. Items are built from the slots when
+//an account's messages are asked for.
+//
+//Slot layout (32 bytes, native byte order):
+//  0 byte type, 4 int time, 8 long charge, 16 int receiver id,
+//  20 int format id, 24 long text address, media size or voice duration
+//----------------------------
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+//----------------------------
+class OffHeapMessageStore implements MessageStore {
+
+   private static final int SLOT_SIZE = 32;
+   private static final int TYPE = 0;
+   private static final int TIME = 4;
+   private static final int CHARGE = 8;
+   private static final int RECEIVER = 16;
+   private static final int FORMAT = 20;
+   private static final int PAYLOAD = 24;
+
+   private static final int CHUNK_BITS = 20;
+   private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+   private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+   private static final int TEXT_PAGE_SIZE = 1 << 20;
+   private static final int NO_FORMAT = -1;
+   private static final int COMPACT_THRESHOLD = 1 << 16;
+
+   private Arena slotArena;
+   private Arena textArena;
+   private ArrayList<ByteBuffer> chunks;
+   private ArrayList<ByteBuffer> textPages;
+   private ByteBuffer textPage;
+   // Text pages left empty by compaction, to be used again.
+   private ArrayList<ByteBuffer> freeTextPages;
+   private int slots;
+   private int deadSlots;
+
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private TreeMap<String, RowList> accounts;
+
+   // Keeps the messages in direct memory.
+   public OffHeapMessageStore() {
+      this(null);
+   }
+
+   // Keeps the messages in memory-mapped scratch files in the directory, or
+   // in direct memory if directory is null. The files are deleted when the
+   // program exits.
+   public OffHeapMessageStore(Path directory) {
+      try {
+         slotArena = new Arena(directory, "slots");
+         textArena = new Arena(directory, "text");
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      chunks = new ArrayList<ByteBuffer>();
+      textPages = new ArrayList<ByteBuffer>();
+      freeTextPages = new ArrayList<ByteBuffer>();
+      numbers = new SymbolTable("numbers");
+      formats = new SymbolTable("formats");
+      accounts = new TreeMap<String, RowList>();
+   }
+
+   public void add(Item messageItem) {
+
+      MessageType messageType = MessageType.of(messageItem);
+
+      if (messageType == null) {
+         throw new IllegalArgumentException(
+               "Not a text, media or voice message: " + messageItem);
+      }
+      String key = messageItem.getFrom();
+      RowList account = accounts.get(key);
+
+      if (account == null) {
+         account = new RowList();
+         accounts.put(key, account);
+      }
+
+      // Sum first, so a total that overflows leaves the store unchanged.
+      long totalCharges = Money.add(account.getTotalCharges(),
+            messageItem.getCharge());
+
+      if (slots == chunks.size() * CHUNK_SLOTS) {
+         chunks.add(slotArena.allocate(CHUNK_SLOTS * SLOT_SIZE));
+      }
+
+      int slot = slots++;
+      ByteBuffer chunk = chunks.get(slot >>> CHUNK_BITS);
+      int at = (slot & CHUNK_MASK) * SLOT_SIZE;
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      chunk.put(at + TYPE, (byte) messageType.ordinal());
+      chunk.putInt(at + TIME, messageItem.getTime());
+      chunk.putLong(at + CHARGE, messageItem.getCharge());
+      chunk.putInt(at + RECEIVER, numbers.id(messageItem.getTo()));
+
+      switch (messageType) {
+      case TEXT:
+         chunk.putInt(at + FORMAT, NO_FORMAT);
+         chunk.putLong(at + PAYLOAD, addText(((Text) payload).getContent()));
+         break;
+      case MEDIA:
+         chunk.putInt(at + FORMAT, formats.id(((Media) payload).getFormat()));
+         chunk.putDouble(at + PAYLOAD, ((Media) payload).getSize());
+         break;
+      case VOICE:
+         chunk.putInt(at + FORMAT, formats.id(((Voice) payload).getFormat()));
+         chunk.putLong(at + PAYLOAD, ((Voice) payload).getDuration());
+         break;
+      }
+
+      account.add(slot, messageType);
+      account.setTotalCharges(totalCharges);
+   }
+
+   public void addAll(String account, List<? extends Item> messages) {
+      for (Item messageItem : messages) {
+         add(messageItem);
+      }
+   }
+
+   public boolean contains(String account) {
+      return accounts.containsKey(account);
+   }
+
+   public Collection<String> accounts() {
+      return Collections.unmodifiableSet(accounts.keySet());
+   }
+
+   public List<Item> messages(String account) {
+
+      RowList list = accounts.get(account);
+
+      if (list == null) {
+         return null;
+      }
+
+      int[] accountSlots = list.rows();
+      ArrayList<Item> messages = new ArrayList<Item>(accountSlots.length);
+      for (int slot : accountSlots) {
+         messages.add(item(account, slot));
+      }
+      return Collections.unmodifiableList(messages);
+   }
+
+   public long totalCharges(String account) {
+      RowList list = accounts.get(account);
+      return list == null ? 0 : list.getTotalCharges();
+   }
+
+   public AccountSnapshot snapshot(String account) {
+      List<Item> messages = messages(account);
+      return messages == null ? null : new AccountSnapshot(account, messages,
+            totalCharges(account));
+   }
+
+   public Item eraseFirst(String account, MessageType messageType) {
+
+      RowList list = accounts.get(account);
+      int slot = list == null ? -1 : list.removeFirst(messageType);
+
+      if (slot < 0) {
+         return null;
+      }
+
+      Item removed = item(account, slot);
+      list.setTotalCharges(Money.subtract(list.getTotalCharges(),
+            removed.getCharge()));
+      deadSlots++;
+      compactIfSparse();
+      return removed;
+   }
+
+   public List<Item> eraseAll(String account, MessageType messageType) {
+
+      RowList list = accounts.get(account);
+      ArrayList<Item> removed = new ArrayList<Item>();
+
+      if (list != null) {
+         for (int slot : list.removeAll(messageType)) {
+            Item messageItem = item(account, slot);
+            removed.add(messageItem);
+            list.setTotalCharges(Money.subtract(list.getTotalCharges(),
+                  messageItem.getCharge()));
+         }
+         deadSlots += removed.size();
+         compactIfSparse();
+      }
+      return removed;
+   }
+
+   public AccountSnapshot remove(String account) {
+
+      AccountSnapshot removed = snapshot(account);
+
+      if (removed != null) {
+         deadSlots += accounts.remove(account).size();
+         compactIfSparse();
+      }
+      return removed;
+   }
+
+   public AccountSnapshot[] removeAll(String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+
+      for (int i = 0; i < numbers.length; i++) {
+         removed[i] = remove(numbers[i]);
+      }
+      return removed;
+   }
+
+   public int accountCount() {
+      return accounts.size();
+   }
+
+   public long messageCount() {
+      return slots - deadSlots;
+   }
+
+   // Erasing changes shared counters and can compact every chunk.
+   public boolean supportsParallelUpdates() {
+      return false;
+   }
+
+   public SymbolTable getNumberSymbols() {
+      return numbers;
+   }
+
+   public SymbolTable getFormatSymbols() {
+      return formats;
+   }
+
+   // Bytes of off-heap memory or mapped file held for slots and text,
+   // including the text pages kept for reuse.
+   public long getOffHeapBytes() {
+      return slotArena.getAllocated() + textArena.getAllocated();
+   }
+
+   // Builds the Item for one slot. The sender is the account key, so every
+   // message of an account shares the same String.
+   private Item item(String account, int slot) {
+
+      ByteBuffer chunk = chunks.get(slot >>> CHUNK_BITS);
+      int at = (slot & CHUNK_MASK) * SLOT_SIZE;
+      int time = chunk.getInt(at + TIME);
+      long charge = chunk.getLong(at + CHARGE);
+      String to = numbers.value(chunk.getInt(at + RECEIVER));
+
+      switch (MessageType.values()[chunk.get(at + TYPE)]) {
+      case TEXT:
+         return new Message<Text>(time, account, to, charge,
+               new Text(text(chunk.getLong(at + PAYLOAD))));
+      case MEDIA:
+         return new Message<Media>(time, account, to, charge,
+               new Media(chunk.getDouble(at + PAYLOAD),
+                     formats.value(chunk.getInt(at + FORMAT))));
+      default:
+         return new Message<Voice>(time, account, to, charge,
+               new Voice((int) chunk.getLong(at + PAYLOAD),
+                     formats.value(chunk.getInt(at + FORMAT))));
+      }
+   }
+
+   // Appends the content to the text area and returns its address: the
+   // page number in the high 32 bits and the offset of its 4 byte length
+   // prefix in the low 32 bits.
+   private long addText(String content) {
+
+      byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+      long address = reserveText(bytes.length + 4);
+
+      textPage.putInt(bytes.length);
+      textPage.put(bytes);
+      return address;
+   }
+
+   // Copies a text, with its length prefix, from a page being compacted to
+   // the end of the text area and returns its new address.
+   private long moveText(ByteBuffer page, int offset) {
+
+      int needed = page.getInt(offset) + 4;
+      long address = reserveText(needed);
+
+      textPage.put(textPage.position(), page, offset, needed);
+      textPage.position(textPage.position() + needed);
+      return address;
+   }
+
+   // Makes room for needed bytes in the current text page, starting a new
+   // page if they do not fit, and returns the address they will have.
+   private long reserveText(int needed) {
+
+      if (textPage == null || textPage.remaining() < needed) {
+         if (needed <= TEXT_PAGE_SIZE && !freeTextPages.isEmpty()) {
+            textPage = freeTextPages.remove(freeTextPages.size() - 1);
+            textPage.clear();
+         }
+
+         else {
+            textPage = textArena.allocate(Math.max(TEXT_PAGE_SIZE, needed));
+         }
+         textPages.add(textPage);
+      }
+      return ((long) (textPages.size() - 1) << 32) | textPage.position();
+   }
+
+   private String text(long address) {
+
+      ByteBuffer page = textPages.get((int) (address >>> 32));
+      int offset = (int) address;
+      byte[] bytes = new byte[page.getInt(offset)];
+
+      page.get(offset + 4, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   // Erased and disconnected slots are only dropped from their account.
+   // Once they make up more than half of the slots the live ones are moved
+   // down in slot order, which keeps insertion order, and the account slot
+   // lists are renumbered. The texts of the live slots are copied to fresh
+   // pages on the way, and the old pages, which also hold the texts of the
+   // dead slots, are put on the free list. Oversized pages that held a
+   // single long text are dropped instead.
+   private void compactIfSparse() {
+
+      if (deadSlots < COMPACT_THRESHOLD || deadSlots * 2 < slots) {
+         return;
+      }
+
+      boolean[] live = new boolean[slots];
+      int[] moved = new int[slots];
+      int next = 0;
+      ArrayList<ByteBuffer> oldTextPages = textPages;
+
+      textPages = new ArrayList<ByteBuffer>();
+      textPage = null;
+
+      for (RowList list : accounts.values()) {
+         for (int slot : list.rows()) {
+            live[slot] = true;
+         }
+      }
+      for (int slot = 0; slot < slots; slot++) {
+         if (live[slot]) {
+            if (next != slot) {
+               chunks.get(next >>> CHUNK_BITS).put(
+                     (next & CHUNK_MASK) * SLOT_SIZE,
+                     chunks.get(slot >>> CHUNK_BITS),
+                     (slot & CHUNK_MASK) * SLOT_SIZE, SLOT_SIZE);
+            }
+            ByteBuffer chunk = chunks.get(next >>> CHUNK_BITS);
+            int at = (next & CHUNK_MASK) * SLOT_SIZE;
+            if (chunk.get(at + TYPE) == MessageType.TEXT.ordinal()) {
+               long address = chunk.getLong(at + PAYLOAD);
+               chunk.putLong(at + PAYLOAD, moveText(
+                     oldTextPages.get((int) (address >>> 32)),
+                     (int) address));
+            }
+            moved[slot] = next++;
+         }
+      }
+      for (ByteBuffer page : oldTextPages) {
+         if (page.capacity() == TEXT_PAGE_SIZE) {
+            freeTextPages.add(page);
+         }
+      }
+      for (RowList list : accounts.values()) {
+         list.renumber(moved);
+      }
+      slots = next;
+      deadSlots = 0;
+   }
+
+   // Hands out off-heap buffers, from direct memory or from the end of a
+   // memory-mapped scratch file. Direct memory is capped by
+   // -XX:MaxDirectMemorySize, which is the maximum heap size unless set, so
+   // running out of it is reported with the flag named.
+   private static class Arena {
+
+      private FileChannel channel;
+      private long allocated;
+
+      public Arena(Path directory, String name) throws IOException {
+         if (directory != null) {
+            Path file = Files.createTempFile(directory, name, ".arena");
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ,
+                  StandardOpenOption.WRITE);
+         }
+      }
+
+      public ByteBuffer allocate(int size) {
+
+         ByteBuffer buffer = null;
+
+         try {
+            buffer = channel == null ? ByteBuffer.allocateDirect(size)
+                  : channel.map(FileChannel.MapMode.READ_WRITE, allocated,
+                        size);
+         }
+         catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         catch (OutOfMemoryError e) {
+            if (channel != null) {
+               throw e;
+            }
+            OutOfMemoryError full = new OutOfMemoryError("Out of direct"
+                  + " memory after " + (allocated >> 20) + " MB; raise"
+                  + " -XX:MaxDirectMemorySize, which defaults to the heap"
+                  + " size, or use -offheap=<dir>");
+            full.initCause(e);
+            throw full;
+         }
+         allocated += size;
+         return buffer.order(ByteOrder.nativeOrder());
+      }
+
+      public long getAllocated() {
+         return allocated;
+      }
+   }
+}
@@ -0,0 +1,279 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ParallelLoader.java
+//Program Purpose: ParallelLoader.java loads the message input file on
+//several threads. The file is cut into byte ranges that start and end on
+//line boundaries, every range is parsed in place by a MappedRecordParser
+//into its own partial store, and once every range has parsed the partial
+//stores are merged back in file order so each account lists its messages
+//in the same order the sequential loader would. It can also parse the
+//ranges into batches handed to a ChunkSink in file order, for a caller
+//such as ShardedCarrier that spreads the messages out itself.
+//----------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+//----------------------------
+class ParallelLoader {
+
+   private static final int CHUNKS_PER_THREAD = 4;
+   // Largest range parse() cuts, so the batches parsed ahead stay small.
+   private static final long MAX_BATCH_CHUNK = 1 << 24;
+   private static final byte NEW_LINE = '\n';
+
+   private int threads;
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private TextSource textSource;
+   private DeadLetterFile deadLetters;
+
+   public ParallelLoader() {
+      this(Runtime.getRuntime().availableProcessors(),
+            new SymbolTable("numbers"), new SymbolTable("formats"));
+   }
+
+   public ParallelLoader(int threads, SymbolTable numbers,
+         SymbolTable formats) {
+      this.threads = Math.max(1, threads);
+      this.numbers = numbers;
+      this.formats = formats;
+   }
+
+   // See MappedRecordParser.setTextSource().
+   public void setTextSource(TextSource textSource) {
+      this.textSource = textSource;
+   }
+
+   // See MappedRecordParser.setDeadLetters(). The chunks add their lines
+   // as they reach them, so they are not necessarily in file order.
+   public void setDeadLetters(DeadLetterFile deadLetters) {
+      this.deadLetters = deadLetters;
+   }
+
+   // Loads the whole file and returns how many bytes were parsed. If any
+   // chunk fails nothing is added to the target.
+   public long load(Path inputFilePath, MessageStore target)
+         throws IOException {
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+      try (FileChannel channel = FileChannel.open(inputFilePath,
+            StandardOpenOption.READ)) {
+
+         long[] bounds = split(channel, threads * CHUNKS_PER_THREAD);
+         List<Future<MessageStore>> parts = new ArrayList<Future<MessageStore>>();
+
+         for (int i = 0; i + 1 < bounds.length; i++) {
+            parts.add(pool.submit(new ChunkParser(channel, bounds[i],
+                  bounds[i + 1], newParser())));
+         }
+
+         // Nothing is merged until every chunk has parsed, so a chunk that
+         // fails leaves the target as it was. Chunks are merged in file
+         // order, so appending each partial list keeps every account in
+         // its original insertion order.
+         MessageStore[] parsed = new MessageStore[parts.size()];
+         for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = parts.get(i).get();
+         }
+         parts.clear();
+         for (int i = 0; i < parsed.length; i++) {
+            merge(parsed[i], target);
+            parsed[i] = null;
+         }
+         return bounds[bounds.length - 1];
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while loading " + inputFilePath,
+               e);
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         throw new IOException("Failed to load " + inputFilePath, cause);
+      }
+      finally {
+         pool.shutdownNow();
+      }
+   }
+
+   // Parses the file a range at a time on the loader's threads and hands
+   // the messages of every range to the sink on the calling thread, in
+   // file order, while the ranges after it parse. Up to two ranges per
+   // thread are parsed ahead of the sink. Unlike load(), a range that fails
+   // leaves the ranges before it with the sink. Returns how many bytes were
+   // parsed.
+   public long parse(Path inputFilePath, ChunkSink sink) throws IOException {
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+      try (FileChannel channel = FileChannel.open(inputFilePath,
+            StandardOpenOption.READ)) {
+
+         long[] bounds = split(channel, (int) Math.max(
+               threads * CHUNKS_PER_THREAD,
+               channel.size() / MAX_BATCH_CHUNK + 1));
+         ArrayDeque<Future<List<Item>>> ahead =
+               new ArrayDeque<Future<List<Item>>>();
+         int next = 0;
+
+         while (next + 1 < bounds.length || !ahead.isEmpty()) {
+            while (next + 1 < bounds.length && ahead.size() < threads * 2) {
+               ahead.add(pool.submit(new BatchParser(channel, bounds[next],
+                     bounds[next + 1], newParser())));
+               next++;
+            }
+            sink.accept(ahead.poll().get());
+         }
+         return bounds[bounds.length - 1];
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while loading " + inputFilePath,
+               e);
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         throw new IOException("Failed to load " + inputFilePath, cause);
+      }
+      finally {
+         pool.shutdownNow();
+      }
+   }
+
+   public int getThreads() {
+      return threads;
+   }
+
+   private MappedRecordParser newParser() {
+
+      MappedRecordParser parser = new MappedRecordParser(numbers, formats);
+
+      parser.setTextSource(textSource);
+      parser.setDeadLetters(deadLetters);
+      return parser;
+   }
+
+   // Returns chunk boundaries as file offsets. Every boundary after the
+   // first sits right after a new line, so no line is split across chunks.
+   static long[] split(FileChannel channel, int chunks) throws IOException {
+
+      long size = channel.size();
+      long step = Math.max(1, size / Math.max(1, chunks));
+      ArrayList<Long> bounds = new ArrayList<Long>();
+      ByteBuffer probe = ByteBuffer.allocate(4096);
+      long position = 0;
+
+      bounds.add(0L);
+      while (position < size) {
+         long next = lineStartAfter(channel, Math.min(size, position + step),
+               size, probe);
+         bounds.add(next);
+         position = next;
+      }
+
+      long[] result = new long[bounds.size()];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = bounds.get(i);
+      }
+      return result;
+   }
+
+   private static long lineStartAfter(FileChannel channel, long position,
+         long size, ByteBuffer probe) throws IOException {
+
+      while (position < size) {
+         probe.clear();
+         int read = channel.read(probe, position);
+         if (read <= 0) {
+            break;
+         }
+         for (int i = 0; i < read; i++) {
+            if (probe.get(i) == NEW_LINE) {
+               return position + i + 1;
+            }
+         }
+         position += read;
+      }
+      return size;
+   }
+
+   private static void merge(MessageStore part, MessageStore target) {
+      for (String account : part.accounts()) {
+         target.addAll(account, part.messages(account));
+      }
+   }
+
+   // Takes the messages of each range parse() parses, in file order.
+   interface ChunkSink {
+      void accept(List<Item> messages) throws IOException;
+   }
+
+   private static class ChunkParser implements Callable<MessageStore> {
+
+      private FileChannel channel;
+      private long start;
+      private long end;
+      private MappedRecordParser parser;
+
+      public ChunkParser(FileChannel channel, long start, long end,
+            MappedRecordParser parser) {
+         this.channel = channel;
+         this.start = start;
+         this.end = end;
+         this.parser = parser;
+      }
+
+      public MessageStore call() throws IOException {
+
+         MessageStore part = new TreeMapMessageStore();
+         parser.parse(channel, start, end, part);
+         return part;
+      }
+   }
+
+   // Parses one range, mapped whole, into a list of its messages.
+   private static class BatchParser implements Callable<List<Item>> {
+
+      private FileChannel channel;
+      private long start;
+      private long end;
+      private MappedRecordParser parser;
+
+      public BatchParser(FileChannel channel, long start, long end,
+            MappedRecordParser parser) {
+         this.channel = channel;
+         this.start = start;
+         this.end = end;
+         this.parser = parser;
+      }
+
+      public List<Item> call() throws IOException {
+
+         ArrayList<Item> batch = new ArrayList<Item>();
+         long length = end - start;
+
+         if (length > Integer.MAX_VALUE) {
+            throw new IOException("Line at offset " + start
+                  + " is longer than " + Integer.MAX_VALUE + " bytes");
+         }
+         parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, start,
+               length), start, 0, (int) length, batch);
+         return batch;
+      }
+   }
+}
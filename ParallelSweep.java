@@ -0,0 +1,201 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ParallelSweep.java
+//Program Purpose: ParallelSweep.java runs the whole-carrier operations over
+//every account on a ForkJoinPool. The sorted account numbers are split in
+//halves until a range is small enough, each range is handled on its own
+//worker, and results are put back together in account order so reports
+//come out exactly as the sequential listing prints them.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+//----------------------------
+class ParallelSweep {
+
+   private static final int DEFAULT_THRESHOLD = 512;
+
+   private ForkJoinPool pool;
+   private int threshold;
+
+   public ParallelSweep() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   public ParallelSweep(int parallelism) {
+      pool = new ForkJoinPool(Math.max(1, parallelism));
+      threshold = DEFAULT_THRESHOLD;
+   }
+
+   // Removes the first message of the type from every account in numbers.
+   // The store must support parallel updates.
+   public long eraseFirst(final MessageStore store, String[] numbers,
+         final MessageType type) {
+
+      return pool.invoke(new CountTask(numbers, 0, numbers.length,
+            new AccountCounter() {
+               public long apply(String number) {
+                  return store.eraseFirst(number, type) == null ? 0 : 1;
+               }
+            }));
+   }
+
+   // Removes every message of the type from every account in numbers.
+   // The store must support parallel updates.
+   public long eraseAll(final MessageStore store, String[] numbers,
+         final MessageType type) {
+
+      return pool.invoke(new CountTask(numbers, 0, numbers.length,
+            new AccountCounter() {
+               public long apply(String number) {
+                  return store.eraseAll(number, type).size();
+               }
+            }));
+   }
+
+   // Removes the accounts in numbers, sorted ascending without duplicates,
+   // with each worker passing its range to removeAll in one batch. The
+   // store must allow accounts to be removed from several threads at once.
+   public AccountSnapshot[] removeAll(MessageStore store, String[] numbers) {
+
+      AccountSnapshot[] removed = new AccountSnapshot[numbers.length];
+      pool.invoke(new RemoveTask(store, numbers, 0, numbers.length, removed));
+      return removed;
+   }
+
+   // Renders the report lines of numbers[from..to) into one String per
+   // account, in the same order as numbers.
+   public String[] render(MessageStore store, String[] numbers, int from,
+         int to) {
+
+      String[] rendered = new String[to - from];
+      pool.invoke(new RenderTask(store, numbers, from, to, from, rendered));
+      return rendered;
+   }
+
+   public int getParallelism() {
+      return pool.getParallelism();
+   }
+
+   public void shutdown() {
+      pool.shutdown();
+   }
+
+   private interface AccountCounter {
+      long apply(String number);
+   }
+
+   private class CountTask extends RecursiveTask<Long> {
+
+      private static final long serialVersionUID = 1L;
+
+      private String[] numbers;
+      private int from;
+      private int to;
+      private AccountCounter counter;
+
+      public CountTask(String[] numbers, int from, int to,
+            AccountCounter counter) {
+         this.numbers = numbers;
+         this.from = from;
+         this.to = to;
+         this.counter = counter;
+      }
+
+      protected Long compute() {
+
+         if (to - from <= threshold) {
+            long count = 0;
+            for (int i = from; i < to; i++) {
+               count += counter.apply(numbers[i]);
+            }
+            return count;
+         }
+
+         int middle = (from + to) >>> 1;
+         CountTask left = new CountTask(numbers, from, middle, counter);
+         CountTask right = new CountTask(numbers, middle, to, counter);
+
+         left.fork();
+         return right.compute() + left.join();
+      }
+   }
+
+   private class RenderTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private MessageStore store;
+      private String[] numbers;
+      private int from;
+      private int to;
+      private int base;
+      private String[] rendered;
+
+      public RenderTask(MessageStore store, String[] numbers, int from,
+            int to, int base, String[] rendered) {
+         this.store = store;
+         this.numbers = numbers;
+         this.from = from;
+         this.to = to;
+         this.base = base;
+         this.rendered = rendered;
+      }
+
+      protected void compute() {
+
+         if (to - from <= threshold) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = from; i < to; i++) {
+               AccountSnapshot account = store.snapshot(numbers[i]);
+               builder.setLength(0);
+               if (account != null) {
+                  ReportWriter.appendAccount(builder, account);
+               }
+               rendered[i - base] = builder.toString();
+            }
+            return;
+         }
+
+         int middle = (from + to) >>> 1;
+         invokeAll(
+               new RenderTask(store, numbers, from, middle, base, rendered),
+               new RenderTask(store, numbers, middle, to, base, rendered));
+      }
+   }
+
+   private class RemoveTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private MessageStore store;
+      private String[] numbers;
+      private int from;
+      private int to;
+      private AccountSnapshot[] removed;
+
+      public RemoveTask(MessageStore store, String[] numbers, int from,
+            int to, AccountSnapshot[] removed) {
+         this.store = store;
+         this.numbers = numbers;
+         this.from = from;
+         this.to = to;
+         this.removed = removed;
+      }
+
+      protected void compute() {
+
+         if (to - from <= threshold) {
+            AccountSnapshot[] range = store.removeAll(
+                  Arrays.copyOfRange(numbers, from, to));
+            System.arraycopy(range, 0, removed, from, range.length);
+            return;
+         }
+
+         int middle = (from + to) >>> 1;
+         invokeAll(new RemoveTask(store, numbers, from, middle, removed),
+               new RemoveTask(store, numbers, middle, to, removed));
+      }
+   }
+}
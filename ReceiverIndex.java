@@ -0,0 +1,192 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ReceiverIndex.java
+//Program Purpose: ReceiverIndex.java answers inbound traffic questions, the
+//messages sent to a number and their total charge, without scanning every
+//account. As an IndexedMessageStore it sees every message that is added,
+//erased or disconnected, so loads, snapshots, the file follower and the
+//menu operations all keep it in sync. For every receiver it keeps the
+//inbound messages grouped by sender, in the order each sender added them,
+//and a running total of their charges. A lookup then only reads the
+//indexed messages, never a sender's whole account. Indexing a message
+//costs one reference, though for a store that builds its Items on demand
+//that reference keeps the Item it was loaded as on the heap.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+//----------------------------
+class ReceiverIndex extends IndexedMessageStore {
+
+   private ConcurrentHashMap<String, Inbound> inbound;
+
+   public ReceiverIndex(MessageStore messageStore) {
+      super(messageStore);
+      inbound = new ConcurrentHashMap<String, Inbound>();
+   }
+
+   // Returns the messages sent to the receiver, grouped by sender in account
+   // order and in the order each sender added them.
+   public List<Item> inboundMessages(String receiver) {
+
+      ArrayList<Item> messages = new ArrayList<Item>();
+      Inbound entry = inbound.get(receiver);
+
+      if (entry != null) {
+         synchronized (entry) {
+            for (List<Item> sent : entry.bySender.values()) {
+               messages.addAll(sent);
+            }
+         }
+      }
+      return messages;
+   }
+
+   // Returns the accounts that have sent messages to the receiver, sorted.
+   public SortedSet<String> inboundSenders(String receiver) {
+
+      TreeSet<String> senders = new TreeSet<String>();
+      Inbound entry = inbound.get(receiver);
+
+      if (entry != null) {
+         synchronized (entry) {
+            senders.addAll(entry.bySender.keySet());
+         }
+      }
+      return senders;
+   }
+
+   // Returns the sum of the charges of the messages sent to the receiver,
+   // in Money units.
+   public long inboundCharges(String receiver) {
+
+      Inbound entry = inbound.get(receiver);
+
+      if (entry == null) {
+         return 0;
+      }
+      synchronized (entry) {
+         return entry.charges;
+      }
+   }
+
+   public int inboundCount(String receiver) {
+
+      Inbound entry = inbound.get(receiver);
+
+      if (entry == null) {
+         return 0;
+      }
+      synchronized (entry) {
+         return entry.size;
+      }
+   }
+
+   public int receiverCount() {
+      return inbound.size();
+   }
+
+   protected void index(Item messageItem) {
+
+      String receiver = messageItem.getTo();
+
+      while (true) {
+         Inbound entry = inbound.get(receiver);
+
+         if (entry == null) {
+            Inbound created = new Inbound();
+            entry = inbound.putIfAbsent(receiver, created);
+            if (entry == null) {
+               entry = created;
+            }
+         }
+         synchronized (entry) {
+            if (!entry.removed) {
+               entry.add(messageItem);
+               return;
+            }
+         }
+      }
+   }
+
+   // The last inbound message of a receiver removes its entry, and an add
+   // that finds the entry removed starts over with a new one.
+   protected void unindex(Item messageItem) {
+
+      String receiver = messageItem.getTo();
+      Inbound entry = inbound.get(receiver);
+
+      if (entry == null) {
+         return;
+      }
+      synchronized (entry) {
+         entry.remove(messageItem);
+         if (entry.size == 0 && !entry.removed) {
+            entry.removed = true;
+            inbound.remove(receiver, entry);
+         }
+      }
+   }
+
+   // The inbound messages of one receiver by sender, in account order, how
+   // many there are and the total of their charges.
+   private static class Inbound {
+
+      private TreeMap<String, ArrayList<Item>> bySender =
+            new TreeMap<String, ArrayList<Item>>();
+      private int size;
+      private long charges;
+      private boolean removed;
+
+      public void add(Item messageItem) {
+
+         long total = Money.add(charges, messageItem.getCharge());
+         ArrayList<Item> sent = bySender.get(messageItem.getFrom());
+
+         if (sent == null) {
+            sent = new ArrayList<Item>(2);
+            bySender.put(messageItem.getFrom(), sent);
+         }
+         sent.add(messageItem);
+         size++;
+         charges = total;
+      }
+
+      // Removes the message from its sender's messages. A store that builds
+      // its Items on demand hands back another instance than the one that
+      // was indexed, so the first message equal to it is removed then.
+      public void remove(Item messageItem) {
+
+         ArrayList<Item> sent = bySender.get(messageItem.getFrom());
+
+         if (sent == null) {
+            return;
+         }
+
+         int index = sent.indexOf(messageItem);
+
+         if (index < 0) {
+            for (int i = 0; i < sent.size() && index < 0; i++) {
+               if (same(sent.get(i), messageItem)) {
+                  index = i;
+               }
+            }
+         }
+         if (index < 0) {
+            return;
+         }
+         sent.remove(index);
+         if (sent.isEmpty()) {
+            bySender.remove(messageItem.getFrom());
+         }
+         size--;
+         charges = Money.subtract(charges, messageItem.getCharge());
+      }
+
+      private static boolean same(Item first, Item second) {
+         return first.getTime() == second.getTime()
+               && first.getCharge() == second.getCharge()
+               && ((Message<?>) first).getFormat().toString().equals(
+                     ((Message<?>) second).getFormat().toString());
+      }
+   }
+}
@@ -0,0 +1,331 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: RecordPipeline.java
+//Program Purpose: RecordPipeline.java loads messages in three stages that
+//run at the same time, each on its own thread: reading chunks of lines
+//from a RecordSource, parsing each chunk into a batch, and inserting the
+//batches into the store. A batch holds the chunk's messages sorted by
+//account number, so the insert stage adds each account's messages at once
+//and visits the accounts in order. The stages are
+//joined by queues of carrier.pipeline.queue entries (4 by default); when
+//a later stage falls behind, the earlier one waits, so only a few chunks
+//are ever in memory. The chunks and batches go through the stages in
+//input order, so every account lists its messages in the same order the
+//input does. Lines that do not parse go to a DeadLetterFile if one is
+//given. Each stage counts what it did and how long it took, both in its
+//Stage and in Metrics.
+//----------------------------
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+//----------------------------
+class RecordPipeline {
+
+   private static final int QUEUE_CAPACITY = Integer.getInteger(
+         "carrier.pipeline.queue", 4);
+   // Passed on by a stage once its input is used up.
+   private static final ByteBuffer END_OF_CHUNKS = ByteBuffer.allocate(0);
+   private static final List<Item> END_OF_BATCHES = new ArrayList<Item>();
+   // Orders a batch by account. The sort is stable, so each account's
+   // messages stay in input order.
+   private static final Comparator<Item> BY_ACCOUNT = new Comparator<Item>() {
+      public int compare(Item a, Item b) {
+         return a.getFrom().compareTo(b.getFrom());
+      }
+   };
+
+   private RecordSource source;
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private DeadLetterFile deadLetters;
+   private BlockingQueue<ByteBuffer> chunks;
+   private BlockingQueue<List<Item>> batches;
+   private Stage read;
+   private Stage parse;
+   private Stage insert;
+   private Thread[] threads;
+   private AtomicReference<Throwable> failure;
+
+   public RecordPipeline(RecordSource source, SymbolTable numbers,
+         SymbolTable formats) {
+      this.source = source;
+      this.numbers = numbers;
+      this.formats = formats;
+      read = new Stage("read");
+      parse = new Stage("parse");
+      insert = new Stage("insert");
+   }
+
+   // See MappedRecordParser.setDeadLetters().
+   public void setDeadLetters(DeadLetterFile deadLetters) {
+      this.deadLetters = deadLetters;
+   }
+
+   // Loads everything the source delivers into the target, closes the
+   // source and returns how many messages were added. If a stage fails the
+   // others are stopped and its exception is thrown here.
+   public long load(final MessageStore target) throws IOException {
+
+      boolean interrupted = false;
+
+      chunks = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+      batches = new ArrayBlockingQueue<List<Item>>(QUEUE_CAPACITY);
+      failure = new AtomicReference<Throwable>();
+      threads = new Thread[] {
+            newStage(read, new Callable<Void>() {
+               public Void call() throws Exception {
+                  readChunks();
+                  return null;
+               }
+            }), newStage(parse, new Callable<Void>() {
+               public Void call() throws Exception {
+                  parseChunks();
+                  return null;
+               }
+            }), newStage(insert, new Callable<Void>() {
+               public Void call() throws Exception {
+                  insertBatches(target);
+                  return null;
+               }
+            }) };
+
+      try {
+         for (Thread thread : threads) {
+            thread.start();
+         }
+
+         // A stage that failed before the later ones started could not
+         // stop them.
+         if (failure.get() != null) {
+            interruptStages();
+         }
+
+         for (Thread thread : threads) {
+            while (thread.isAlive()) {
+               try {
+                  thread.join();
+               }
+               catch (InterruptedException e) {
+                  interrupted = true;
+                  fail(new InterruptedIOException("Interrupted while loading "
+                        + source));
+               }
+            }
+         }
+      }
+      finally {
+         source.close();
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      Throwable cause = failure.get();
+
+      if (cause instanceof IOException) {
+         throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+         throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+         throw (Error) cause;
+      }
+      if (cause != null) {
+         throw new IOException("Failed to load " + source, cause);
+      }
+      return insert.getItems();
+   }
+
+   // The read, parse and insert stages, in that order.
+   public List<Stage> getStages() {
+      return Arrays.asList(read, parse, insert);
+   }
+
+   private void readChunks() throws IOException, InterruptedException {
+      while (true) {
+         long start = System.nanoTime();
+         ByteBuffer chunk = source.next();
+         if (chunk == null) {
+            break;
+         }
+         read.done(1, chunk.remaining(), start);
+         read.put(chunks, chunk);
+      }
+      read.put(chunks, END_OF_CHUNKS);
+   }
+
+   private void parseChunks() throws IOException, InterruptedException {
+
+      MappedRecordParser parser = new MappedRecordParser(numbers, formats);
+
+      parser.setDeadLetters(deadLetters);
+      while (true) {
+         ByteBuffer chunk = parse.take(chunks);
+         if (chunk == END_OF_CHUNKS) {
+            break;
+         }
+         long start = System.nanoTime();
+         ArrayList<Item> batch = new ArrayList<Item>();
+         parser.parse(chunk, chunk.position(), chunk.limit(), batch);
+         Collections.sort(batch, BY_ACCOUNT);
+         parse.done(batch.size(), chunk.remaining(), start);
+         parse.put(batches, batch);
+      }
+      parse.put(batches, END_OF_BATCHES);
+   }
+
+   private void insertBatches(MessageStore target)
+         throws InterruptedException {
+      while (true) {
+         List<Item> batch = insert.take(batches);
+         if (batch == END_OF_BATCHES) {
+            break;
+         }
+         long start = System.nanoTime();
+         int from = 0;
+         while (from < batch.size()) {
+            String account = batch.get(from).getFrom();
+            int to = from + 1;
+            while (to < batch.size()
+                  && batch.get(to).getFrom().equals(account)) {
+               to++;
+            }
+            target.addAll(account, batch.subList(from, to));
+            from = to;
+         }
+         insert.done(batch.size(), 0, start);
+      }
+   }
+
+   private Thread newStage(Stage stage, final Callable<Void> body) {
+
+      Thread thread = new Thread(new Runnable() {
+         public void run() {
+            try {
+               body.call();
+            }
+            catch (InterruptedException e) {
+               // Another stage failed and stopped this one.
+            }
+            catch (Exception e) {
+               fail(e);
+            }
+            catch (Error e) {
+               fail(e);
+            }
+         }
+      }, "pipeline-" + stage.getName());
+
+      thread.setDaemon(true);
+      return thread;
+   }
+
+   // Keeps the first failure and stops every stage. Closing the source
+   // stops a read that is waiting for input.
+   private void fail(Throwable cause) {
+      if (failure.compareAndSet(null, cause)) {
+         interruptStages();
+         try {
+            source.close();
+         }
+         catch (IOException e) {
+            cause.addSuppressed(e);
+         }
+      }
+   }
+
+   private void interruptStages() {
+      for (Thread thread : threads) {
+         thread.interrupt();
+      }
+   }
+
+   // What one stage did: how many items (chunks read, or messages parsed
+   // or inserted) and bytes, the time it spent on them and the time it
+   // spent waiting for the stages next to it. Read it once load() returns.
+   static class Stage {
+
+      private String name;
+      private long items;
+      private long bytes;
+      private long busyNanos;
+      private long waitNanos;
+
+      public Stage(String name) {
+         this.name = name;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public long getItems() {
+         return items;
+      }
+
+      public long getBytes() {
+         return bytes;
+      }
+
+      public long getBusyNanos() {
+         return busyNanos;
+      }
+
+      // Time spent waiting for input from the stage before or for room in
+      // the queue to the stage after.
+      public long getWaitNanos() {
+         return waitNanos;
+      }
+
+      public double getItemsPerSecond() {
+         return busyNanos == 0 ? 0 : items * 1e9 / busyNanos;
+      }
+
+      public double getBytesPerSecond() {
+         return busyNanos == 0 ? 0 : bytes * 1e9 / busyNanos;
+      }
+
+      // Counts items and bytes that took the time since start.
+      private void done(long items, long bytes, long start) {
+
+         long busy = System.nanoTime() - start;
+
+         this.items += items;
+         this.bytes += bytes;
+         busyNanos += busy;
+         Metrics.stageProgress(name, items, bytes, busy);
+      }
+
+      private <T> T take(BlockingQueue<T> queue)
+            throws InterruptedException {
+
+         long start = System.nanoTime();
+         T item = queue.take();
+
+         waitNanos += System.nanoTime() - start;
+         return item;
+      }
+
+      private <T> void put(BlockingQueue<T> queue, T item)
+            throws InterruptedException {
+
+         long start = System.nanoTime();
+
+         queue.put(item);
+         waitNanos += System.nanoTime() - start;
+      }
+
+      public String toString() {
+         return String.format("%s: %d items, %d bytes in %.1f ms"
+               + " (%.0f items/s, %.1f MB/s), waited %.1f ms", name, items,
+               bytes, busyNanos / 1e6, getItemsPerSecond(),
+               getBytesPerSecond() / (1 << 20), waitNanos / 1e6);
+      }
+   }
+}
@@ -0,0 +1,232 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: RecordSource.java
+//Program Purpose: RecordSource.java is where a RecordPipeline gets its
+//input lines. A source hands out the input in chunks of whole lines, so
+//the parser never sees half a line. StreamRecordSource reads any stream,
+//such as a file, standard input or a socket, into chunks of about
+//carrier.pipeline.chunk kilobytes (1024 by default). MappedRecordSource
+//maps the input file and hands out pieces of the mapping without copying.
+//----------------------------
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+//----------------------------
+interface RecordSource extends Closeable {
+
+   int CHUNK_SIZE = Integer.getInteger("carrier.pipeline.chunk", 1024)
+         << 10;
+
+   // The next lines of input, from the buffer's position to its limit, or
+   // null once the input is exhausted. Every line but the last of the input
+   // ends with its new line.
+   ByteBuffer next() throws IOException;
+}
+
+class StreamRecordSource implements RecordSource {
+
+   private static final byte NEW_LINE = '\n';
+
+   private InputStream in;
+   private Closeable owner;
+   private String name;
+   // Bytes read after the last new line of the previous chunk.
+   private byte[] carry;
+   private int carryLength;
+   private boolean exhausted;
+
+   public StreamRecordSource(InputStream in, String name) {
+      this(in, in, name);
+   }
+
+   // owner is closed with the source.
+   private StreamRecordSource(InputStream in, Closeable owner,
+         String name) {
+      this.in = in;
+      this.owner = owner;
+      this.name = name;
+      carry = new byte[0];
+   }
+
+   public static StreamRecordSource open(Path inputFilePath)
+         throws IOException {
+      return new StreamRecordSource(Files.newInputStream(inputFilePath),
+            inputFilePath.toString());
+   }
+
+   // Reads the lines a server sends on a connection to host and port until
+   // it closes the connection.
+   public static StreamRecordSource connect(String host, int port)
+         throws IOException {
+
+      Socket socket = new Socket(host, port);
+
+      try {
+         return new StreamRecordSource(socket.getInputStream(), socket,
+               host + ":" + port);
+      }
+      catch (IOException e) {
+         socket.close();
+         throw e;
+      }
+   }
+
+   public ByteBuffer next() throws IOException {
+
+      if (exhausted) {
+         return null;
+      }
+
+      byte[] chunk = new byte[Math.max(CHUNK_SIZE, carryLength * 2)];
+      int length = carryLength;
+      int lineEnd = 0;
+
+      System.arraycopy(carry, 0, chunk, 0, carryLength);
+      while (true) {
+         int read = in.read(chunk, length, chunk.length - length);
+         if (read < 0) {
+            exhausted = true;
+            carryLength = 0;
+            return length == 0 ? null : ByteBuffer.wrap(chunk, 0, length);
+         }
+         length += read;
+         if (length < chunk.length) {
+            continue;
+         }
+         lineEnd = lastLineEnd(chunk, length);
+         if (lineEnd > 0) {
+            break;
+         }
+
+         // A line longer than the chunk.
+         chunk = Arrays.copyOf(chunk, chunk.length * 2);
+      }
+
+      carryLength = length - lineEnd;
+      if (carry.length < carryLength) {
+         carry = new byte[carryLength];
+      }
+      System.arraycopy(chunk, lineEnd, carry, 0, carryLength);
+      return ByteBuffer.wrap(chunk, 0, lineEnd);
+   }
+
+   private static int lastLineEnd(byte[] chunk, int length) {
+      for (int i = length - 1; i >= 0; i--) {
+         if (chunk[i] == NEW_LINE) {
+            return i + 1;
+         }
+      }
+      return 0;
+   }
+
+   public void close() throws IOException {
+      owner.close();
+   }
+
+   public String toString() {
+      return name;
+   }
+}
+
+class MappedRecordSource implements RecordSource {
+
+   private static final long MAP_WINDOW_SIZE = 1L << 28;
+   private static final byte NEW_LINE = '\n';
+
+   private Path inputFilePath;
+   private FileChannel channel;
+   private long size;
+   private MappedByteBuffer window;
+   private long windowPosition;
+   // Where the lines of the window end and the next chunk starts.
+   private int windowLimit;
+   private int position;
+
+   public MappedRecordSource(Path inputFilePath) throws IOException {
+      this.inputFilePath = inputFilePath;
+      channel = FileChannel.open(inputFilePath, StandardOpenOption.READ);
+      size = channel.size();
+   }
+
+   public ByteBuffer next() throws IOException {
+
+      if (window == null || position == windowLimit) {
+         if (!mapNextWindow()) {
+            return null;
+         }
+      }
+
+      int end = Math.min(windowLimit, position + CHUNK_SIZE);
+
+      if (end < windowLimit) {
+         end = lineEndAfter(window, end - 1, windowLimit);
+      }
+
+      ByteBuffer chunk = window.duplicate();
+      chunk.limit(end);
+      chunk.position(position);
+      position = end;
+      return chunk;
+   }
+
+   // The file offset of index 0 of the last chunk next() returned.
+   public long getWindowPosition() {
+      return windowPosition;
+   }
+
+   // Maps the lines after the current window, and returns false if there
+   // are none.
+   private boolean mapNextWindow() throws IOException {
+
+      long start = window == null ? 0 : windowPosition + windowLimit;
+
+      if (start >= size) {
+         return false;
+      }
+
+      long length = Math.min(MAP_WINDOW_SIZE, size - start);
+
+      window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      windowPosition = start;
+      windowLimit = (int) length;
+      position = 0;
+      if (start + length < size) {
+         int last = windowLimit;
+         while (last > 0 && window.get(last - 1) != NEW_LINE) {
+            last--;
+         }
+         if (last == 0) {
+            throw new IOException("Line at offset " + start
+                  + " is longer than " + MAP_WINDOW_SIZE + " bytes");
+         }
+         windowLimit = last;
+      }
+      return true;
+   }
+
+   // The end of the line that contains from, or limit.
+   private static int lineEndAfter(ByteBuffer buffer, int from, int limit) {
+      for (int i = from; i < limit; i++) {
+         if (buffer.get(i) == NEW_LINE) {
+            return i + 1;
+         }
+      }
+      return limit;
+   }
+
+   public void close() throws IOException {
+      channel.close();
+   }
+
+   public String toString() {
+      return inputFilePath.toString();
+   }
+}
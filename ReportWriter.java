@@ -0,0 +1,164 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ReportWriter.java
+//Program Purpose: ReportWriter.java renders the account listing without
+//String.format. Every field is appended to one reusable StringBuilder
+//and padded by hand to the same widths the toString() methods of Item,
+//Text, Media and Voice use, and the builder is written to the output in
+//large blocks instead of one print call per message. The bytes written
+//are the same as printing each message's toString().
+//----------------------------
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.*;
+//----------------------------
+class ReportWriter {
+
+   private static final int FLUSH_SIZE = 1 << 16;
+   private static final int PAYLOAD_WIDTH = 48;
+   private static final int TIME_WIDTH = 15;
+   private static final int FROM_WIDTH = 20;
+   private static final int TO_WIDTH = 18;
+   private static final String SEPARATOR =
+         "--------------------------------------------------";
+   private static final String NEW_LINE = System.lineSeparator();
+
+   private Writer out;
+   private StringBuilder builder;
+   private char[] chunk;
+
+   public ReportWriter(OutputStream out) {
+      this(out, outputCharset());
+   }
+
+   public ReportWriter(OutputStream out, Charset charset) {
+      this.out = new OutputStreamWriter(out, charset);
+      builder = new StringBuilder(FLUSH_SIZE * 2);
+      chunk = new char[FLUSH_SIZE * 2];
+   }
+
+   public void writeHeader() throws IOException {
+      pad(builder, "", 40 - "LIST OF ALL ACCOUNTS".length());
+      builder.append("LIST OF ALL ACCOUNTS").append(NEW_LINE);
+      builder.append(SEPARATOR).append(NEW_LINE);
+      flushIfFull();
+   }
+
+   public void writeAccount(AccountSnapshot account) throws IOException {
+      appendAccount(builder, account);
+      flushIfFull();
+   }
+
+   // Writes text that was rendered elsewhere, such as by appendAccount on
+   // another thread.
+   public void write(CharSequence rendered) throws IOException {
+      builder.append(rendered);
+      flushIfFull();
+   }
+
+   public void flush() throws IOException {
+      while (builder.length() > 0) {
+         int length = Math.min(builder.length(), chunk.length);
+         builder.getChars(0, length, chunk, 0);
+         out.write(chunk, 0, length);
+         builder.delete(0, length);
+      }
+      out.flush();
+   }
+
+   // Appends one account of the listing: its number, every message and the
+   // total, then the separator line.
+   public static void appendAccount(StringBuilder builder,
+         AccountSnapshot account) {
+
+      builder.append("Account: ").append(account.getNumber()).append(NEW_LINE);
+      for (Item element : account.getMessages()) {
+         appendMessage(builder, element);
+      }
+      builder.append("Total charges:  ");
+      Money.append(builder, account.getTotalCharges());
+      builder.append(NEW_LINE);
+      builder.append(SEPARATOR).append(NEW_LINE);
+   }
+
+   // Same text as element.toString().
+   public static void appendMessage(StringBuilder builder, Item element) {
+
+      MessageType type = MessageType.of(element);
+
+      if (type == null) {
+         builder.append(element.toString());
+         return;
+      }
+
+      Object payload = ((Message<?>) element).getFormat();
+      int start = builder.length();
+
+      switch (type) {
+      case TEXT:
+         builder.append("\tTEXT: ").append(((Text) payload).getContent());
+         break;
+      case MEDIA:
+         builder.append("\tMEDIA: Size: ").append(((Media) payload).getSize())
+               .append(" MB, Format: ").append(((Media) payload).getFormat());
+         break;
+      case VOICE:
+         builder.append("\tVOICE: Duration: ")
+               .append(((Voice) payload).getDuration()).append("(sec), Format:")
+               .append(((Voice) payload).getFormat());
+         break;
+      }
+      padTo(builder, start + PAYLOAD_WIDTH);
+
+      start = builder.length();
+      builder.append("Time:").append(element.getTime()).append(',');
+      padTo(builder, start + TIME_WIDTH);
+      builder.append(' ');
+
+      start = builder.length();
+      builder.append("From:").append(element.getFrom()).append(',');
+      padTo(builder, start + FROM_WIDTH);
+      builder.append(' ');
+
+      start = builder.length();
+      builder.append("To:").append(element.getTo()).append(',');
+      padTo(builder, start + TO_WIDTH);
+      builder.append(NEW_LINE);
+   }
+
+   private void flushIfFull() throws IOException {
+      if (builder.length() >= FLUSH_SIZE) {
+         flush();
+      }
+   }
+
+   private static void padTo(StringBuilder builder, int length) {
+      while (builder.length() < length) {
+         builder.append(' ');
+      }
+   }
+
+   private static void pad(StringBuilder builder, String text, int spaces) {
+      for (int i = 0; i < spaces; i++) {
+         builder.append(' ');
+      }
+      builder.append(text);
+   }
+
+   // The charset System.out encodes with, so the bytes match printing.
+   private static Charset outputCharset() {
+
+      String[] properties = { "stdout.encoding", "sun.stdout.encoding" };
+
+      for (String property : properties) {
+         String name = System.getProperty(property);
+         if (name != null && Charset.isSupported(name)) {
+            return Charset.forName(name);
+         }
+      }
+      return Charset.defaultCharset();
+   }
+}
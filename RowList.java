@@ -0,0 +1,99 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: RowList.java
+//Program Purpose: RowList.java holds the row numbers of one account's
+//messages for a store that keeps every message in a numbered row, such as
+//ColumnarMessageStore and OffHeapMessageStore, together with the total of
+//their charges. Rows are numbered in the order messages are added and
+//compaction keeps that order, so the account keeps one queue of rows for
+//every message type instead of a single list. The first message of a type
+//is the head of its queue and all of them are the whole queue, so erasing
+//never scans the account. The messages in the order they were added are
+//the queues merged by row number.
+//----------------------------
+import java.util.*;
+//----------------------------
+class RowList {
+
+   private IntQueue[] rows;
+   private long totalCharges;
+
+   public RowList() {
+      rows = new IntQueue[MessageType.values().length];
+      for (int i = 0; i < rows.length; i++) {
+         rows[i] = new IntQueue();
+      }
+   }
+
+   // Adds a row numbered above every row already in the list.
+   public void add(int row, MessageType type) {
+      rows[type.ordinal()].add(row);
+   }
+
+   // Removes and returns the first row of the type, or -1 if there is none.
+   public int removeFirst(MessageType type) {
+
+      IntQueue queue = rows[type.ordinal()];
+
+      return queue.isEmpty() ? -1 : queue.poll();
+   }
+
+   // Removes every row of the type and returns them in order.
+   public int[] removeAll(MessageType type) {
+
+      IntQueue queue = rows[type.ordinal()];
+      int[] removed = new int[queue.size()];
+
+      for (int i = 0; i < removed.length; i++) {
+         removed[i] = queue.poll();
+      }
+      return removed;
+   }
+
+   // Every row, in the order they were added.
+   public int[] rows() {
+
+      int[] merged = new int[size()];
+      int[] next = new int[rows.length];
+
+      for (int i = 0; i < merged.length; i++) {
+         int first = -1;
+         for (int type = 0; type < rows.length; type++) {
+            if (next[type] < rows[type].size() && (first < 0
+                  || rows[type].get(next[type])
+                        < rows[first].get(next[first]))) {
+               first = type;
+            }
+         }
+         merged[i] = rows[first].get(next[first]++);
+      }
+      return merged;
+   }
+
+   // Replaces every row with moved[row]. moved must keep the rows in order.
+   public void renumber(int[] moved) {
+      for (IntQueue queue : rows) {
+         for (int i = 0; i < queue.size(); i++) {
+            queue.set(i, moved[queue.get(i)]);
+         }
+      }
+   }
+
+   public int size() {
+
+      int size = 0;
+
+      for (IntQueue queue : rows) {
+         size += queue.size();
+      }
+      return size;
+   }
+
+   public long getTotalCharges() {
+      return totalCharges;
+   }
+
+   public void setTotalCharges(long totalCharges) {
+      this.totalCharges = totalCharges;
+   }
+}
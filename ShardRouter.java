@@ -0,0 +1,88 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ShardRouter.java
+//Program Purpose: ShardRouter.java decides which shard of a ShardedCarrier
+//owns an account. HashRouter spreads numbers evenly by a hash of their
+//characters. RangeRouter splits them at fixed prefixes, so shard i holds
+//the numbers from one bound up to the next and each site can own a range
+//such as an area code.
+//----------------------------
+import java.util.*;
+//----------------------------
+interface ShardRouter {
+
+   int shards();
+
+   int shardOf(String number);
+}
+
+class HashRouter implements ShardRouter {
+
+   private int shards;
+
+   public HashRouter(int shards) {
+      if (shards < 1) {
+         throw new IllegalArgumentException("Need at least one shard, not "
+               + shards);
+      }
+      this.shards = shards;
+   }
+
+   public int shards() {
+      return shards;
+   }
+
+   public int shardOf(String number) {
+      return shardOfHash(number.hashCode());
+   }
+
+   // Numbers share most of their leading characters, so the high bits of
+   // the hash are folded into the low ones before taking the remainder.
+   private int shardOfHash(int hash) {
+      hash ^= (hash >>> 16);
+      hash *= 0x85ebca6b;
+      hash ^= (hash >>> 13);
+      return Math.floorMod(hash, shards);
+   }
+
+   public String toString() {
+      return shards + " shards by hash";
+   }
+}
+
+class RangeRouter implements ShardRouter {
+
+   private String[] bounds;
+
+   // Shard 0 holds the numbers below bounds[0], shard i those from
+   // bounds[i - 1] up to bounds[i], and the last shard the rest. Numbers
+   // compare character by character, so a bound can be a prefix such as
+   // "1-500".
+   public RangeRouter(String[] bounds) {
+      this.bounds = bounds.clone();
+      for (int i = 1; i < bounds.length; i++) {
+         if (bounds[i - 1].compareTo(bounds[i]) >= 0) {
+            throw new IllegalArgumentException("Shard bounds are not in order: "
+                  + Arrays.toString(bounds));
+         }
+      }
+   }
+
+   public int shards() {
+      return bounds.length + 1;
+   }
+
+   public int shardOf(String number) {
+
+      int shard = 0;
+
+      while (shard < bounds.length && number.compareTo(bounds[shard]) >= 0) {
+         shard++;
+      }
+      return shard;
+   }
+
+   public String toString() {
+      return shards() + " shards split at " + Arrays.toString(bounds);
+   }
+}
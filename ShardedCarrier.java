@@ -0,0 +1,799 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ShardedCarrier.java
+//Program Purpose: ShardedCarrier.java splits the accounts of many sites
+//across independent shards so one process can use every core. Each shard
+//is a complete SmartCarrier with its own store and its own thread:
+//everything done to a shard runs on that thread, so no store is shared,
+//and adding shards adds maps instead of making any one map bigger or more
+//contended. A ShardRouter assigns every account to a shard by a hash of
+//its number or by number range.
+//
+//Loading parses every input file once, its chunks of lines in parallel on
+//a ParallelLoader's threads. Each chunk's messages are split by shard, in
+//file order, and handed to the shards' threads, which add them to their
+//stores while later chunks are parsed, so parsing costs the same however
+//many shards there are. A shard takes one chunk at a time; the loading
+//thread waits for a shard that is still busy with its previous one.
+//Operations on one account are routed to its shard. Erase sweeps run on
+//every shard at once and add up. A batch of disconnects is split by shard
+//and the reports put back together. The listing merges the shards'
+//sorted accounts back into one sorted report while the shards render the
+//next blocks of accounts. With indexes, a query about one account goes to
+//its shard, and a query about a receiver or about every account asks
+//every shard and adds up or merges their answers.
+//----------------------------
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+//----------------------------
+class ShardedCarrier implements IndexedQueries {
+
+   private static final int REPORT_BLOCK = 1 << 12;
+
+   private String location;
+   private ShardRouter router;
+   private SmartCarrier[] shards;
+   private ExecutorService[] threads;
+   private ReportWriter report;
+   private SymbolTable numbers;
+   private SymbolTable formats;
+   private boolean lazyText;
+   private boolean cacheText;
+   private boolean indexed;
+
+   public ShardedCarrier(String location, ShardRouter router,
+         MessageStore[] stores) {
+      this(location, router, stores, false);
+   }
+
+   // stores holds one empty store per shard of the router. If indexed,
+   // every shard keeps the indexes an indexed SmartCarrier keeps.
+   public ShardedCarrier(String location, ShardRouter router,
+         MessageStore[] stores, boolean indexed) {
+
+      if (stores.length != router.shards()) {
+         throw new IllegalArgumentException(router + " needs "
+               + router.shards() + " stores, not " + stores.length);
+      }
+
+      this.location = location;
+      this.router = router;
+      this.indexed = indexed;
+      numbers = new SymbolTable("numbers");
+      formats = new SymbolTable("formats");
+      shards = new SmartCarrier[stores.length];
+      threads = new ExecutorService[stores.length];
+
+      for (int i = 0; i < stores.length; i++) {
+         final String name = "shard-" + i;
+         shards[i] = new SmartCarrier(location + " " + name, stores[i],
+               indexed);
+         threads[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+               Thread thread = new Thread(task, name);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+   }
+
+   public int getShardCount() {
+      return shards.length;
+   }
+
+   // The shard's own carrier. Only use it from tasks run by onShard().
+   public SmartCarrier getShard(int shard) {
+      return shards[shard];
+   }
+
+   public ShardRouter getRouter() {
+      return router;
+   }
+
+   public void setLazyText(boolean lazyText, boolean cacheText) {
+      this.lazyText = lazyText;
+      this.cacheText = cacheText;
+      for (SmartCarrier shard : shards) {
+         shard.setLazyText(lazyText, cacheText);
+      }
+   }
+
+   // Parses the input files and adds every message to its sender's shard.
+   // Lines that do not parse go to the same dead letter file as an
+   // unsharded carrier's.
+   public void load(List<Path> inputFilePaths) throws IOException {
+
+      long start = Metrics.start();
+      ArrayList<Future<Void>> inserts = new ArrayList<Future<Void>>();
+
+      for (int i = 0; i < shards.length; i++) {
+         inserts.add(null);
+      }
+
+      try (DeadLetterFile deadLetters = new DeadLetterFile(
+            Paths.get(SmartCarrier.DEAD_LETTER_LOCATION))) {
+         for (Path inputFilePath : inputFilePaths) {
+            load(inputFilePath, deadLetters, inserts);
+         }
+         deadLetters.report(inputFilePaths.size() == 1
+               ? inputFilePaths.get(0) : inputFilePaths);
+      }
+      finally {
+         // Every chunk already handed out is added, even after a failure,
+         // so no shard thread is still loading once this returns.
+         for (Future<Void> insert : inserts) {
+            if (insert != null) {
+               await(insert);
+            }
+         }
+         Metrics.stop(Metrics.Operation.LOAD, start);
+      }
+   }
+
+   // inserts holds each shard's chunk that may still be being added.
+   private void load(Path inputFilePath, DeadLetterFile deadLetters,
+         final List<Future<Void>> inserts) throws IOException {
+
+      ParallelLoader loader = new ParallelLoader(
+            Runtime.getRuntime().availableProcessors(), numbers, formats);
+
+      loader.setDeadLetters(deadLetters);
+      if (lazyText) {
+         loader.setTextSource(new TextSource(inputFilePath, cacheText));
+      }
+      loader.parse(inputFilePath, new ParallelLoader.ChunkSink() {
+         public void accept(List<Item> messages) throws IOException {
+            insert(messages, inserts);
+         }
+      });
+   }
+
+   // Splits one chunk's messages by shard and hands every shard its share,
+   // once it has added its share of the chunk before.
+   private void insert(List<Item> messages, List<Future<Void>> inserts)
+         throws IOException {
+
+      ArrayList<ArrayList<Item>> byShard = new ArrayList<ArrayList<Item>>();
+
+      for (int i = 0; i < shards.length; i++) {
+         byShard.add(new ArrayList<Item>());
+      }
+      for (Item messageItem : messages) {
+         byShard.get(router.shardOf(messageItem.getFrom())).add(messageItem);
+      }
+
+      for (int i = 0; i < shards.length; i++) {
+         if (byShard.get(i).isEmpty()) {
+            continue;
+         }
+         if (inserts.get(i) != null) {
+            await(inserts.get(i));
+         }
+         final int shard = i;
+         final List<Item> share = byShard.get(i);
+         inserts.set(i, threads[i].submit(new Callable<Void>() {
+            public Void call() {
+               MessageStore store = shards[shard].getMessageStore();
+               for (Item messageItem : share) {
+                  store.add(messageItem);
+               }
+               return null;
+            }
+         }));
+      }
+   }
+
+   // Runs the task on the shard's thread and returns its result.
+   public <T> T onShard(int shard, Callable<T> task) throws IOException {
+      return await(threads[shard].submit(task));
+   }
+
+   public int accountCount() {
+
+      int accounts = 0;
+
+      for (Integer count : onEveryShard(new ShardTask<Integer>() {
+         public Integer call(SmartCarrier shard) {
+            return shard.getMessageStore().accountCount();
+         }
+      })) {
+         accounts += count;
+      }
+      return accounts;
+   }
+
+   public long messageCount() {
+
+      long messages = 0;
+
+      for (Long count : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.getMessageStore().messageCount();
+         }
+      })) {
+         messages += count;
+      }
+      return messages;
+   }
+
+   // Total charges of the account in Money units.
+   public long getTotalCharges(final String number)
+         throws InvalidAccountException {
+
+      Long charges = onShard(router.shardOf(number), new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            try {
+               return shard.getTotalCharges(number);
+            }
+            catch (InvalidAccountException e) {
+               return null;
+            }
+         }
+      });
+
+      if (charges == null) {
+         throw new InvalidAccountException(number);
+      }
+      return charges;
+   }
+
+   // Lists every account of every shard in number order, the same report a
+   // single carrier with all the accounts would print.
+   public void listAllAccounts(ReportWriter report) throws IOException {
+
+      long start = Metrics.start();
+      PriorityQueue<Cursor> next = new PriorityQueue<Cursor>(shards.length,
+            new Comparator<Cursor>() {
+               public int compare(Cursor a, Cursor b) {
+                  return a.number().compareTo(b.number());
+               }
+            });
+
+      report.writeHeader();
+      for (int i = 0; i < shards.length; i++) {
+         Cursor cursor = new Cursor(i);
+         if (cursor.hasNext()) {
+            next.add(cursor);
+         }
+      }
+      while (!next.isEmpty()) {
+         Cursor cursor = next.poll();
+         report.write(cursor.rendered());
+         cursor.advance();
+         if (cursor.hasNext()) {
+            next.add(cursor);
+         }
+      }
+      report.flush();
+      Metrics.stop(Metrics.Operation.LIST_ALL_ACCOUNTS, start);
+   }
+
+   // Removes the first message of the type from every account of every
+   // shard and returns how many were removed.
+   public long eraseFirst(final MessageType type) {
+
+      long removed = 0;
+
+      for (Long count : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.eraseFirst(type);
+         }
+      })) {
+         removed += count;
+      }
+      return removed;
+   }
+
+   public long eraseAll(final MessageType type) {
+
+      long removed = 0;
+
+      for (Long count : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.eraseAll(type);
+         }
+      })) {
+         removed += count;
+      }
+      return removed;
+   }
+
+   // Removes the account from its shard and returns its messages and total
+   // charges.
+   public AccountSnapshot disconnect(final String number)
+         throws InvalidAccountException {
+
+      AccountSnapshot account = onShard(router.shardOf(number),
+            new ShardTask<AccountSnapshot>() {
+               public AccountSnapshot call(SmartCarrier shard) {
+                  try {
+                     return shard.disconnect(number);
+                  }
+                  catch (InvalidAccountException e) {
+                     return null;
+                  }
+               }
+            });
+
+      if (account == null) {
+         throw new InvalidAccountException(number);
+      }
+      return account;
+   }
+
+   // Disconnects every account in numbers, each shard its own share at
+   // the same time, and reports them together.
+   public DisconnectReport disconnectAll(Collection<String> numbers) {
+
+      final ArrayList<ArrayList<String>> byShard =
+            new ArrayList<ArrayList<String>>();
+
+      for (int i = 0; i < shards.length; i++) {
+         byShard.add(new ArrayList<String>());
+      }
+      for (String number : numbers) {
+         byShard.get(router.shardOf(number)).add(number);
+      }
+
+      ArrayList<Future<DisconnectReport>> parts =
+            new ArrayList<Future<DisconnectReport>>();
+
+      for (int i = 0; i < shards.length; i++) {
+         final int shard = i;
+         parts.add(threads[i].submit(new Callable<DisconnectReport>() {
+            public DisconnectReport call() {
+               return shards[shard].disconnectAll(byShard.get(shard));
+            }
+         }));
+      }
+
+      ArrayList<DisconnectReport> reports = new ArrayList<DisconnectReport>();
+
+      for (Future<DisconnectReport> part : parts) {
+         reports.add(awaitUnchecked(part));
+      }
+      return new DisconnectReport(reports);
+   }
+
+   public DisconnectReport disconnectAll(Path numbersFile)
+         throws IOException {
+
+      ArrayList<String> batch = new ArrayList<String>();
+      String line = null;
+
+      try (BufferedReader reader = Files.newBufferedReader(numbersFile,
+            StandardCharsets.US_ASCII)) {
+         while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+               batch.add(line);
+            }
+         }
+      }
+      return disconnectAll(batch);
+   }
+
+   public boolean isIndexed() {
+      return indexed;
+   }
+
+   // The messages sent to the number from every shard, grouped by sender
+   // in account order. Each shard's are already grouped that way and no
+   // two shards share a sender, so a stable sort by sender merges them.
+   public List<Item> getInboundMessages(final String number) {
+
+      ArrayList<Item> messages = new ArrayList<Item>();
+
+      for (List<Item> part : onEveryShard(new ShardTask<List<Item>>() {
+         public List<Item> call(SmartCarrier shard) {
+            return shard.getInboundMessages(number);
+         }
+      })) {
+         messages.addAll(part);
+      }
+
+      Collections.sort(messages, new Comparator<Item>() {
+         public int compare(Item first, Item second) {
+            return first.getFrom().compareTo(second.getFrom());
+         }
+      });
+      return messages;
+   }
+
+   public long getInboundCharges(final String number) {
+
+      long charges = 0;
+
+      for (Long part : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.getInboundCharges(number);
+         }
+      })) {
+         charges = Money.add(charges, part);
+      }
+      return charges;
+   }
+
+   public List<Item> getMessages(final String number, final int from,
+         final int to) throws InvalidAccountException {
+
+      List<Item> messages = onShard(router.shardOf(number),
+            new ShardTask<List<Item>>() {
+               public List<Item> call(SmartCarrier shard) {
+                  try {
+                     return shard.getMessages(number, from, to);
+                  }
+                  catch (InvalidAccountException e) {
+                     return null;
+                  }
+               }
+            });
+
+      if (messages == null) {
+         throw new InvalidAccountException(number);
+      }
+      return messages;
+   }
+
+   public long getTotalCharges(final String number, final int from,
+         final int to) throws InvalidAccountException {
+
+      Long charges = onShard(router.shardOf(number), new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            try {
+               return shard.getTotalCharges(number, from, to);
+            }
+            catch (InvalidAccountException e) {
+               return null;
+            }
+         }
+      });
+
+      if (charges == null) {
+         throw new InvalidAccountException(number);
+      }
+      return charges;
+   }
+
+   // Every shard's traffic in [from, to), ordered by time and, for equal
+   // times, by account, as each shard's already is.
+   public List<Item> getTraffic(final int from, final int to) {
+
+      ArrayList<Item> messages = new ArrayList<Item>();
+
+      for (List<Item> part : onEveryShard(new ShardTask<List<Item>>() {
+         public List<Item> call(SmartCarrier shard) {
+            return shard.getTraffic(from, to);
+         }
+      })) {
+         messages.addAll(part);
+      }
+
+      Collections.sort(messages, new Comparator<Item>() {
+         public int compare(Item first, Item second) {
+            int order = Integer.compare(first.getTime(), second.getTime());
+            return order != 0 ? order
+                  : first.getFrom().compareTo(second.getFrom());
+         }
+      });
+      return messages;
+   }
+
+   public long getTrafficCount(final int from, final int to) {
+
+      long count = 0;
+
+      for (Long part : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.getTrafficCount(from, to);
+         }
+      })) {
+         count += part;
+      }
+      return count;
+   }
+
+   public long getTrafficCharges(final int from, final int to) {
+
+      long charges = 0;
+
+      for (Long part : onEveryShard(new ShardTask<Long>() {
+         public Long call(SmartCarrier shard) {
+            return shard.getTrafficCharges(from, to);
+         }
+      })) {
+         charges = Money.add(charges, part);
+      }
+      return charges;
+   }
+
+   public Usage getUsage(final String number, final MessageType type,
+         final String format) {
+      return onShard(router.shardOf(number), new ShardTask<Usage>() {
+         public Usage call(SmartCarrier shard) {
+            return shard.getUsage(number, type, format);
+         }
+      });
+   }
+
+   public SortedMap<String, Usage> getUsageByFormat(final String number,
+         final MessageType type) {
+      return onShard(router.shardOf(number),
+            new ShardTask<SortedMap<String, Usage>>() {
+               public SortedMap<String, Usage> call(SmartCarrier shard) {
+                  return shard.getUsageByFormat(number, type);
+               }
+            });
+   }
+
+   public Usage getTotalUsage(final MessageType type, final String format) {
+
+      Usage usage = Usage.NONE;
+
+      for (Usage part : onEveryShard(new ShardTask<Usage>() {
+         public Usage call(SmartCarrier shard) {
+            return shard.getTotalUsage(type, format);
+         }
+      })) {
+         usage = usage.add(part);
+      }
+      return usage;
+   }
+
+   public SortedMap<String, Usage> getTotalUsageByFormat(
+         final MessageType type) {
+
+      TreeMap<String, Usage> usage = new TreeMap<String, Usage>();
+
+      for (SortedMap<String, Usage> part : onEveryShard(
+            new ShardTask<SortedMap<String, Usage>>() {
+               public SortedMap<String, Usage> call(SmartCarrier shard) {
+                  return shard.getTotalUsageByFormat(type);
+               }
+            })) {
+         for (Map.Entry<String, Usage> format : part.entrySet()) {
+            Usage total = usage.get(format.getKey());
+            usage.put(format.getKey(), total == null ? format.getValue()
+                  : total.add(format.getValue()));
+         }
+      }
+      return usage;
+   }
+
+   // The same menu as SmartCarrier.run(), over every shard.
+   public void run() {
+
+      int userInput = 0;
+      BufferedReader reader = new BufferedReader(
+            new InputStreamReader(System.in));
+
+      final int LIST_ALL_ACCOUNTS = 1;
+      final int ERASE_FIRST_MEDIA = 2;
+      final int DISCONNECT_ACCOUNT = 3;
+      final int QUIT = 4;
+
+      do {
+         SmartCarrier.printMenu(location, indexed);
+         try {
+            userInput = Integer.parseInt(reader.readLine());
+            switch (userInput) {
+            case LIST_ALL_ACCOUNTS:
+               if (report == null) {
+                  report = new ReportWriter(System.out);
+               }
+               listAllAccounts(report);
+               break;
+            case ERASE_FIRST_MEDIA:
+               eraseFirst(MessageType.MEDIA);
+               break;
+            case DISCONNECT_ACCOUNT:
+               disconnectAccount(reader);
+               break;
+            default:
+               if (indexed) {
+                  QueryMenu.run(userInput, this, reader);
+               }
+               break;
+            }
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+      while (userInput != QUIT);
+
+      shutdown();
+   }
+
+   public void shutdown() {
+      for (ExecutorService thread : threads) {
+         thread.shutdown();
+      }
+   }
+
+   private void disconnectAccount(BufferedReader reader) throws IOException {
+
+      String userInput = null;
+      AccountSnapshot account = null;
+
+      try {
+         System.out.println("Enter the phone number of the account"
+               + " you would like to disconnect: ");
+         userInput = reader.readLine();
+
+         account = disconnect(userInput);
+         System.out.print("Total charges for account " + userInput + ": ");
+         System.out.println(Money.format(account.getTotalCharges()));
+      }
+
+      catch (InvalidAccountException e) {
+         System.out
+               .println("Account " + e.getPhoneNumber() + " does not exist!");
+      }
+   }
+
+   private <T> List<T> onEveryShard(final ShardTask<T> task) {
+
+      ArrayList<Future<T>> results = new ArrayList<Future<T>>();
+      ArrayList<T> values = new ArrayList<T>();
+
+      for (int i = 0; i < shards.length; i++) {
+         final SmartCarrier shard = shards[i];
+         results.add(threads[i].submit(new Callable<T>() {
+            public T call() {
+               return task.call(shard);
+            }
+         }));
+      }
+      for (Future<T> result : results) {
+         values.add(awaitUnchecked(result));
+      }
+      return values;
+   }
+
+   private <T> T onShard(int shard, final ShardTask<T> task) {
+
+      final SmartCarrier carrier = shards[shard];
+
+      return awaitUnchecked(threads[shard].submit(new Callable<T>() {
+         public T call() {
+            return task.call(carrier);
+         }
+      }));
+   }
+
+   // Waits for a task that throws no checked exception, passing on what it
+   // throws.
+   private static <T> T awaitUnchecked(Future<T> result) {
+      try {
+         return await(result);
+      }
+      catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static <T> T await(Future<T> result) throws IOException {
+
+      boolean interrupted = false;
+
+      try {
+         while (true) {
+            try {
+               return result.get();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+      }
+      catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IllegalStateException(cause);
+      }
+      finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   private interface ShardTask<T> {
+      T call(SmartCarrier shard);
+   }
+
+   // One shard's accounts in number order, rendered a block at a time on the
+   // shard's thread. The block after the current one is rendered while the
+   // current one is being written.
+   private class Cursor {
+
+      private int shard;
+      private String[] numbers;
+      private String[] block;
+      private int blockStart;
+      private int position;
+      private Future<String[]> following;
+
+      public Cursor(int shard) {
+         this.shard = shard;
+         numbers = onShard(shard, new ShardTask<String[]>() {
+            public String[] call(SmartCarrier carrier) {
+               return carrier.getMessageStore().accounts()
+                     .toArray(new String[0]);
+            }
+         });
+         following = render(0);
+         nextBlock();
+      }
+
+      public boolean hasNext() {
+         return position < numbers.length;
+      }
+
+      public String number() {
+         return numbers[position];
+      }
+
+      public String rendered() {
+         return block[position - blockStart];
+      }
+
+      public void advance() {
+         position++;
+         if (position == blockStart + block.length && hasNext()) {
+            nextBlock();
+         }
+      }
+
+      private void nextBlock() {
+         blockStart = position;
+         block = awaitUnchecked(following);
+         following = render(blockStart + block.length);
+      }
+
+      private Future<String[]> render(final int from) {
+
+         final int to = Math.min(numbers.length, from + REPORT_BLOCK);
+         final SmartCarrier carrier = shards[shard];
+
+         return threads[shard].submit(new Callable<String[]>() {
+            public String[] call() {
+               MessageStore store = carrier.getMessageStore();
+               String[] rendered = new String[to - from];
+               StringBuilder builder = new StringBuilder();
+               for (int i = from; i < to; i++) {
+                  AccountSnapshot account = store.snapshot(numbers[i]);
+                  builder.setLength(0);
+                  if (account != null) {
+                     ReportWriter.appendAccount(builder, account);
+                  }
+                  rendered[i - from] = builder.toString();
+               }
+               return rendered;
+            }
+         });
+      }
+   }
+}
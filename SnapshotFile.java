@@ -0,0 +1,497 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: SnapshotFile.java
+//Program Purpose: SnapshotFile.java saves the accounts of a MessageStore in
+//a compact binary file and loads them back without parsing any text.
+//Phone numbers and formats are written once in a dictionary and messages
+//refer to them by id, lengths and ids are variable length integers, and
+//the body is covered by a CRC32C checksum that is checked before anything
+//is loaded. The header also records how far into the text input file the
+//saved state reaches, so a follower can carry on from there. Run as a
+//program it converts a text input file into a snapshot.
+//
+//Layout (big endian):
+//  int magic, int version, long source offset, long body length
+//  body: Money scale of the charges, number dictionary, format
+//        dictionary, then every account as number id, message count and
+//        its messages in order
+//  int CRC32C of the body
+//----------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+//----------------------------
+class SnapshotFile {
+
+   private static final int MAGIC = 0x43435350;
+   private static final int VERSION = 2;
+   private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+   private static final int BUFFER_SIZE = 1 << 20;
+
+   public static void main(String[] args) {
+
+      if (args.length != 2) {
+         System.out.println("Usage: java SnapshotFile <messages.txt>"
+               + " <messages.snapshot>");
+         return;
+      }
+
+      MessageStore store = new TreeMapMessageStore();
+      MappedRecordParser parser = new MappedRecordParser();
+
+      try (DeadLetterFile deadLetters = new DeadLetterFile(
+            Paths.get(args[1] + ".rejected"))) {
+         parser.setDeadLetters(deadLetters);
+         long offset = parser.load(Paths.get(args[0]), store);
+         deadLetters.report(args[0]);
+         write(Paths.get(args[1]), store, offset);
+         System.out.println("Wrote " + store.messageCount() + " messages in "
+               + store.accountCount() + " accounts to " + args[1]);
+      }
+      catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // Writes every account of the store. sourceOffset is how many bytes of
+   // the text input the store reflects, or -1 if that is not known.
+   // Returns the checksum of the snapshot.
+   public static long write(Path snapshotPath, MessageStore store,
+         long sourceOffset) throws IOException {
+
+      Path temporary = temporaryPath(snapshotPath);
+      long checksum = writeTemporary(temporary, store, sourceOffset);
+
+      Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      return checksum;
+   }
+
+   // Where write() puts the snapshot before moving it over snapshotPath.
+   public static Path temporaryPath(Path snapshotPath) {
+      return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+   }
+
+   // Writes a complete snapshot to the temporary path and forces it to disk,
+   // leaving it to the caller to move it into place. Returns its checksum.
+   // The store is read twice, first for the dictionaries, which come first
+   // in the file, then for the messages, one account at a time, so only
+   // one account's messages are on the heap at once. Accounts and messages
+   // added in between, such as by a follower, are left out, and an account
+   // removed in between is saved without messages.
+   public static long writeTemporary(Path temporary, MessageStore store,
+         long sourceOffset) throws IOException {
+
+      SymbolTable numbers = new SymbolTable("numbers");
+      SymbolTable formats = new SymbolTable("formats");
+      ArrayList<String> accounts = new ArrayList<String>();
+
+      for (String number : store.accounts()) {
+         AccountSnapshot account = store.snapshot(number);
+         if (account == null) {
+            continue;
+         }
+         accounts.add(number);
+         numbers.id(number);
+         for (Item messageItem : account.getMessages()) {
+            numbers.id(messageItem.getTo());
+            String format = format(messageItem);
+            if (format != null) {
+               formats.id(format);
+            }
+         }
+      }
+
+      try (FileChannel channel = FileChannel.open(temporary,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+
+         Output out = new Output(channel, HEADER_SIZE);
+
+         out.varInt(Money.SCALE);
+         writeDictionary(out, numbers);
+         writeDictionary(out, formats);
+         out.varInt(accounts.size());
+         for (String number : accounts) {
+            writeAccount(out, number, store.snapshot(number), numbers,
+                  formats);
+         }
+         long bodyLength = out.finish();
+
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         header.putInt(MAGIC).putInt(VERSION).putLong(sourceOffset)
+               .putLong(bodyLength).flip();
+         channel.write(header, 0);
+
+         ByteBuffer trailer = ByteBuffer.allocate(4);
+         trailer.putInt((int) out.checksum()).flip();
+         channel.write(trailer, HEADER_SIZE + bodyLength);
+         channel.force(true);
+         return out.checksum();
+      }
+   }
+
+   // Checks the header, length and checksum, then appends every saved
+   // account to the store. Returns the source offset saved with it.
+   public static long read(Path snapshotPath, MessageStore store,
+         SymbolTable numberSymbols, SymbolTable formatSymbols)
+         throws IOException {
+
+      try (FileChannel channel = FileChannel.open(snapshotPath,
+            StandardOpenOption.READ)) {
+
+         ByteBuffer header = readHeader(channel);
+         long sourceOffset = header.getLong(8);
+         long bodyLength = header.getLong(16);
+
+         verify(channel, bodyLength);
+
+         Input in = new Input(channel, HEADER_SIZE);
+         int scale = in.varInt();
+         String[] numbers = readDictionary(in, numberSymbols);
+         String[] formats = readDictionary(in, formatSymbols);
+         int accountCount = in.varInt();
+
+         for (int i = 0; i < accountCount; i++) {
+            String number = numbers[in.varInt()];
+            int messageCount = in.varInt();
+            ArrayList<Item> messages = new ArrayList<Item>(messageCount);
+            for (int j = 0; j < messageCount; j++) {
+               messages.add(readMessage(in, number, numbers, formats,
+                     scale));
+            }
+            store.addAll(number, messages);
+         }
+         return sourceOffset;
+      }
+   }
+
+   // Returns the source offset saved in the snapshot header, or -1 if it
+   // was not known when the snapshot was written.
+   public static long sourceOffset(Path snapshotPath) throws IOException {
+
+      try (FileChannel channel = FileChannel.open(snapshotPath,
+            StandardOpenOption.READ)) {
+         return readHeader(channel).getLong(8);
+      }
+   }
+
+   // Returns the checksum stored in the snapshot, without checking the body
+   // against it. Snapshots of different states have different checksums.
+   public static long checksum(Path snapshotPath) throws IOException {
+
+      try (FileChannel channel = FileChannel.open(snapshotPath,
+            StandardOpenOption.READ)) {
+
+         long bodyLength = readHeader(channel).getLong(16);
+         ByteBuffer trailer = ByteBuffer.allocate(4);
+
+         while (trailer.hasRemaining()) {
+            if (channel.read(trailer, HEADER_SIZE + bodyLength
+                  + trailer.position()) < 0) {
+               throw new IOException("Snapshot ends early");
+            }
+         }
+         return trailer.getInt(0) & 0xffffffffL;
+      }
+   }
+
+   private static ByteBuffer readHeader(FileChannel channel)
+         throws IOException {
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+      while (header.hasRemaining()) {
+         if (channel.read(header, header.position()) < 0) {
+            throw new IOException("Snapshot is shorter than its header");
+         }
+      }
+      if (header.getInt(0) != MAGIC) {
+         throw new IOException("Not a message snapshot");
+      }
+      if (header.getInt(4) != VERSION) {
+         throw new IOException("Unsupported snapshot version "
+               + header.getInt(4));
+      }
+      return header;
+   }
+
+   private static void verify(FileChannel channel, long bodyLength)
+         throws IOException {
+
+      if (channel.size() != HEADER_SIZE + bodyLength + 4) {
+         throw new IOException("Snapshot is " + channel.size()
+               + " bytes but its header says "
+               + (HEADER_SIZE + bodyLength + 4));
+      }
+
+      CRC32C crc = new CRC32C();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      long position = HEADER_SIZE;
+      long end = HEADER_SIZE + bodyLength;
+
+      while (position < end) {
+         buffer.clear();
+         buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+         int read = channel.read(buffer, position);
+         if (read < 0) {
+            throw new IOException("Snapshot ends early");
+         }
+         buffer.flip();
+         crc.update(buffer);
+         position += read;
+      }
+
+      ByteBuffer trailer = ByteBuffer.allocate(4);
+      channel.read(trailer, end);
+      if (trailer.getInt(0) != (int) crc.getValue()) {
+         throw new IOException("Snapshot checksum does not match");
+      }
+   }
+
+   private static String format(Item messageItem) {
+
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      if (payload instanceof Media) {
+         return ((Media) payload).getFormat();
+      }
+
+      else if (payload instanceof Voice) {
+         return ((Voice) payload).getFormat();
+      }
+      return null;
+   }
+
+   private static void writeDictionary(Output out, SymbolTable symbols)
+         throws IOException {
+
+      int count = symbols.getUniqueCount();
+
+      out.varInt(count);
+      for (int id = 0; id < count; id++) {
+         out.string(symbols.value(id));
+      }
+   }
+
+   private static String[] readDictionary(Input in, SymbolTable symbols)
+         throws IOException {
+
+      String[] values = new String[in.varInt()];
+
+      for (int id = 0; id < values.length; id++) {
+         values[id] = symbols.intern(in.string());
+      }
+      return values;
+   }
+
+   // Writes the account's messages whose receiver and format are in the
+   // dictionaries. A null account is written without messages.
+   private static void writeAccount(Output out, String number,
+         AccountSnapshot account, SymbolTable numbers, SymbolTable formats)
+         throws IOException {
+
+      ArrayList<Item> messages = new ArrayList<Item>();
+
+      if (account != null) {
+         for (Item messageItem : account.getMessages()) {
+            String format = format(messageItem);
+            if (numbers.hasId(messageItem.getTo())
+                  && (format == null || formats.hasId(format))) {
+               messages.add(messageItem);
+            }
+         }
+      }
+      out.varInt(numbers.id(number));
+      out.varInt(messages.size());
+      for (Item messageItem : messages) {
+         writeMessage(out, messageItem, numbers, formats);
+      }
+   }
+
+   private static void writeMessage(Output out, Item messageItem,
+         SymbolTable numbers, SymbolTable formats) throws IOException {
+
+      MessageType type = MessageType.of(messageItem);
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      out.ensure(1 + 4 + 8);
+      out.buffer.put((byte) type.ordinal());
+      out.buffer.putInt(messageItem.getTime());
+      out.buffer.putLong(messageItem.getCharge());
+      out.varInt(numbers.id(messageItem.getTo()));
+
+      switch (type) {
+      case TEXT:
+         out.string(((Text) payload).getContent());
+         break;
+      case MEDIA:
+         out.ensure(8);
+         out.buffer.putDouble(((Media) payload).getSize());
+         out.varInt(formats.id(((Media) payload).getFormat()));
+         break;
+      case VOICE:
+         out.ensure(4);
+         out.buffer.putInt(((Voice) payload).getDuration());
+         out.varInt(formats.id(((Voice) payload).getFormat()));
+         break;
+      }
+   }
+
+   private static Item readMessage(Input in, String number, String[] numbers,
+         String[] formats, int scale) throws IOException {
+
+      in.ensure(1 + 4 + 8);
+      byte type = in.buffer.get();
+      int time = in.buffer.getInt();
+      long charge = Money.rescale(in.buffer.getLong(), scale);
+      String receiver = numbers[in.varInt()];
+
+      switch (MessageType.values()[type]) {
+      case TEXT:
+         return new Message<Text>(time, number, receiver, charge,
+               new Text(in.string()));
+      case MEDIA: {
+         in.ensure(8);
+         double size = in.buffer.getDouble();
+         return new Message<Media>(time, number, receiver, charge,
+               new Media(size, formats[in.varInt()]));
+      }
+      default: {
+         in.ensure(4);
+         int duration = in.buffer.getInt();
+         return new Message<Voice>(time, number, receiver, charge,
+               new Voice(duration, formats[in.varInt()]));
+      }
+      }
+   }
+
+   // Buffered writer for the body that keeps a running checksum of every
+   // byte it writes.
+   private static class Output {
+
+      private FileChannel channel;
+      private ByteBuffer buffer;
+      private CRC32C crc;
+      private long position;
+      private long start;
+
+      public Output(FileChannel channel, long start) {
+         this.channel = channel;
+         this.start = start;
+         position = start;
+         buffer = ByteBuffer.allocate(BUFFER_SIZE);
+         crc = new CRC32C();
+      }
+
+      public void ensure(int bytes) throws IOException {
+         if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+               buffer = ByteBuffer.allocate(bytes);
+            }
+         }
+      }
+
+      public void varInt(int value) throws IOException {
+         ensure(5);
+         while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+         }
+         buffer.put((byte) value);
+      }
+
+      public void string(String value) throws IOException {
+         byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+         varInt(bytes.length);
+         ensure(bytes.length);
+         buffer.put(bytes);
+      }
+
+      public long finish() throws IOException {
+         flush();
+         return position - start;
+      }
+
+      public long checksum() {
+         return crc.getValue();
+      }
+
+      private void flush() throws IOException {
+         buffer.flip();
+         crc.update(buffer.array(), 0, buffer.limit());
+         while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+         }
+         buffer.clear();
+      }
+   }
+
+   // Buffered reader for the body that refills with bulk channel reads.
+   private static class Input {
+
+      private FileChannel channel;
+      private ByteBuffer buffer;
+      private long position;
+
+      public Input(FileChannel channel, long start) {
+         this.channel = channel;
+         position = start;
+         buffer = ByteBuffer.allocate(BUFFER_SIZE);
+         buffer.flip();
+      }
+
+      public void ensure(int bytes) throws IOException {
+
+         if (buffer.remaining() >= bytes) {
+            return;
+         }
+         if (buffer.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(bytes);
+            larger.put(buffer);
+            buffer = larger;
+         }
+
+         else {
+            buffer.compact();
+         }
+         while (buffer.position() < bytes) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+               throw new IOException("Snapshot ends early");
+            }
+            position += read;
+         }
+         buffer.flip();
+      }
+
+      public int varInt() throws IOException {
+
+         int value = 0;
+
+         for (int shift = 0; shift < 35; shift += 7) {
+            ensure(1);
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+               return value;
+            }
+         }
+         throw new IOException("Malformed length in snapshot");
+      }
+
+      public String string() throws IOException {
+         int length = varInt();
+         ensure(length);
+         String value = new String(buffer.array(), buffer.position(), length,
+               StandardCharsets.UTF_8);
+         buffer.position(buffer.position() + length);
+         return value;
+      }
+   }
+}
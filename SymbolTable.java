@@ -0,0 +1,207 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: SymbolTable.java
+//Program Purpose: SymbolTable.java keeps one canonical String for every
+//distinct phone number or format code seen while loading. The loaders hand
+//every parsed value to intern() and keep the returned instance, so a
+//number that appears in a million messages is stored once. Values can also
+//be given compact int ids for stores that keep ids instead of references,
+//and the table counts lookups and hits to show how much memory it saved.
+//----------------------------
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+//----------------------------
+class SymbolTable {
+
+   // Rough heap cost of a String: object header and fields, array header,
+   // and the Latin-1 bytes rounded up to 8.
+   private static final int STRING_OVERHEAD = 24 + 16;
+   private static final int LOOKUP_CAPACITY = 1024;
+
+   private String name;
+   private ConcurrentHashMap<String, String> canonical;
+   private HashMap<String, Integer> ids;
+   private ArrayList<String> values;
+   private LongAdder lookups;
+   private LongAdder savedBytes;
+
+   public SymbolTable() {
+      this("symbols");
+   }
+
+   public SymbolTable(String name) {
+      this.name = name;
+      canonical = new ConcurrentHashMap<String, String>();
+      ids = new HashMap<String, Integer>();
+      values = new ArrayList<String>();
+      lookups = new LongAdder();
+      savedBytes = new LongAdder();
+   }
+
+   // Returns the canonical instance equal to value. Safe to call from
+   // several loader threads at once.
+   public String intern(String value) {
+
+      lookups.increment();
+      String existing = canonical.putIfAbsent(value, value);
+
+      if (existing == null) {
+         return value;
+      }
+      savedBytes.add(stringBytes(value.length()));
+      return existing;
+   }
+
+   // Returns the id of value, assigning the next id on first use. Ids and
+   // value() are for single threaded stores and are not synchronized.
+   public int id(String value) {
+
+      Integer id = ids.get(value);
+
+      if (id == null) {
+         id = values.size();
+         values.add(intern(value));
+         ids.put(values.get(id), id);
+      }
+
+      else {
+         lookups.increment();
+         savedBytes.add(stringBytes(value.length()));
+      }
+      return id;
+   }
+
+   // True if value has been given an id.
+   public boolean hasId(String value) {
+      return ids.containsKey(value);
+   }
+
+   public String value(int id) {
+      return values.get(id);
+   }
+
+   // An unsynchronized front for one parser thread that finds the canonical
+   // String for a range of ASCII bytes without creating a String when the
+   // value has been seen before.
+   public Lookup newLookup() {
+      return new Lookup();
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public int getUniqueCount() {
+      return canonical.size();
+   }
+
+   public long getTotalCount() {
+      return lookups.sum();
+   }
+
+   public long getEstimatedBytesSaved() {
+      return savedBytes.sum();
+   }
+
+   public String toString() {
+      return String.format("%s: %d unique of %d values, ~%d KB saved", name,
+            getUniqueCount(), getTotalCount(),
+            getEstimatedBytesSaved() / 1024);
+   }
+
+   private static long stringBytes(int length) {
+      return STRING_OVERHEAD + ((length + 7) & ~7);
+   }
+
+   class Lookup {
+
+      private String[] slots;
+      private int used;
+
+      public Lookup() {
+         slots = new String[LOOKUP_CAPACITY];
+      }
+
+      public String intern(ByteBuffer buffer, int offset, int length) {
+
+         int hash = 0;
+         boolean ascii = true;
+
+         // Same polynomial as String.hashCode() for Latin-1 strings.
+         for (int i = 0; i < length; i++) {
+            byte b = buffer.get(offset + i);
+            ascii &= b >= 0;
+            hash = 31 * hash + b;
+         }
+         if (!ascii) {
+            return SymbolTable.this.intern(decode(buffer, offset, length));
+         }
+
+         int mask = slots.length - 1;
+         int slot = mix(hash) & mask;
+
+         while (slots[slot] != null) {
+            String candidate = slots[slot];
+            if (candidate.hashCode() == hash
+                  && matches(candidate, buffer, offset, length)) {
+               lookups.increment();
+               savedBytes.add(stringBytes(length));
+               return candidate;
+            }
+            slot = (slot + 1) & mask;
+         }
+
+         String value = SymbolTable.this.intern(
+               decode(buffer, offset, length));
+         slots[slot] = value;
+         if (++used * 2 > slots.length) {
+            rehash();
+         }
+         return value;
+      }
+
+      private void rehash() {
+
+         String[] old = slots;
+         slots = new String[old.length * 2];
+         int mask = slots.length - 1;
+
+         for (String value : old) {
+            if (value != null) {
+               int slot = mix(value.hashCode()) & mask;
+               while (slots[slot] != null) {
+                  slot = (slot + 1) & mask;
+               }
+               slots[slot] = value;
+            }
+         }
+      }
+
+      private int mix(int hash) {
+         return hash ^ (hash >>> 16);
+      }
+
+      private boolean matches(String candidate, ByteBuffer buffer, int offset,
+            int length) {
+
+         if (candidate.length() != length) {
+            return false;
+         }
+         for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != buffer.get(offset + i)) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private String decode(ByteBuffer buffer, int offset, int length) {
+         byte[] bytes = new byte[length];
+         buffer.get(offset, bytes, 0, length);
+         return new String(bytes, StandardCharsets.US_ASCII);
+      }
+   }
+}
@@ -0,0 +1,71 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: TextSource.java
+//Program Purpose: TextSource.java keeps the message input file mapped for
+//the life of the carrier so Text contents can stay in the file. A lazy
+//Text only holds its offset and length here and decodes the bytes when its
+//content is first asked for. With caching on, the decoded String is kept
+//in the Text afterwards; with it off every call decodes again and nothing
+//is held on the heap. The input file must not be truncated or rewritten
+//while it is mapped.
+//----------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+//----------------------------
+class TextSource {
+
+   // A single mapping is limited to 2GB, so the file is mapped in windows.
+   private static final int WINDOW_BITS = 30;
+   private static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+
+   private ByteBuffer[] windows;
+   private long size;
+   private boolean caching;
+
+   public TextSource(Path inputFilePath, boolean caching) throws IOException {
+
+      try (FileChannel channel = FileChannel.open(inputFilePath,
+            StandardOpenOption.READ)) {
+         size = channel.size();
+         windows = new ByteBuffer[(int) ((size + WINDOW_SIZE - 1)
+               >>> WINDOW_BITS)];
+         for (int i = 0; i < windows.length; i++) {
+            long position = (long) i << WINDOW_BITS;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                  Math.min(WINDOW_SIZE, size - position));
+         }
+      }
+      this.caching = caching;
+   }
+
+   // True if [offset, offset + length) lies inside the mapped file.
+   public boolean covers(long offset, int length) {
+      return offset >= 0 && length >= 0 && offset + length <= size;
+   }
+
+   public boolean isCaching() {
+      return caching;
+   }
+
+   // Decodes the bytes the same way MappedRecordParser decodes the fields
+   // it keeps, so a lazy Text reads the same as an eager one.
+   public String decode(long offset, int length) {
+
+      byte[] bytes = new byte[length];
+      int copied = 0;
+
+      while (copied < length) {
+         long position = offset + copied;
+         ByteBuffer window = windows[(int) (position >>> WINDOW_BITS)];
+         int start = (int) (position & (WINDOW_SIZE - 1));
+         int count = Math.min(length - copied, window.limit() - start);
+         window.get(start, bytes, copied, count);
+         copied += count;
+      }
+      return new String(bytes, StandardCharsets.US_ASCII);
+   }
+}
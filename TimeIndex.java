@@ -0,0 +1,304 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: TimeIndex.java
+//Program Purpose: TimeIndex.java answers questions about a period of time,
+//such as the charges of an account in a billing period or all traffic in
+//a window, without scanning every account. It keeps every account's
+//messages in a time ordered slice, and a second copy partitioned into
+//fixed-width time buckets across all accounts. A slice is a TreeMap from
+//the time of each message to the message, so a range is found with one
+//walk from the root and its k messages are read in order, and whole
+//buckets inside a window are counted from their totals. As an
+//IndexedMessageStore it is kept in sync with every append, erase and
+//disconnect.
+//
+//Time ranges are half open: from is included and to is not.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+//----------------------------
+class TimeIndex extends IndexedMessageStore {
+
+   // Each global bucket covers 2^16 time units.
+   private static final int BUCKET_BITS = 16;
+
+   private ConcurrentHashMap<String, Slice> byAccount;
+   private ConcurrentSkipListMap<Integer, Slice> byBucket;
+
+   public TimeIndex(MessageStore messageStore) {
+      super(messageStore);
+      byAccount = new ConcurrentHashMap<String, Slice>();
+      byBucket = new ConcurrentSkipListMap<Integer, Slice>();
+   }
+
+   // Number of messages the account sent in [from, to).
+   public int count(String account, int from, int to) {
+
+      Slice slice = byAccount.get(account);
+
+      if (slice == null || from >= to) {
+         return 0;
+      }
+      synchronized (slice) {
+         return slice.range(from, to).size();
+      }
+   }
+
+   // Charges of the messages the account sent in [from, to), in Money units.
+   public long charges(String account, int from, int to) {
+
+      Slice slice = byAccount.get(account);
+
+      if (slice == null || from >= to) {
+         return 0;
+      }
+      synchronized (slice) {
+         return charges(slice.range(from, to));
+      }
+   }
+
+   // The messages the account sent in [from, to), ordered by time and, for
+   // equal times, in the order they were added.
+   public List<Item> messages(String account, int from, int to) {
+
+      Slice slice = byAccount.get(account);
+
+      if (slice == null || from >= to) {
+         return new ArrayList<Item>();
+      }
+      synchronized (slice) {
+         return new ArrayList<Item>(slice.range(from, to));
+      }
+   }
+
+   // Number of messages of every account in [from, to).
+   public long windowCount(int from, int to) {
+
+      long count = 0;
+
+      for (Map.Entry<Integer, Slice> bucket : buckets(from, to)) {
+         Slice slice = bucket.getValue();
+         synchronized (slice) {
+            count += covers(bucket.getKey(), from, to) ? slice.byTime.size()
+                  : slice.range(from, to).size();
+         }
+      }
+      return count;
+   }
+
+   // Charges of the messages of every account in [from, to), in Money
+   // units.
+   public long windowCharges(int from, int to) {
+
+      long charges = 0;
+
+      for (Map.Entry<Integer, Slice> bucket : buckets(from, to)) {
+         Slice slice = bucket.getValue();
+         synchronized (slice) {
+            charges = Money.add(charges, covers(bucket.getKey(), from, to)
+                  ? slice.total : charges(slice.range(from, to)));
+         }
+      }
+      return charges;
+   }
+
+   // All messages in [from, to), ordered by time and, for equal times, by
+   // account. The buckets hand them over in time order, so the sort only
+   // has equal times to put in order.
+   public List<Item> windowMessages(int from, int to) {
+
+      ArrayList<Item> inRange = new ArrayList<Item>();
+
+      for (Map.Entry<Integer, Slice> bucket : buckets(from, to)) {
+         Slice slice = bucket.getValue();
+         synchronized (slice) {
+            inRange.addAll(slice.range(from, to));
+         }
+      }
+
+      Collections.sort(inRange, new Comparator<Item>() {
+         public int compare(Item first, Item second) {
+            int order = Integer.compare(first.getTime(), second.getTime());
+            return order != 0 ? order
+                  : first.getFrom().compareTo(second.getFrom());
+         }
+      });
+      return inRange;
+   }
+
+   protected void index(Item messageItem) {
+
+      add(byAccount, messageItem.getFrom(), messageItem);
+      try {
+         add(byBucket, bucket(messageItem.getTime()), messageItem);
+      }
+      catch (RuntimeException e) {
+         remove(byAccount, messageItem.getFrom(), messageItem);
+         throw e;
+      }
+   }
+
+   // The account's slice finds the instance that was indexed, so the
+   // bucket, shared by every account, removes that one directly.
+   protected void unindex(Item messageItem) {
+
+      Item indexed = remove(byAccount, messageItem.getFrom(), messageItem);
+
+      if (indexed != null) {
+         remove(byBucket, bucket(messageItem.getTime()), indexed);
+      }
+   }
+
+   // Same locking as ConcurrentMessageStore: the slice is updated under its
+   // own lock, and an add that finds it removed starts over with a new one.
+   private static <K> void add(ConcurrentMap<K, Slice> slices, K key,
+         Item messageItem) {
+
+      while (true) {
+         Slice slice = slices.get(key);
+
+         if (slice == null) {
+            Slice created = new Slice();
+            slice = slices.putIfAbsent(key, created);
+            if (slice == null) {
+               slice = created;
+            }
+         }
+         synchronized (slice) {
+            if (!slice.removed) {
+               slice.add(messageItem);
+               return;
+            }
+         }
+      }
+   }
+
+   // Returns the message that was removed, or null if the slice did not
+   // have it.
+   private static <K> Item remove(ConcurrentMap<K, Slice> slices, K key,
+         Item messageItem) {
+
+      Slice slice = slices.get(key);
+
+      if (slice == null) {
+         return null;
+      }
+      synchronized (slice) {
+         Item removed = slice.remove(messageItem);
+         if (slice.byTime.isEmpty() && !slice.removed) {
+            slice.removed = true;
+            slices.remove(key, slice);
+         }
+         return removed;
+      }
+   }
+
+   private static long charges(Collection<Item> messages) {
+
+      long charges = 0;
+
+      for (Item messageItem : messages) {
+         charges = Money.add(charges, messageItem.getCharge());
+      }
+      return charges;
+   }
+
+   private static int bucket(int time) {
+      return time >> BUCKET_BITS;
+   }
+
+   // True if the whole bucket lies inside [from, to).
+   private static boolean covers(int bucket, int from, int to) {
+      long start = (long) bucket << BUCKET_BITS;
+      long end = start + (1L << BUCKET_BITS);
+      return start >= from && end <= to;
+   }
+
+   private Collection<Map.Entry<Integer, Slice>> buckets(int from, int to) {
+
+      if (from >= to) {
+         return Collections.emptyList();
+      }
+      return byBucket.subMap(bucket(from), true, bucket(to - 1), true)
+            .entrySet();
+   }
+
+   // A set of messages by time, and the total of their charges. Each key is
+   // the time in the high half and a sequence number in the low half, so
+   // messages that share a time each have a key of their own and keep the
+   // order they were added in. The key of every message is kept by
+   // identity too, so removing an indexed instance is one lookup. The
+   // caller holds the slice's lock.
+   private static class Slice {
+
+      private TreeMap<Long, Item> byTime = new TreeMap<Long, Item>();
+      private IdentityHashMap<Item, Long> keys =
+            new IdentityHashMap<Item, Long>();
+      private int sequence;
+      private long total;
+      private boolean removed;
+
+      public void add(Item messageItem) {
+
+         long sum = Money.add(total, messageItem.getCharge());
+         long key = key(messageItem.getTime(), sequence++);
+
+         // The sequence wraps after 2^32 adds, where a key may still be
+         // taken.
+         while (byTime.containsKey(key)) {
+            key = key(messageItem.getTime(), sequence++);
+         }
+         byTime.put(key, messageItem);
+         keys.put(messageItem, key);
+         total = sum;
+      }
+
+      // Removes the message and returns the instance that was indexed, or
+      // null if there is none. A store that builds its Items on demand
+      // hands back another instance than the one that was indexed, so the
+      // first message with the same time equal to it is removed then.
+      public Item remove(Item messageItem) {
+
+         Long found = keys.get(messageItem);
+
+         if (found == null) {
+            for (Map.Entry<Long, Item> entry : byTime.subMap(
+                  key(messageItem.getTime(), 0), true,
+                  key(messageItem.getTime() + 1L, 0), false).entrySet()) {
+               if (same(entry.getValue(), messageItem)) {
+                  found = entry.getKey();
+                  break;
+               }
+            }
+         }
+         if (found == null) {
+            return null;
+         }
+
+         Item removed = byTime.remove(found);
+
+         keys.remove(removed);
+         total = Money.subtract(total, removed.getCharge());
+         return removed;
+      }
+
+      // The messages in [from, to) in time order, a view of the slice.
+      public Collection<Item> range(long from, long to) {
+         return byTime.subMap(key(from, 0), true, key(to, 0), false)
+               .values();
+      }
+
+      private static long key(long time, int sequence) {
+         return time << 32 | (sequence & 0xFFFFFFFFL);
+      }
+
+      private static boolean same(Item first, Item second) {
+         return first.getCharge() == second.getCharge()
+               && first.getFrom().equals(second.getFrom())
+               && ((Message<?>) first).getFormat().toString().equals(
+                     ((Message<?>) second).getFormat().toString());
+      }
+   }
+}
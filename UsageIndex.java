@@ -0,0 +1,429 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: UsageIndex.java
+//Program Purpose: UsageIndex.java keeps usage rollups that finance asks
+//for, such as the megabytes of GIF media an account sent, the voice
+//seconds in each format or the number of texts per sender, so they are
+//answered without walking any messages. For every account, and across the
+//carrier, it keeps the message count, volume and charges of each message
+//type and of each type and format. As an IndexedMessageStore it adds
+//every message that is loaded and subtracts every message that is erased
+//or disconnected, so a query is a map lookup and reads a few counters.
+//
+//Volume is megabytes for media and seconds for voice. Media sizes are
+//summed in thousandths of a megabyte so subtracting a message takes back
+//exactly what adding it put in.
+//----------------------------
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+//----------------------------
+class UsageIndex extends IndexedMessageStore {
+
+   private static final MessageType[] TYPES = MessageType.values();
+
+   private ConcurrentHashMap<String, AccountUsage> byAccount;
+   // Carrier-wide totals, shared by every loading thread.
+   private SharedCounter[] totalByType;
+   private ArrayList<ConcurrentHashMap<String, SharedCounter>> totalByFormat;
+
+   public UsageIndex(MessageStore messageStore) {
+      super(messageStore);
+      byAccount = new ConcurrentHashMap<String, AccountUsage>();
+      totalByType = new SharedCounter[TYPES.length];
+      totalByFormat =
+            new ArrayList<ConcurrentHashMap<String, SharedCounter>>();
+      for (int i = 0; i < TYPES.length; i++) {
+         totalByType[i] = new SharedCounter();
+         totalByFormat.add(new ConcurrentHashMap<String, SharedCounter>());
+      }
+   }
+
+   // Usage of the messages of the type the account sent, in the format or
+   // in every format if format is null.
+   public Usage usage(String account, MessageType type, String format) {
+
+      AccountUsage entry = byAccount.get(account);
+
+      if (entry == null) {
+         return Usage.NONE;
+      }
+      synchronized (entry) {
+         Counter counter = format == null ? entry.byType[type.ordinal()]
+               : entry.find(type, format);
+         return counter == null ? Usage.NONE : counter.toUsage();
+      }
+   }
+
+   // Usage of the messages of the type the account sent, by format.
+   public SortedMap<String, Usage> usageByFormat(String account,
+         MessageType type) {
+
+      TreeMap<String, Usage> usage = new TreeMap<String, Usage>();
+      AccountUsage entry = byAccount.get(account);
+
+      if (entry != null) {
+         synchronized (entry) {
+            for (Counter counter : entry.byFormat) {
+               if (counter.type == type) {
+                  usage.put(counter.format, counter.toUsage());
+               }
+            }
+         }
+      }
+      return usage;
+   }
+
+   // Usage of the messages of the type across every account, in the format
+   // or in every format if format is null.
+   public Usage totalUsage(MessageType type, String format) {
+
+      SharedCounter counter = format == null ? totalByType[type.ordinal()]
+            : totalByFormat.get(type.ordinal()).get(format);
+
+      return counter == null ? Usage.NONE : counter.toUsage();
+   }
+
+   // Usage of the messages of the type across every account, by format.
+   // Formats that no message uses any more are left out.
+   public SortedMap<String, Usage> totalUsageByFormat(MessageType type) {
+
+      TreeMap<String, Usage> usage = new TreeMap<String, Usage>();
+
+      for (Map.Entry<String, SharedCounter> entry : totalByFormat.get(
+            type.ordinal()).entrySet()) {
+         Usage formatUsage = entry.getValue().toUsage();
+         if (formatUsage.getCount() > 0) {
+            usage.put(entry.getKey(), formatUsage);
+         }
+      }
+      return usage;
+   }
+
+   protected void index(Item messageItem) {
+
+      MessageType type = MessageType.of(messageItem);
+
+      if (type == null) {
+         return;
+      }
+
+      String format = format(messageItem);
+      long volume = volume(messageItem);
+      long charge = messageItem.getCharge();
+      String account = messageItem.getFrom();
+
+      while (true) {
+         AccountUsage entry = byAccount.get(account);
+
+         if (entry == null) {
+            AccountUsage created = new AccountUsage();
+            entry = byAccount.putIfAbsent(account, created);
+            if (entry == null) {
+               entry = created;
+            }
+         }
+         synchronized (entry) {
+            if (!entry.removed) {
+               entry.add(type, format, volume, charge);
+               break;
+            }
+         }
+      }
+      // A carrier total that would overflow takes the message back out of
+      // the totals already counted, so it fails as a whole.
+      try {
+         totalByType[type.ordinal()].add(1, volume, charge);
+         try {
+            if (format != null) {
+               sharedCounter(type, format).add(1, volume, charge);
+            }
+         }
+         catch (ArithmeticException e) {
+            totalByType[type.ordinal()].add(-1, -volume, -charge);
+            throw e;
+         }
+      }
+      catch (ArithmeticException e) {
+         unindexAccount(account, type, format, volume, charge);
+         throw e;
+      }
+   }
+
+   // The last message of an account removes its entry, and an add that
+   // finds the entry removed starts over with a new one.
+   protected void unindex(Item messageItem) {
+
+      MessageType type = MessageType.of(messageItem);
+
+      if (type == null) {
+         return;
+      }
+
+      String format = format(messageItem);
+      long volume = volume(messageItem);
+      long charge = messageItem.getCharge();
+
+      unindexAccount(messageItem.getFrom(), type, format, volume, charge);
+      totalByType[type.ordinal()].add(-1, -volume, -charge);
+      if (format != null) {
+         sharedCounter(type, format).add(-1, -volume, -charge);
+      }
+   }
+
+   private void unindexAccount(String account, MessageType type,
+         String format, long volume, long charge) {
+
+      AccountUsage entry = byAccount.get(account);
+
+      if (entry != null) {
+         synchronized (entry) {
+            entry.subtract(type, format, volume, charge);
+            if (entry.messages == 0 && !entry.removed) {
+               entry.removed = true;
+               byAccount.remove(account, entry);
+            }
+         }
+      }
+   }
+
+   private SharedCounter sharedCounter(MessageType type, String format) {
+
+      ConcurrentHashMap<String, SharedCounter> formats = totalByFormat.get(
+            type.ordinal());
+      SharedCounter counter = formats.get(format);
+
+      if (counter == null) {
+         SharedCounter created = new SharedCounter();
+         counter = formats.putIfAbsent(format, created);
+         if (counter == null) {
+            counter = created;
+         }
+      }
+      return counter;
+   }
+
+   // The media or voice format of the message, or null for a text.
+   private static String format(Item messageItem) {
+
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      if (payload instanceof Media) {
+         return ((Media) payload).getFormat();
+      }
+      if (payload instanceof Voice) {
+         return ((Voice) payload).getFormat();
+      }
+      return null;
+   }
+
+   // Thousandths of a megabyte for media, seconds for voice, 0 for text.
+   private static long volume(Item messageItem) {
+
+      Object payload = ((Message<?>) messageItem).getFormat();
+
+      if (payload instanceof Media) {
+         return Math.round(((Media) payload).getSize()
+               * Usage.MEDIA_UNITS_PER_MEGABYTE);
+      }
+      if (payload instanceof Voice) {
+         return ((Voice) payload).getDuration();
+      }
+      return 0;
+   }
+
+   // Totals of one account by type and by type and format, guarded by the
+   // entry's lock. An account uses a handful of formats, so they are kept
+   // in a short list.
+   private static class AccountUsage {
+
+      private Counter[] byType = new Counter[TYPES.length];
+      private ArrayList<Counter> byFormat = new ArrayList<Counter>(4);
+      private long messages;
+      private boolean removed;
+
+      public void add(MessageType type, String format, long volume,
+            long charge) {
+
+         Counter typeCounter = byType[type.ordinal()];
+
+         if (typeCounter == null) {
+            typeCounter = new Counter(type, null);
+            byType[type.ordinal()] = typeCounter;
+         }
+         typeCounter.add(1, volume, charge);
+         if (format != null) {
+            Counter formatCounter = find(type, format);
+            if (formatCounter == null) {
+               formatCounter = new Counter(type, format);
+               byFormat.add(formatCounter);
+            }
+            formatCounter.add(1, volume, charge);
+         }
+         messages++;
+      }
+
+      public void subtract(MessageType type, String format, long volume,
+            long charge) {
+
+         Counter typeCounter = byType[type.ordinal()];
+
+         if (typeCounter == null) {
+            return;
+         }
+         typeCounter.add(-1, -volume, -charge);
+         if (typeCounter.count == 0) {
+            byType[type.ordinal()] = null;
+         }
+         if (format != null) {
+            Counter formatCounter = find(type, format);
+            if (formatCounter != null) {
+               formatCounter.add(-1, -volume, -charge);
+               if (formatCounter.count == 0) {
+                  byFormat.remove(formatCounter);
+               }
+            }
+         }
+         messages--;
+      }
+
+      public Counter find(MessageType type, String format) {
+         for (int i = 0; i < byFormat.size(); i++) {
+            Counter counter = byFormat.get(i);
+            if (counter.type == type && counter.format.equals(format)) {
+               return counter;
+            }
+         }
+         return null;
+      }
+   }
+
+   private static class Counter {
+
+      private MessageType type;
+      private String format;
+      private long count;
+      private long volume;
+      private long charges;
+
+      public Counter(MessageType type, String format) {
+         this.type = type;
+         this.format = format;
+      }
+
+      // Sum first, so a total that overflows leaves the counter unchanged.
+      public void add(long count, long volume, long charges) {
+         long total = Money.add(this.charges, charges);
+         this.count += count;
+         this.volume += volume;
+         this.charges = total;
+      }
+
+      public Usage toUsage() {
+         return new Usage(count, volume, charges);
+      }
+   }
+
+   // A carrier-wide total. Its three sums are updated separately, so while
+   // messages are being added or removed they may be a message apart. The
+   // charges are Money, added with an overflow check like every other
+   // total, so they are updated by compare and set instead of a LongAdder.
+   private static class SharedCounter {
+
+      private LongAdder count = new LongAdder();
+      private LongAdder volume = new LongAdder();
+      private AtomicLong charges = new AtomicLong();
+
+      // Charges first, so a total that overflows leaves the counter
+      // unchanged.
+      public void add(long count, long volume, long charges) {
+
+         long current = 0;
+
+         do {
+            current = this.charges.get();
+         }
+         while (!this.charges.compareAndSet(current,
+               Money.add(current, charges)));
+         this.count.add(count);
+         this.volume.add(volume);
+      }
+
+      public Usage toUsage() {
+         return new Usage(count.sum(), volume.sum(), charges.get());
+      }
+   }
+}
+
+// Message count, volume and total charges of a group of messages.
+class Usage {
+
+   public static final Usage NONE = new Usage(0, 0, 0);
+   public static final int MEDIA_UNITS_PER_MEGABYTE = 1000;
+
+   private long count;
+   private long volume;
+   private long charges;
+
+   public Usage(long count, long volume, long charges) {
+      this.count = count;
+      this.volume = volume;
+      this.charges = charges;
+   }
+
+   public long getCount() {
+      return count;
+   }
+
+   // Thousandths of a megabyte for media, seconds for voice.
+   public long getVolume() {
+      return volume;
+   }
+
+   // Total size of media messages.
+   public double getMegabytes() {
+      return (double) volume / MEDIA_UNITS_PER_MEGABYTE;
+   }
+
+   // Total duration of voice messages.
+   public long getSeconds() {
+      return volume;
+   }
+
+   // Total charges in Money units.
+   public long getCharges() {
+      return charges;
+   }
+
+   // The usage of both groups together, such as the same account type on
+   // two shards.
+   public Usage add(Usage other) {
+      return new Usage(count + other.count, volume + other.volume,
+            Money.add(charges, other.charges));
+   }
+
+   // The count, the volume in the type's unit and the charges, for people
+   // to read.
+   public String describe(MessageType type) {
+
+      StringBuilder builder = new StringBuilder();
+
+      builder.append(count).append(" messages, ");
+      if (type == MessageType.MEDIA) {
+         builder.append(getMegabytes()).append(" MB, ");
+      }
+
+      else if (type == MessageType.VOICE) {
+         builder.append(getSeconds()).append(" seconds, ");
+      }
+      builder.append("charges ");
+      Money.append(builder, charges);
+      return builder.toString();
+   }
+
+   public String toString() {
+      return count + " messages, volume " + volume + ", charges "
+            + Money.format(charges);
+   }
+}
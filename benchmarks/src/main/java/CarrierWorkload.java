@@ -0,0 +1,146 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: CarrierWorkload.java
+//Program Purpose: CarrierWorkload.java connects the benchmarks to the
+//carrier. It sits in the default package next to SmartCarrier so it can
+//build and drive one, and implements bench.Workload so the benchmarks in
+//their named package can call it without reflection.
+//----------------------------
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+//----------------------------
+public class CarrierWorkload implements bench.Workload {
+
+   // Small enough that the disk store evicts at the default sizes.
+   private static final long DISK_CACHE = 16L << 20;
+
+   private SmartCarrier carrier;
+   private MessageStore messageStore;
+   private ReportWriter report;
+   private OutputStream reportOut;
+
+   public void generate(String inputFile, long messages, int accounts,
+         String mix, long seed) throws IOException {
+      new MessageGenerator(accounts, mix, seed).write(Paths.get(inputFile),
+            messages);
+   }
+
+   public void load(String inputFile, String store, String loader,
+         int threads) throws IOException {
+
+      switch (store) {
+      case "tree":
+         messageStore = new TreeMapMessageStore();
+         break;
+      case "columnar":
+         messageStore = new ColumnarMessageStore();
+         break;
+      case "concurrent":
+         messageStore = new ConcurrentMessageStore();
+         break;
+      case "offheap":
+         messageStore = new OffHeapMessageStore();
+         break;
+      case "disk":
+         messageStore = new DiskMessageStore(newAccountFile(), DISK_CACHE);
+         break;
+      default:
+         throw new IllegalArgumentException("Unknown store " + store);
+      }
+
+      carrier = new SmartCarrier("Benchmark", messageStore);
+      messageStore = carrier.getMessageStore();
+      carrier.setInputFileLocation(inputFile);
+      carrier.setParallelism(threads);
+      report = null;
+
+      switch (loader) {
+      case "sequential":
+         carrier.init();
+         break;
+      case "mapped":
+         carrier.initMapped();
+         break;
+      case "parallel":
+         carrier.initParallel();
+         break;
+      default:
+         throw new IllegalArgumentException("Unknown loader " + loader);
+      }
+   }
+
+   public long eraseFirstMedia() {
+      return carrier.eraseFirst(MessageType.MEDIA);
+   }
+
+   public void listAllAccounts(OutputStream out) throws IOException {
+      if (report == null || reportOut != out) {
+         report = new ReportWriter(out);
+         reportOut = out;
+      }
+      carrier.listAllAccounts(report);
+   }
+
+   // Every message through Item.toString() and every total through
+   // printf, into a PrintStream, as listAllAccounts() did before
+   // ReportWriter.
+   public void listAllAccountsLegacy(OutputStream out) {
+
+      PrintStream print = new PrintStream(out, false,
+            StandardCharsets.US_ASCII);
+
+      print.printf("%40s%n", "LIST OF ALL ACCOUNTS");
+      print.println("--------------------------------------------------");
+      for (String number : messageStore.accounts()) {
+         double totalCharges = 0.0;
+         print.println("Account: " + number);
+         for (Item element : messageStore.messages(number)) {
+            totalCharges += Money.toDouble(element.getCharge());
+            print.print(element.toString());
+         }
+         print.printf("%-14s %.2f%n", "Total charges: ", totalCharges);
+         print.println("--------------------------------------------------");
+      }
+      print.flush();
+   }
+
+   public String[] accounts() {
+      return messageStore.accounts().toArray(new String[0]);
+   }
+
+   public long messageCount() {
+      return messageStore.messageCount();
+   }
+
+   public Object lookup(String number) {
+      return messageStore.snapshot(number);
+   }
+
+   // disconnectAccount without reading the number from the console.
+   public Object disconnect(String number) {
+      try {
+         return carrier.disconnect(number);
+      }
+      catch (InvalidAccountException e) {
+         return null;
+      }
+   }
+
+   public Object disconnectAll(List<String> numbers) {
+      return carrier.disconnectAll(numbers);
+   }
+
+   // A fresh account file for each load, removed when the JVM exits.
+   private static Path newAccountFile() throws IOException {
+      Path file = Files.createTempFile("accounts", ".db");
+      Files.delete(file);
+      file.toFile().deleteOnExit();
+      return file;
+   }
+}
@@ -0,0 +1,71 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: CarrierState.java
+//Program Purpose: CarrierState.java holds what every carrier benchmark
+//shares: the size and mix of the generated input, which store and loader
+//to run, how many threads the sweeps use, and the generated file itself. The file is written once per trial
+//from a fixed seed, so every store and loader combination is measured on
+//the same messages.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Level;
+//----------------------------
+@State(Scope.Benchmark)
+public abstract class CarrierState {
+
+   @Param("200000")
+   public long messages;
+
+   @Param("20000")
+   public int accounts;
+
+   @Param("50:25:25")
+   public String mix;
+
+   @Param({ "tree", "columnar", "concurrent", "offheap", "disk" })
+   public String store;
+
+   @Param({ "sequential", "mapped", "parallel" })
+   public String loader;
+
+   @Param("1")
+   public long seed;
+
+   // Threads the listing and erase sweeps run on, whichever loader is
+   // used; 1 runs them on the calling thread. Pass -p threads=1,2,4,8 to
+   // see how they scale.
+   @Param("1")
+   public int threads;
+
+   protected Path inputFile;
+
+   // Called first by every subclass's trial setup, since JMH does not
+   // order setup methods across a class hierarchy.
+   protected void generateInput() throws IOException {
+      inputFile = Files.createTempFile("messages", ".txt");
+      Workload.create().generate(inputFile.toString(), messages, accounts,
+            mix, seed);
+   }
+
+   protected Workload loadCarrier() throws IOException {
+      Workload workload = Workload.create();
+      workload.load(inputFile.toString(), store, loader, threads);
+      return workload;
+   }
+
+   @TearDown(Level.Trial)
+   public void deleteInput() throws IOException {
+      if (inputFile != null) {
+         Files.deleteIfExists(inputFile);
+      }
+   }
+}
@@ -0,0 +1,58 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: DisconnectBenchmark.java
+//Program Purpose: DisconnectBenchmark.java measures disconnecting accounts,
+//the store side of disconnectAccount(). Every measured call removes a
+//batch of random accounts from a freshly loaded carrier, and the score is
+//the time per disconnected account, one at a time or as one batch.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+//----------------------------
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DisconnectBenchmark extends CarrierState {
+
+   private static final int DISCONNECTS = 1000;
+
+   private Workload workload;
+   private String[] numbers;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      generateInput();
+   }
+
+   @Setup(Level.Iteration)
+   public void reload() throws IOException {
+
+      workload = loadCarrier();
+      numbers = workload.accounts();
+      Collections.shuffle(Arrays.asList(numbers), new Random(seed));
+      numbers = Arrays.copyOf(numbers, Math.min(DISCONNECTS,
+            numbers.length));
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(DISCONNECTS)
+   public void disconnectAccounts(Blackhole blackhole) {
+      for (String number : numbers) {
+         blackhole.consume(workload.disconnect(number));
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(DISCONNECTS)
+   public Object disconnectBatch() {
+      return workload.disconnectAll(Arrays.asList(numbers));
+   }
+}
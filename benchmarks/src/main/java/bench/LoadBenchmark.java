@@ -0,0 +1,31 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: LoadBenchmark.java
+//Program Purpose: LoadBenchmark.java measures reading the whole input file
+//into a new carrier, the work SmartCarrier.init() and its mapped and
+//parallel variants do at startup.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+//----------------------------
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark extends CarrierState {
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      generateInput();
+   }
+
+   @Benchmark
+   public Workload init() throws IOException {
+      return loadCarrier();
+   }
+}
@@ -0,0 +1,63 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: ReportBenchmark.java
+//Program Purpose: ReportBenchmark.java measures the read-only operations on
+//a loaded carrier: rendering the full listAllAccounts() report into a
+//stream that discards it, the same report through the original
+//toString() and printf path for comparison, and looking up single
+//accounts the way disconnectAccount() finds the account it removes.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+//----------------------------
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportBenchmark extends CarrierState {
+
+   private Workload workload;
+   private OutputStream sink;
+   private String[] lookups;
+   private int next;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+
+      generateInput();
+      workload = loadCarrier();
+      sink = OutputStream.nullOutputStream();
+
+      // Existing accounts in random order, so lookups do not walk the
+      // store in key order.
+      lookups = workload.accounts();
+      Collections.shuffle(Arrays.asList(lookups), new Random(seed));
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   public void listAllAccounts() throws IOException {
+      workload.listAllAccounts(sink);
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   public void listAllAccountsLegacy() {
+      workload.listAllAccountsLegacy(sink);
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public Object lookupAccount() {
+      String number = lookups[next];
+      next = next + 1 == lookups.length ? 0 : next + 1;
+      return workload.lookup(number);
+   }
+}
@@ -0,0 +1,38 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: SweepBenchmark.java
+//Program Purpose: SweepBenchmark.java measures eraseFirstMedia() over every
+//account. Erasing changes the carrier, so every measured call runs once on
+//a freshly loaded carrier; the load itself is not timed.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+//----------------------------
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SweepBenchmark extends CarrierState {
+
+   private Workload workload;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      generateInput();
+   }
+
+   @Setup(Level.Iteration)
+   public void reload() throws IOException {
+      workload = loadCarrier();
+   }
+
+   @Benchmark
+   public long eraseFirstMedia() {
+      return workload.eraseFirstMedia();
+   }
+}
@@ -0,0 +1,58 @@
+//------------------------------
+//@version 1.0 10-18-2026
+//File Name: Workload.java
+//Program Purpose: Workload.java is what the benchmarks drive. JMH only
+//accepts benchmarks in a named package, and a named package cannot refer
+//to the carrier's classes in the default package, so the carrier is
+//reached through this interface. CarrierWorkload in the default package
+//implements it and is loaded by name once per trial; the measured calls
+//are plain interface calls.
+//----------------------------
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+//----------------------------
+public interface Workload {
+
+   // Writes a synthetic T/M/V input file, see MessageGenerator.
+   void generate(String inputFile, long messages, int accounts, String mix,
+         long seed) throws IOException;
+
+   // store is tree, columnar, concurrent, offheap or disk; loader is
+   // sequential, mapped or parallel. The sweeps then run on threads
+   // threads.
+   void load(String inputFile, String store, String loader, int threads)
+         throws IOException;
+
+   long eraseFirstMedia();
+
+   void listAllAccounts(OutputStream out) throws IOException;
+
+   // The same listing rendered the way the carrier first printed it, to
+   // compare listAllAccounts() against.
+   void listAllAccountsLegacy(OutputStream out);
+
+   String[] accounts();
+
+   long messageCount();
+
+   Object lookup(String number);
+
+   Object disconnect(String number);
+
+   // disconnectAll on the numbers as one batch.
+   Object disconnectAll(List<String> numbers);
+
+   static Workload create() {
+      try {
+         return (Workload) Class.forName("CarrierWorkload")
+               .getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException e) {
+         throw new IllegalStateException("CarrierWorkload is not on the"
+               + " class path", e);
+      }
+   }
+}